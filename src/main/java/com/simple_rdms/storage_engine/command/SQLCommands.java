@@ -1,26 +1,49 @@
 package com.simple_rdms.storage_engine.command;
 
 import com.simple_rdms.storage_engine.database_manager.DatabaseManager;
+import com.simple_rdms.storage_engine.disk_manager.IoMode;
+import com.simple_rdms.storage_engine.disk_manager.ScanPool;
 import com.simple_rdms.storage_engine.disk_manager.TableFile;
 import com.simple_rdms.storage_engine.schema.ColumnDef;
 import com.simple_rdms.storage_engine.schema.ColumnType;
 import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_interface.ExternalSort;
+import com.simple_rdms.storage_engine.sql_interface.HashJoin;
+import com.simple_rdms.storage_engine.sql_interface.QueryPlan;
 import com.simple_rdms.storage_engine.sql_interface.SQLTableInterface;
+import com.simple_rdms.storage_engine.sql_parser.Lexer;
+import com.simple_rdms.storage_engine.sql_parser.Parser;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+import com.simple_rdms.storage_engine.sql_parser.Token;
+import com.simple_rdms.storage_engine.wal.DurabilityMode;
+import com.simple_rdms.storage_engine.wal.LogManager;
+import com.simple_rdms.storage_engine.wal.Transaction;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @ShellComponent
 public class SQLCommands {
 
     private final DatabaseManager databaseManager;
     private final TableFileFactory tableFileFactory;
+    private final SQLExecutor sqlExecutor;
+    // "database/name" -> PREPARE statement
+    private final Map<String, Statement.Prepare> preparedStatements = new ConcurrentHashMap<>();
+    // Transaction opened by BEGIN, null when every statement commits on its own
+    private Transaction transaction;
+    // Log of the database the transaction runs in, held open until it finishes
+    private LogManager transactionLog;
 
-    public SQLCommands(DatabaseManager databaseManager, TableFileFactory tableFileFactory) {
+    public SQLCommands(DatabaseManager databaseManager, TableFileFactory tableFileFactory, SQLExecutor sqlExecutor) {
         this.databaseManager = databaseManager;
         this.tableFileFactory = tableFileFactory;
+        this.sqlExecutor = sqlExecutor;
     }
 
     @ShellMethod(key = "create-database", value = "Create a new database")
@@ -31,6 +54,8 @@ public class SQLCommands {
 
     @ShellMethod(key = "use", value = "Connect to a database")
     public String useDatabase(String name) {
+        String error = transactionInProgress();
+        if (error != null) return error;
         databaseManager.useDatabase(name);
         return "Connected to database: " + name;
     }
@@ -75,7 +100,8 @@ public class SQLCommands {
                 .resolve(schema.getTableName() + ".tbl");
 
         // Create table using factory
-        tableFileFactory.createTable(schema, tablePath);
+        tableFileFactory.createTable(databaseManager.getCurrentDatabase(), schema, tablePath,
+                databaseManager.getIoMode());
 
         return String.format("Table '%s' created in database '%s' with %d columns\nPrimary key: %s",
                 tableName, databaseManager.getCurrentDatabase(), columns.size(), columns.get(0).getName());
@@ -89,28 +115,148 @@ public class SQLCommands {
             return "Error: No database selected. Use 'use <database-name>' first";
         }
 
-        // Extract table name from SQL
-        String tableName = extractTableName(sql);
-        if (tableName == null) {
-            return "Error: Could not determine table name from SQL";
+        String database = databaseManager.getCurrentDatabase();
+        List<Token> tokens = new Lexer(sql).tokenize();
+        Token first = tokens.get(0);
+
+        if (first.isKeyword("BEGIN") || first.isKeyword("COMMIT") || first.isKeyword("ROLLBACK")) {
+            Statement statement = Parser.parse(tokens);
+            if (statement instanceof Statement.Begin) return begin();
+            if (statement instanceof Statement.Commit) return commit();
+            return rollback();
         }
 
-        // Get table from factory
-        try {
-            TableFile tableFile = tableFileFactory.getTable(tableName);
-            TableSchema schema = tableFileFactory.getSchema(tableName);
+        if (first.isKeyword("PREPARE")) {
+            Statement.Prepare prepare = (Statement.Prepare) Parser.parse(tokens);
+            // Planned now so a bad statement is reported here and not on every EXECUTE
+            String error = withTable(prepare.statement(), sqlInterface ->
+                    sqlExecutor.cachedPlan(database, prepare.sql(), prepare.statement(), sqlInterface));
+            if (error != null) return error;
+            preparedStatements.put(database + "/" + prepare.name().toLowerCase(), prepare);
+            return "Prepared statement: " + prepare.name();
+        }
 
-            // Create SQL interface and execute
-            SQLTableInterface sqlInterface = new SQLTableInterface(tableFile, schema);
-            sqlInterface.executeSQL(sql);
+        if (first.isKeyword("EXECUTE")) {
+            Statement.Execute execute = (Statement.Execute) Parser.parse(tokens);
+            Statement.Prepare prepare = preparedStatements.get(database + "/" + execute.name().toLowerCase());
+            if (prepare == null) {
+                return "Error: Prepared statement '" + execute.name() + "' not found";
+            }
+            String error = withTable(prepare.statement(), sqlInterface -> {
+                QueryPlan plan = sqlExecutor.cachedPlan(database, prepare.sql(), prepare.statement(), sqlInterface);
+                sqlInterface.execute(plan, execute.arguments().toArray());
+            });
+            return error != null ? error : "✓ SQL executed successfully";
+        }
 
-            return "✓ SQL executed successfully";
+        // A cached plan skips parsing, the table name comes from its statement
+        String key = Lexer.normalize(tokens);
+        QueryPlan cached = sqlExecutor.cachedPlan(database, key);
+        Statement statement = cached != null ? cached.getStatement() : Parser.parse(tokens);
 
+        String error = withTable(statement, sqlInterface -> sqlInterface.execute(
+                cached != null ? cached : sqlExecutor.plan(database, key, statement, sqlInterface)));
+        return error != null ? error : "✓ SQL executed successfully";
+    }
+
+    /**
+     * Run work against the table of a statement in the current database, and the table it joins
+     * if it is a join; returns an error message if a table does not exist.
+     * Inside a transaction the work joins it, and a statement that fails rolls the whole transaction back.
+     */
+    private String withTable(Statement statement, TableWork work) throws IOException {
+        SQLTableInterface sqlInterface;
+        try {
+            sqlInterface = sqlExecutor.open(databaseManager.getCurrentDatabase(), statement, transaction);
         } catch (IllegalArgumentException e) {
-            return "Error: Table '" + tableName + "' not found";
+            return "Error: " + e.getMessage();
+        }
+
+        try {
+            work.run(sqlInterface);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            if (transaction == null) throw e;
+            finishTransaction(false);
+            throw new RuntimeException(e.getMessage() + " (transaction rolled back)", e);
         }
     }
 
+    private interface TableWork {
+        void run(SQLTableInterface sqlInterface) throws IOException;
+    }
+
+    private String begin() throws IOException {
+        if (transaction != null) {
+            return "Error: A transaction is already in progress";
+        }
+        transactionLog = LogManager.open(databaseManager.getDatabasePath());
+        transaction = transactionLog.begin();
+        return "Transaction started";
+    }
+
+    private String commit() throws IOException {
+        if (transaction == null) {
+            return "Error: No transaction in progress";
+        }
+        finishTransaction(true);
+        return "Transaction committed";
+    }
+
+    private String rollback() throws IOException {
+        if (transaction == null) {
+            return "Error: No transaction in progress";
+        }
+        finishTransaction(false);
+        return "Transaction rolled back";
+    }
+
+    /**
+     * Commit or abort the open transaction and let go of its log; a failed commit aborts
+     */
+    private void finishTransaction(boolean commit) throws IOException {
+        Transaction txn = transaction;
+        LogManager log = transactionLog;
+        transaction = null;
+        transactionLog = null;
+        try {
+            if (commit) {
+                try {
+                    txn.commit();
+                } catch (IOException | RuntimeException e) {
+                    txn.abort();
+                    throw e;
+                }
+            } else {
+                txn.abort();
+            }
+        } finally {
+            log.release();
+        }
+    }
+
+    /**
+     * Error message for commands that cannot run while a transaction is open, null when none is
+     */
+    private String transactionInProgress() {
+        return transaction == null ? null : "Error: Commit or roll back the open transaction first";
+    }
+
+    @ShellMethod(key = "begin", value = "Start a transaction, statements run in it until commit or rollback")
+    public String beginTransaction() throws IOException {
+        return executeSQL("BEGIN");
+    }
+
+    @ShellMethod(key = "commit", value = "Commit the open transaction")
+    public String commitTransaction() throws IOException {
+        return executeSQL("COMMIT");
+    }
+
+    @ShellMethod(key = "rollback", value = "Roll back the open transaction")
+    public String rollbackTransaction() throws IOException {
+        return executeSQL("ROLLBACK");
+    }
+
     @ShellMethod(key = "insert", value = "Insert data using SQL")
     public String insert(String sql) throws IOException {
         return executeSQL("INSERT " + sql);
@@ -131,36 +277,133 @@ public class SQLCommands {
         return executeSQL("DELETE " + sql);
     }
 
-    // Helper method to extract table name from SQL
-    private String extractTableName(String sql) {
-        sql = sql.trim().toUpperCase();
+    @ShellMethod(key = "prepare", value = "Prepare a statement with ? parameters: prepare \"<name> AS <sql>\"")
+    public String prepare(String sql) throws IOException {
+        return executeSQL("PREPARE " + sql);
+    }
 
-        if (sql.startsWith("INSERT INTO")) {
-            String[] parts = sql.split("\\s+");
-            if (parts.length > 2) {
-                return parts[2].toLowerCase();
-            }
-        } else if (sql.startsWith("UPDATE")) {
-            String[] parts = sql.split("\\s+");
-            if (parts.length > 1) {
-                return parts[1].toLowerCase();
-            }
-        } else if (sql.startsWith("DELETE FROM")) {
-            String[] parts = sql.split("\\s+");
-            if (parts.length > 2) {
-                return parts[2].toLowerCase();
-            }
-        } else if (sql.startsWith("SELECT")) {
-            // Extract table name from SELECT ... FROM tableName
-            int fromIndex = sql.indexOf("FROM");
-            if (fromIndex != -1) {
-                String[] parts = sql.substring(fromIndex).split("\\s+");
-                if (parts.length > 1) {
-                    return parts[1].toLowerCase();
-                }
+    @ShellMethod(key = "execute", value = "Run a prepared statement: execute \"<name>(<arg>, ...)\"")
+    public String execute(String sql) throws IOException {
+        return executeSQL("EXECUTE " + sql);
+    }
+
+    @ShellMethod(key = "plan-cache", value = "Show plan cache hit/miss counters")
+    public String planCacheStats() {
+        return sqlExecutor.getPlanCache().toString();
+    }
+
+    @ShellMethod(key = "copy", value = "Bulk load a CSV file: copy <table> FROM '<file.csv>' [HEADER]")
+    public String copy(String sql) throws IOException {
+        return executeSQL("COPY " + sql);
+    }
+
+    @ShellMethod(key = "buffer-stats", value = "Show buffer pool hit/miss/eviction counters for a table")
+    public String bufferStats(String tableName) {
+        try {
+            TableFile tableFile = tableFileFactory.getTable(databaseManager.getCurrentDatabase(), tableName);
+            return tableFile.getBufferPool().toString();
+        } catch (IllegalArgumentException e) {
+            return "Error: Table '" + tableName + "' not found";
+        }
+    }
+
+    @ShellMethod(key = "vacuum", value = "Compact a table and give its emptied pages back to the file system")
+    public String vacuum(String tableName) throws IOException {
+        String error = transactionInProgress();
+        if (error != null) return error;
+        try {
+            TableFile tableFile = tableFileFactory.getTable(databaseManager.getCurrentDatabase(), tableName);
+            String before = tableFile.getStats().toString();
+            int pages = tableFile.vacuum();
+            return "Before: " + before + "\nAfter:  " + tableFile.getStats() + "\nPages reclaimed: " + pages;
+        } catch (IllegalArgumentException e) {
+            return "Error: Table '" + tableName + "' not found";
+        }
+    }
+
+    @ShellMethod(key = "autovacuum", value = "Turn background vacuum ON or OFF")
+    public String autovacuum(String mode) {
+        switch (mode.trim().toUpperCase()) {
+            case "ON" -> tableFileFactory.setAutovacuum(true);
+            case "OFF" -> tableFileFactory.setAutovacuum(false);
+            default -> {
+                return "Error: Invalid autovacuum mode '" + mode + "'. Valid modes: ON, OFF";
             }
         }
+        return "Autovacuum: " + (tableFileFactory.isAutovacuum() ? "ON" : "OFF");
+    }
+
+    @ShellMethod(key = "io-mode", value = "Set FILE or MMAP page I/O for the current database, or for one table")
+    public String ioMode(String mode, @ShellOption(defaultValue = ShellOption.NULL) String tableName) throws IOException {
+        IoMode ioMode;
+        try {
+            ioMode = IoMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return "Error: Invalid I/O mode '" + mode + "'. Valid modes: FILE, MMAP";
+        }
+
+        if (tableName == null) {
+            databaseManager.setIoMode(ioMode);
+            return "I/O mode for new tables in '" + databaseManager.getCurrentDatabase() + "': " + ioMode;
+        }
+        String error = transactionInProgress();
+        if (error != null) return error;
+        try {
+            tableFileFactory.reopenTable(databaseManager.getCurrentDatabase(), tableName, ioMode);
+            return "Table '" + tableName + "' reopened with I/O mode " + ioMode;
+        } catch (IllegalArgumentException e) {
+            return "Error: Table '" + tableName + "' not found";
+        }
+    }
 
-        return null;
+    @ShellMethod(key = "durability", value = "Set how commits wait for the write-ahead log: SYNC, GROUP or ASYNC")
+    public String durability(String mode) {
+        try {
+            DurabilityMode durabilityMode = DurabilityMode.valueOf(mode.trim().toUpperCase());
+            LogManager.setDefaultDurabilityMode(durabilityMode);
+            return "Durability mode: " + durabilityMode;
+        } catch (IllegalArgumentException e) {
+            return "Error: Invalid durability mode '" + mode + "'. Valid modes: SYNC, GROUP, ASYNC";
+        }
+    }
+
+    @ShellMethod(key = "scan-parallelism", value = "Set how many threads a full table scan reads pages on")
+    public String scanParallelism(int threads) {
+        try {
+            ScanPool.setParallelism(threads);
+            return "Scan parallelism: " + ScanPool.getParallelism();
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(key = "sort-memory", value = "Set the megabytes an ORDER BY sorts in before spilling runs to disk")
+    public String sortMemory(int megabytes) {
+        try {
+            ExternalSort.setMemoryBudget(megabytes * 1024L * 1024L);
+            return "Sort memory: " + ExternalSort.getMemoryBudget() / (1024 * 1024) + " MB";
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(key = "join-memory", value = "Set the megabytes a hash join builds in before partitioning to disk")
+    public String joinMemory(int megabytes) {
+        try {
+            HashJoin.setMemoryBudget(megabytes * 1024L * 1024L);
+            return "Join memory: " + HashJoin.getMemoryBudget() / (1024 * 1024) + " MB";
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(key = "wal-stats", value = "Show write-ahead log counters for a table's database")
+    public String walStats(String tableName) {
+        try {
+            TableFile tableFile = tableFileFactory.getTable(databaseManager.getCurrentDatabase(), tableName);
+            return tableFile.getLogManager().toString();
+        } catch (IllegalArgumentException e) {
+            return "Error: Table '" + tableName + "' not found";
+        }
     }
 }
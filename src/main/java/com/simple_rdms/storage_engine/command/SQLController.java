@@ -0,0 +1,116 @@
+package com.simple_rdms.storage_engine.command;
+
+import com.simple_rdms.storage_engine.database_manager.DatabaseManager;
+import com.simple_rdms.storage_engine.sql_interface.QueryPlan;
+import com.simple_rdms.storage_engine.sql_interface.ResultCursor;
+import com.simple_rdms.storage_engine.sql_interface.SQLTableInterface;
+import com.simple_rdms.storage_engine.sql_parser.Lexer;
+import com.simple_rdms.storage_engine.sql_parser.Parser;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+import com.simple_rdms.storage_engine.sql_parser.Token;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQL over HTTP. POST /sql takes {"database": "mydb", "sql": "SELECT ...", "arguments": [...]}
+ * and answers with one JSON value per line: for a SELECT {"columns": [...]} and then a JSON
+ * array per row, for other statements {"message": ...}.
+ * <p>
+ * Every request names its database and runs in a transaction of its own, so any number of
+ * clients can query side by side. Rows are read from the table as the client takes them:
+ * the scan moves on only when the response asks for more, and stops when the client goes away.
+ */
+@RestController
+public class SQLController {
+
+    private final DatabaseManager databaseManager;
+    private final SQLExecutor sqlExecutor;
+
+    public SQLController(DatabaseManager databaseManager, SQLExecutor sqlExecutor) {
+        this.databaseManager = databaseManager;
+        this.sqlExecutor = sqlExecutor;
+    }
+
+    public record SQLRequest(String database, String sql, List<Object> arguments) {
+    }
+
+    @PostMapping(path = "/sql", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ResponseEntity<Flux<Object>>> executeSQL(@RequestBody SQLRequest request) {
+        // Planning and changes read and write table pages, they run off the event loop like the scans.
+        // Errors found before the first row are a failed request; later ones end the rows with an error line.
+        return Mono.fromCallable(() -> ResponseEntity.ok().body(execute(request)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(e -> Mono.just(ResponseEntity
+                        .status(e instanceof IOException ? HttpStatus.INTERNAL_SERVER_ERROR : HttpStatus.BAD_REQUEST)
+                        .body(Flux.just(error(e)))));
+    }
+
+    private Flux<Object> execute(SQLRequest request) throws IOException {
+        if (request.database() == null || request.sql() == null) {
+            throw new IllegalArgumentException("A request needs a database and the sql to run");
+        }
+        String database = request.database();
+        databaseManager.getDatabasePath(database);
+
+        // A cached plan skips parsing, the table name comes from its statement
+        List<Token> tokens = new Lexer(request.sql()).tokenize();
+        String key = Lexer.normalize(tokens);
+        QueryPlan cached = sqlExecutor.cachedPlan(database, key);
+        Statement statement = cached != null ? cached.getStatement() : Parser.parse(tokens);
+        if (statement instanceof Statement.Begin || statement instanceof Statement.Commit
+                || statement instanceof Statement.Rollback || statement instanceof Statement.Prepare
+                || statement instanceof Statement.Execute) {
+            throw new IllegalArgumentException("Every request is a transaction of its own and is planned once: "
+                    + "pass ? arguments instead of BEGIN, COMMIT, ROLLBACK, PREPARE or EXECUTE");
+        }
+        if (statement instanceof Statement.Copy) {
+            // The file would be read with the server's permissions on behalf of a remote client
+            throw new IllegalArgumentException("COPY reads a file on the server and is only available in the shell");
+        }
+
+        SQLTableInterface sqlInterface = sqlExecutor.open(database, statement, null);
+        QueryPlan plan = cached != null ? cached : sqlExecutor.plan(database, key, statement, sqlInterface);
+        Object[] args = request.arguments() == null ? new Object[0] : request.arguments().toArray();
+
+        if (!(statement instanceof Statement.Select)) {
+            String message = sqlInterface.update(plan, args);
+            return Flux.just(Map.of("message", message != null ? message : "OK"));
+        }
+
+        // Bad arguments fail the request before any row is sent
+        plan.bind(args);
+        Flux<Object> rows = Flux.<Object, ResultCursor>generate(() -> sqlInterface.query(plan, args),
+                (results, sink) -> {
+                    try {
+                        Object[] values = results.next();
+                        if (values == null) {
+                            sink.complete();
+                        } else {
+                            sink.next(Arrays.asList(values));
+                        }
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                    return results;
+                }, ResultCursor::close);
+        return Flux.concat(Flux.just(Map.of("columns", plan.getColumnLabels())),
+                        rows.subscribeOn(Schedulers.boundedElastic()))
+                .onErrorResume(e -> Flux.just(error(e)));
+    }
+
+    private static Map<String, Object> error(Throwable e) {
+        return Map.of("error", e.getMessage() != null ? e.getMessage() : e.toString());
+    }
+}
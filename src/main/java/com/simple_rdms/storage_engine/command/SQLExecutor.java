@@ -0,0 +1,90 @@
+package com.simple_rdms.storage_engine.command;
+
+import com.simple_rdms.storage_engine.disk_manager.TableFile;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_interface.PlanCache;
+import com.simple_rdms.storage_engine.sql_interface.QueryPlan;
+import com.simple_rdms.storage_engine.sql_interface.SQLTableInterface;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+import com.simple_rdms.storage_engine.wal.Transaction;
+import org.springframework.stereotype.Service;
+
+import static com.simple_rdms.utils.Constants.PLAN_CACHE_SIZE;
+
+/**
+ * Finds the tables a statement names and plans it, for the shell and the HTTP API alike.
+ * Every call names its database, so clients using different databases can run side by side;
+ * the plan cache is shared by all of them.
+ */
+@Service
+public class SQLExecutor {
+
+    private final TableFileFactory tableFileFactory;
+    // Keys start with the database name, the same table name means another table in another database
+    private final PlanCache planCache = new PlanCache(PLAN_CACHE_SIZE);
+
+    public SQLExecutor(TableFileFactory tableFileFactory) {
+        this.tableFileFactory = tableFileFactory;
+    }
+
+    /**
+     * The table of a statement in a database, joined with the table its SELECT joins if any.
+     * Statements run in txn, or each in a transaction of its own when it is null.
+     */
+    public SQLTableInterface open(String database, Statement statement, Transaction transaction) {
+        String tableName = statement.tableName().toLowerCase();
+        String joinedName = statement instanceof Statement.Select select && select.join() != null
+                ? select.join().tableName().toLowerCase() : null;
+
+        TableFile tableFile;
+        TableSchema schema;
+        TableFile joinedFile = null;
+        TableSchema joinedSchema = null;
+        try {
+            tableFile = tableFileFactory.getTable(database, tableName);
+            schema = tableFileFactory.getSchema(database, tableName);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Table '" + tableName + "' not found", e);
+        }
+        if (joinedName != null) {
+            try {
+                joinedFile = tableFileFactory.getTable(database, joinedName);
+                joinedSchema = tableFileFactory.getSchema(database, joinedName);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Table '" + joinedName + "' not found", e);
+            }
+        }
+        return new SQLTableInterface(tableFile, schema, joinedFile, joinedSchema, transaction);
+    }
+
+    /**
+     * The cached plan of a normalized statement, or null on a miss
+     */
+    public QueryPlan cachedPlan(String database, String key) {
+        return planCache.get(database + "/" + key);
+    }
+
+    /**
+     * Plan for a statement, planned and cached on first use
+     */
+    public QueryPlan cachedPlan(String database, String key, Statement statement, SQLTableInterface sqlInterface) {
+        QueryPlan plan = cachedPlan(database, key);
+        return plan != null ? plan : plan(database, key, statement, sqlInterface);
+    }
+
+    /**
+     * Plan a statement and cache it. Only row statements are cached, index changes and COPY run once.
+     */
+    public QueryPlan plan(String database, String key, Statement statement, SQLTableInterface sqlInterface) {
+        QueryPlan plan = sqlInterface.prepare(statement);
+        if (statement instanceof Statement.Select || statement instanceof Statement.Insert
+                || statement instanceof Statement.Update || statement instanceof Statement.Delete) {
+            planCache.put(database + "/" + key, plan);
+        }
+        return plan;
+    }
+
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+}
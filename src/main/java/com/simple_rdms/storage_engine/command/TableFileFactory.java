@@ -1,7 +1,9 @@
 package com.simple_rdms.storage_engine.command;
 
+import com.simple_rdms.storage_engine.disk_manager.IoMode;
 import com.simple_rdms.storage_engine.disk_manager.TableFile;
 import com.simple_rdms.storage_engine.schema.TableSchema;
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -9,62 +11,145 @@ import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.simple_rdms.utils.Constants.AUTOVACUUM_INTERVAL_SECONDS;
+import static com.simple_rdms.utils.Constants.AUTOVACUUM_MIN_DEAD_ROWS;
+import static com.simple_rdms.utils.Constants.BUFFER_POOL_FRAMES;
 
 @Service
 public class TableFileFactory {
 
-    // Store all created tables
+    // Store all created tables, keyed "database/table": each database has tables of its own
     private final Map<String, TableFile> tables = new ConcurrentHashMap<>();
 
     // Store schemas separately for easy access
     private final Map<String, TableSchema> schemas = new ConcurrentHashMap<>();
 
+    // Background vacuum thread, null while autovacuum is off
+    private ScheduledExecutorService autovacuum;
+
     /**
      * Register a table that was created externally
      */
-    public void registerTable(String tableName, TableFile tableFile, TableSchema schema) {
-        if (tables.containsKey(tableName)) {
+    public void registerTable(String database, String tableName, TableFile tableFile, TableSchema schema) {
+        String key = key(database, tableName);
+        if (tables.containsKey(key)) {
             throw new IllegalStateException("Table already exists: " + tableName);
         }
-        tables.put(tableName, tableFile);
-        schemas.put(tableName, schema);
+        tables.put(key, tableFile);
+        schemas.put(key, schema);
     }
 
     /**
      * Create a new table with the given schema and path
      */
-    public TableFile createTable(TableSchema schema, Path tablePath) throws IOException {
+    public TableFile createTable(String database, TableSchema schema, Path tablePath) throws IOException {
+        return createTable(database, schema, tablePath, IoMode.FILE);
+    }
+
+    public TableFile createTable(String database, TableSchema schema, Path tablePath, IoMode ioMode)
+            throws IOException {
         String tableName = schema.getTableName();
+        String key = key(database, tableName);
 
-        if (tables.containsKey(tableName)) {
+        if (tables.containsKey(key)) {
             throw new IllegalStateException("Table already exists: " + tableName);
         }
 
-        TableFile tableFile = new TableFile(schema, tablePath);
-        tables.put(tableName, tableFile);
-        schemas.put(tableName, schema);
+        TableFile tableFile = new TableFile(schema, tablePath, BUFFER_POOL_FRAMES, ioMode);
+        tables.put(key, tableFile);
+        schemas.put(key, schema);
         return tableFile;
     }
 
     /**
      * Get an existing table by name
      */
-    public TableFile getTable(String tableName) {
-        TableFile table = tables.get(tableName);
+    public TableFile getTable(String database, String tableName) {
+        TableFile table = tables.get(key(database, tableName));
         if (table == null) {
             throw new IllegalArgumentException("Table not found: " + tableName);
         }
         return table;
     }
 
+    /**
+     * Close a table and open it again with another I/O mode
+     */
+    public TableFile reopenTable(String database, String tableName, IoMode ioMode) throws IOException {
+        TableFile old = getTable(database, tableName);
+        old.close();
+        TableFile tableFile = new TableFile(old.getSchema(), old.getFilePath(), BUFFER_POOL_FRAMES, ioMode);
+        tables.put(key(database, tableName), tableFile);
+        return tableFile;
+    }
+
     /**
      * Get schema for a table
      */
-    public TableSchema getSchema(String tableName) {
-        TableSchema schema = schemas.get(tableName);
+    public TableSchema getSchema(String database, String tableName) {
+        TableSchema schema = schemas.get(key(database, tableName));
         if (schema == null) {
             throw new IllegalArgumentException("Table not found: " + tableName);
         }
         return schema;
     }
-}
\ No newline at end of file
+
+    private static String key(String database, String tableName) {
+        return database + "/" + tableName;
+    }
+
+    /**
+     * Start or stop vacuuming tables in the background.
+     * A table is picked once AUTOVACUUM_MIN_DEAD_ROWS rows were deleted from it since its last vacuum.
+     */
+    public synchronized void setAutovacuum(boolean enabled) {
+        if (enabled && autovacuum == null) {
+            autovacuum = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "autovacuum");
+                thread.setDaemon(true);
+                return thread;
+            });
+            autovacuum.scheduleWithFixedDelay(this::vacuumDeadTables,
+                    AUTOVACUUM_INTERVAL_SECONDS, AUTOVACUUM_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        } else if (!enabled && autovacuum != null) {
+            autovacuum.shutdown();
+            autovacuum = null;
+        }
+    }
+
+    public synchronized boolean isAutovacuum() {
+        return autovacuum != null;
+    }
+
+    private void vacuumDeadTables() {
+        for (Map.Entry<String, TableFile> entry : tables.entrySet()) {
+            TableFile tableFile = entry.getValue();
+            if (tableFile.getDeletesSinceVacuum() < AUTOVACUUM_MIN_DEAD_ROWS) continue;
+            try {
+                int pages = tableFile.vacuum();
+                System.out.println("[autovacuum] " + entry.getKey() + ": " + tableFile.getStats()
+                        + ", " + pages + " pages reclaimed");
+            } catch (IOException | RuntimeException e) {
+                // A table closed or reopened meanwhile is picked up again next round
+                System.out.println("[autovacuum] " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Flush buffered pages of every open table on shutdown
+     */
+    @PreDestroy
+    public void closeAll() throws IOException {
+        setAutovacuum(false);
+        for (TableFile tableFile : tables.values()) {
+            tableFile.close();
+        }
+        tables.clear();
+        schemas.clear();
+    }
+}
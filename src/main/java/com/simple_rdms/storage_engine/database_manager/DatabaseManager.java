@@ -1,20 +1,36 @@
 package com.simple_rdms.storage_engine.database_manager;
 
+import com.simple_rdms.storage_engine.disk_manager.IoMode;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Properties;
 
 @Service
 public class DatabaseManager {
     private static final String DATA_DIR = "data";
+    // Per database settings, kept next to its tables
+    private static final String SETTINGS_FILE = "database.properties";
+    // Every database is a folder right under it
+    private final Path dataDir;
     private String currentDatabase;
 
+    public DatabaseManager() {
+        this(Paths.get(DATA_DIR));
+    }
+
+    public DatabaseManager(Path dataDir) {
+        this.dataDir = dataDir.normalize();
+    }
+
     public void createDatabase(String name) throws IOException {
-        Path dbPath = Paths.get(DATA_DIR, name);
+        Path dbPath = dataDir.resolve(name);
 
         if (Files.exists(dbPath)) {
             throw new RuntimeException("Database already exists: " + name);
@@ -24,7 +40,7 @@ public class DatabaseManager {
     }
 
     public void useDatabase(String name) {
-        Path dbPath = Paths.get(DATA_DIR, name);
+        Path dbPath = dataDir.resolve(name);
 
         if (!Files.exists(dbPath)) {
             throw new RuntimeException("Database does not exists: + " + name);
@@ -43,6 +59,47 @@ public class DatabaseManager {
 
     public Path getDatabasePath() {
 
-        return Paths.get(DATA_DIR, getCurrentDatabase());
+        return dataDir.resolve(getCurrentDatabase());
+    }
+
+    /**
+     * Folder of a named database, for callers that pick their database on every request
+     * instead of using the current one
+     */
+    public Path getDatabasePath(String name) {
+        Path dbPath = dataDir.resolve(name).normalize();
+
+        // Only a folder right under the data folder is a database, "../x" is not
+        if (name.isBlank() || !dataDir.equals(dbPath.getParent()) || !Files.isDirectory(dbPath)) {
+            throw new RuntimeException("Database does not exist: " + name);
+        }
+        return dbPath;
+    }
+
+    /**
+     * I/O mode new tables of the current database are opened with
+     */
+    public IoMode getIoMode() throws IOException {
+        Properties settings = loadSettings();
+        return IoMode.valueOf(settings.getProperty("io_mode", IoMode.FILE.name()));
+    }
+
+    public void setIoMode(IoMode ioMode) throws IOException {
+        Properties settings = loadSettings();
+        settings.setProperty("io_mode", ioMode.name());
+        try (Writer writer = Files.newBufferedWriter(getDatabasePath().resolve(SETTINGS_FILE))) {
+            settings.store(writer, null);
+        }
+    }
+
+    private Properties loadSettings() throws IOException {
+        Properties settings = new Properties();
+        Path path = getDatabasePath().resolve(SETTINGS_FILE);
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path)) {
+                settings.load(reader);
+            }
+        }
+        return settings;
     }
 }
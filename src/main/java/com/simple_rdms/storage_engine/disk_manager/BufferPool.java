@@ -0,0 +1,435 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.page.Page;
+import com.simple_rdms.storage_engine.wal.LogManager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed number of in-memory page frames sitting in front of the DiskManager.
+ * Pages are pinned while in use and written back only when a dirty frame is
+ * evicted or flushed. Victims are picked with the CLOCK algorithm.
+ * With a LogManager attached a page is never written before the log records up to its LSN.
+ * The owner registers such a pool with the LogManager once it is built, close unregisters it.
+ * <p>
+ * The pool is shared by all threads using a file. Its bookkeeping is guarded by the pool's
+ * lock, but a page read happens outside it: the frame is claimed and pinned first, other
+ * threads asking for the same page wait for that one read, and hits on other pages go on.
+ */
+public class BufferPool {
+
+    private final DiskManager diskManager;
+    private final LogManager logManager;
+    private final Frame[] frames;
+    // Guards the bookkeeping; unlike a monitor, a virtual thread waiting for it frees its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a page read finishes or fails
+    private final Condition pageLoaded = lock.newCondition();
+    // Maps pageId -> frame index
+    private final Map<Integer, Integer> pageTable = new HashMap<>();
+    private int clockHand = 0;
+    // Pages allocated in memory may not be on disk yet, so the pool owns the page count
+    private int pageCount;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BufferPool(DiskManager diskManager, int frameCount) throws IOException {
+        this(diskManager, frameCount, null);
+    }
+
+    public BufferPool(DiskManager diskManager, int frameCount, LogManager logManager) throws IOException {
+        if (frameCount <= 0) {
+            throw new IllegalArgumentException("Buffer pool needs at least one frame");
+        }
+        this.diskManager = diskManager;
+        this.logManager = logManager;
+        this.frames = new Frame[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            frames[i] = new Frame();
+        }
+        this.pageCount = diskManager.pageCount();
+    }
+
+    /**
+     * Return the page pinned in memory, reading it from disk on a miss.
+     * Every fetch must be paired with an unpinPage call.
+     */
+    public Page fetchPage(int pageId) throws IOException {
+        Frame frame;
+        lock.lock();
+        try {
+            if (pageId < 0 || pageId >= pageCount) {
+                throw new IllegalArgumentException("Page out of range: " + pageId);
+            }
+
+            Integer frameIndex = pageTable.get(pageId);
+            if (frameIndex != null) {
+                hits++;
+                frame = frames[frameIndex];
+                frame.pinCount++;
+                frame.referenced = true;
+                // Another thread is still reading the page in
+                while (frame.page == null) {
+                    if (frame.pageId != pageId) {
+                        throw new IOException("Page " + pageId + " could not be read");
+                    }
+                    waitForLoad();
+                }
+                return frame.page;
+            }
+
+            misses++;
+            int victim = findVictim();
+            frame = frames[victim];
+            frame.load(pageId, null);
+            pageTable.put(pageId, victim);
+        } finally {
+            lock.unlock();
+        }
+
+        // The frame is pinned and in the page table, nobody else reads it in or evicts it
+        Page page;
+        try {
+            page = diskManager.readPage(pageId);
+        } catch (IOException | RuntimeException e) {
+            lock.lock();
+            try {
+                pageTable.remove(pageId);
+                frame.reset();
+                pageLoaded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        lock.lock();
+        try {
+            frame.page = page;
+            pageLoaded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return page;
+    }
+
+    private void waitForLoad() throws IOException {
+        try {
+            pageLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a page read", e);
+        }
+    }
+
+    /**
+     * Like fetchPage, but the page may be modified. A read-only page (a view on a
+     * memory-mapped file) is swapped for a private copy first.
+     */
+    public Page fetchPageForWrite(int pageId) throws IOException {
+        fetchPage(pageId);
+        lock.lock();
+        try {
+            Frame frame = frames[pageTable.get(pageId)];
+            if (frame.page.isReadOnly()) {
+                frame.page = frame.page.copy();
+            }
+            frame.changedSince(logManager);
+            return frame.page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a new empty page at the end of the file and return it pinned.
+     * The page id is always the previous page count.
+     */
+    public Page newPage() throws IOException {
+        lock.lock();
+        try {
+            int victim = findVictim();
+            Frame frame = frames[victim];
+            int pageId = pageCount++;
+            frame.load(pageId, new Page());
+            frame.dirty = true; // Must reach disk even if never modified again
+            frame.changedSince(logManager);
+            pageTable.put(pageId, victim);
+            return frame.page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release one pin on the page; dirty marks it for write-back.
+     */
+    public void unpinPage(int pageId, boolean dirty) {
+        lock.lock();
+        try {
+            Integer frameIndex = pageTable.get(pageId);
+            if (frameIndex == null) {
+                throw new IllegalStateException("Page not in buffer pool: " + pageId);
+            }
+
+            Frame frame = frames[frameIndex];
+            if (frame.pinCount <= 0) {
+                throw new IllegalStateException("Page is not pinned: " + pageId);
+            }
+            frame.pinCount--;
+            frame.dirty |= dirty;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flushPage(int pageId) throws IOException {
+        lock.lock();
+        try {
+            Integer frameIndex = pageTable.get(pageId);
+            if (frameIndex != null) {
+                writeBack(frames[frameIndex]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flushAll() throws IOException {
+        lock.lock();
+        try {
+            for (Frame frame : frames) {
+                writeBack(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checkpoint side of the pool: write every dirty page nobody has pinned and return the
+     * lowest LSN a change only in memory may have been logged at, Long.MAX_VALUE if none.
+     * A pinned page may have changes that are not logged yet, so it stays in memory.
+     */
+    public long flushUnpinned() throws IOException {
+        lock.lock();
+        try {
+            long oldest = Long.MAX_VALUE;
+            for (Frame frame : frames) {
+                if (frame.pageId == Frame.EMPTY) continue;
+                if (frame.pinCount > 0) {
+                    if (frame.recLsn >= 0) oldest = Math.min(oldest, frame.recLsn);
+                } else {
+                    writeBack(frame);
+                    frame.recLsn = -1; // Also when it was fetched for write but never changed
+                }
+            }
+            return oldest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop every page from newPageCount on, in memory and on disk, without writing them back
+     */
+    public void truncate(int newPageCount) throws IOException {
+        lock.lock();
+        try {
+            if (newPageCount >= pageCount) return;
+            for (Frame frame : frames) {
+                if (frame.pageId >= newPageCount) {
+                    if (frame.pinCount > 0) {
+                        throw new IllegalStateException("Cannot truncate pinned page: " + frame.pageId);
+                    }
+                    pageTable.remove(frame.pageId);
+                    frame.reset();
+                }
+            }
+            pageCount = newPageCount;
+            diskManager.truncate(newPageCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pageCount() {
+        lock.lock();
+        try {
+            return pageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Log records name pages by file name, relative to the database directory
+    public String getFileName() {
+        return diskManager.getFilePath().getFileName().toString();
+    }
+
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            diskManager.sync();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pick a frame to reuse: an empty one first, otherwise sweep the clock hand,
+     * giving referenced frames a second chance. Pinned frames are never evicted.
+     */
+    private int findVictim() throws IOException {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i].pageId == Frame.EMPTY) {
+                return i;
+            }
+        }
+
+        // Two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < frames.length * 2; step++) {
+            int index = clockHand;
+            clockHand = (clockHand + 1) % frames.length;
+            Frame frame = frames[index];
+
+            if (frame.pinCount > 0) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+
+            writeBack(frame);
+            pageTable.remove(frame.pageId);
+            frame.reset();
+            evictions++;
+            return index;
+        }
+
+        throw new IllegalStateException("Buffer pool exhausted: all " + frames.length + " frames are pinned");
+    }
+
+    private void writeBack(Frame frame) throws IOException {
+        if (frame.pageId != Frame.EMPTY && frame.dirty) {
+            if (logManager != null) {
+                logManager.flush(frame.page.getLsn()); // Write-ahead rule
+            }
+            diskManager.writePage(frame.pageId, frame.page);
+            frame.dirty = false;
+            frame.recLsn = -1;
+        }
+    }
+
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public double getHitRatio() {
+        lock.lock();
+        try {
+            long total = hits + misses;
+            return total > 0 ? (double) hits / total : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes all dirty frames and closes the underlying file.
+     */
+    public void close() throws IOException {
+        flushAll();
+        // Not under this pool's lock: a checkpoint takes the log's lock and then this one
+        if (logManager != null) {
+            logManager.unregister(this);
+        }
+        lock.lock();
+        try {
+            diskManager.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("Frames: %d, Hits: %d, Misses: %d, Evictions: %d (%.1f%% hit ratio)",
+                    frames.length, hits, misses, evictions, getHitRatio() * 100);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Frame {
+        static final int EMPTY = -1;
+
+        int pageId = EMPTY;
+        Page page;
+        int pinCount;
+        boolean dirty;
+        boolean referenced;
+        // Log end when the page was first fetched for write since it was last written, -1 if it
+        // was not; its log records are all at or after this LSN
+        long recLsn = -1;
+
+        void load(int pageId, Page page) {
+            this.pageId = pageId;
+            this.page = page;
+            this.pinCount = 1;
+            this.dirty = false;
+            this.referenced = true;
+            this.recLsn = -1;
+        }
+
+        void reset() {
+            pageId = EMPTY;
+            page = null;
+            pinCount = 0;
+            dirty = false;
+            referenced = false;
+            recLsn = -1;
+        }
+
+        void changedSince(LogManager logManager) {
+            if (logManager != null && recLsn < 0) {
+                recLsn = logManager.getEndLsn();
+            }
+        }
+    }
+}
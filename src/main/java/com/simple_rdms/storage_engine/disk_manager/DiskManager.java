@@ -2,63 +2,41 @@ package com.simple_rdms.storage_engine.disk_manager;
 
 import com.simple_rdms.storage_engine.page.Page;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.file.Path;
 
-import static com.simple_rdms.utils.Constants.PAGE_SIZE;
-
 /**
  * Responsible for moving pages between memory and disk.
  */
-public class DiskManager {
-
-    private final RandomAccessFile file;
-
-    public DiskManager(Path filePath) throws IOException {
-        File file = new File(String.valueOf(filePath));
-
-        //Ensure parent directory exists
-        File parent = file.getParentFile();
-
-        if (parent != null && !parent.exists()) {
-            parent.mkdirs(); // Create a directory for the name we declared.
-        }
-        this.file = new RandomAccessFile(file, "rw");
-    }
+public interface DiskManager {
 
     /**
-     * Write page into pageId
-     * if offset is 3, then we will have 3 * 4096 = 12288
-     * Write starting at byte 12288
+     * Open a page file with the given kind of I/O
      */
-    public void writePage(int pageId, Page page) throws IOException {
-        file.seek((long) pageId * PAGE_SIZE);
-        file.write(page.data());
+    static DiskManager open(Path filePath, IoMode ioMode) throws IOException {
+        return switch (ioMode) {
+            case FILE -> new FileDiskManager(filePath);
+            case MMAP -> new MappedDiskManager(filePath);
+        };
     }
 
-    public Page readPage(int pageId) throws IOException {
-        Page page = new Page(); //Locates new in-memory page buffer.
-        file.seek((long) pageId * PAGE_SIZE); //Moving counter to the correct offset
-        file.readFully(page.data()); //Blocks until page is entirely read to avoid misinformation
+    void writePage(int pageId, Page page) throws IOException;
 
-        return page;
-    }
+    Page readPage(int pageId) throws IOException;
+
+    int pageCount() throws IOException;
+
+    Path getFilePath();
 
     /**
-     * Takes the byte length divided by page size to get page count.
+     * Cut the file down to its first pageCount pages
      */
-    public int pageCount() throws IOException {
-        return (int) (file.length() / PAGE_SIZE);
-    }
+    void truncate(int pageCount) throws IOException;
 
-    /*
-    Flushes file buffer
-    closes file handle
+    /**
+     * Force written pages down to the storage device
      */
+    void sync() throws IOException;
 
-    public void close() throws IOException {
-        file.close();
-    }
+    void close() throws IOException;
 }
@@ -0,0 +1,102 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.page.Page;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+
+/**
+ * Moves pages between memory and disk with positional reads and writes on a FileChannel.
+ * Every call names its own file offset, there is no shared file position, so threads
+ * can read and write different pages at the same time without a lock.
+ */
+public class FileDiskManager implements DiskManager {
+
+    private final FileChannel channel;
+    private final Path filePath;
+
+    public FileDiskManager(Path filePath) throws IOException {
+        this.filePath = filePath;
+        File file = new File(String.valueOf(filePath));
+
+        //Ensure parent directory exists
+        File parent = file.getParentFile();
+
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs(); // Create a directory for the name we declared.
+        }
+        this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Write page into pageId
+     * if offset is 3, then we will have 3 * 4096 = 12288
+     * Write starting at byte 12288
+     */
+    @Override
+    public void writePage(int pageId, Page page) throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(page.data());
+        long position = (long) pageId * PAGE_SIZE;
+        while (source.hasRemaining()) {
+            channel.write(source, position + source.position());
+        }
+    }
+
+    @Override
+    public Page readPage(int pageId) throws IOException {
+        Page page = new Page(); //Locates new in-memory page buffer.
+        ByteBuffer target = ByteBuffer.wrap(page.data());
+        long position = (long) pageId * PAGE_SIZE;
+
+        //Loops until the page is entirely read to avoid misinformation
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new EOFException("Page " + pageId + " is past the end of " + filePath);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Takes the byte length divided by page size to get page count.
+     */
+    @Override
+    public int pageCount() throws IOException {
+        return (int) (channel.size() / PAGE_SIZE);
+    }
+
+    @Override
+    public void truncate(int pageCount) throws IOException {
+        long length = (long) pageCount * PAGE_SIZE;
+        if (channel.size() > length) {
+            channel.truncate(length);
+        }
+    }
+
+    @Override
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /*
+    Flushes file buffer
+    closes file handle
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,173 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.page.Page;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+
+/**
+ * Persistent map of how many bytes each heap page can still take, one byte per page
+ * in units of PAGE_SIZE / 256 (users.tbl -> users.fsm).
+ * <p>
+ * The map is a hint and is not logged: after a crash an entry may be stale, so callers
+ * check the real page and report what they found. An entry only ever promises less
+ * room than the page had when it was recorded, rounding down.
+ */
+public class FreeSpaceMap {
+    private static final int UNIT = PAGE_SIZE / 256;
+    // Entries start after the page header so FSM pages stay readable as normal pages
+    private static final int ENTRIES_START = Page.HEADER_SIZE;
+    private static final int ENTRIES_PER_PAGE = PAGE_SIZE - ENTRIES_START;
+
+    private final BufferPool bufferPool;
+    // Held across map page reads, a virtual thread waiting for it does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // Largest entry of each map page, lets a search skip full map pages; may run high, never low
+    private int[] pageMaximum;
+    // Next-fit start, so consecutive inserts do not all probe the same full pages first
+    private int searchStart;
+
+    public FreeSpaceMap(DiskManager diskManager, int bufferPoolFrames) throws IOException {
+        this.bufferPool = new BufferPool(diskManager, bufferPoolFrames);
+        pageMaximum = new int[bufferPool.pageCount()];
+        for (int mapPage = 0; mapPage < pageMaximum.length; mapPage++) {
+            Page page = bufferPool.fetchPage(mapPage);
+            for (int i = 0; i < ENTRIES_PER_PAGE; i++) {
+                int value = Byte.toUnsignedInt(page.buffer().get(ENTRIES_START + i));
+                pageMaximum[mapPage] = Math.max(pageMaximum[mapPage], value);
+            }
+            bufferPool.unpinPage(mapPage, false);
+        }
+    }
+
+    /**
+     * True when the map file was just created and holds nothing yet
+     */
+    public boolean isEmpty() {
+        return bufferPool.pageCount() == 0;
+    }
+
+    /**
+     * A heap page that should have at least bytesNeeded free, or -1 if none is known
+     */
+    public int findPage(int bytesNeeded, int heapPageCount) throws IOException {
+        lock.lock();
+        try {
+            int needed = (bytesNeeded + UNIT - 1) / UNIT;
+            if (needed > 255) return -1;
+
+            int start = searchStart < heapPageCount ? searchStart : 0;
+            int found = search(start, heapPageCount, needed, heapPageCount);
+            if (found < 0 && start > 0) {
+                found = search(0, start, needed, heapPageCount);
+            }
+            if (found >= 0) {
+                searchStart = found;
+            }
+            return found;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int search(int from, int to, int needed, int heapPageCount) throws IOException {
+        int heapPage = from;
+        while (heapPage < to) {
+            int mapPage = heapPage / ENTRIES_PER_PAGE;
+            if (mapPage >= pageMaximum.length) return -1; // Pages past the end of the map have no entry
+            int mapPageEnd = Math.min((mapPage + 1) * ENTRIES_PER_PAGE, to);
+
+            if (pageMaximum[mapPage] >= needed) {
+                int found = searchMapPage(mapPage, heapPage, mapPageEnd, needed, heapPageCount);
+                if (found >= 0) return found;
+            }
+            heapPage = mapPageEnd;
+        }
+        return -1;
+    }
+
+    private int searchMapPage(int mapPage, int from, int to, int needed, int heapPageCount) throws IOException {
+        Page page = bufferPool.fetchPage(mapPage);
+        try {
+            int first = mapPage * ENTRIES_PER_PAGE;
+            int last = Math.min(first + ENTRIES_PER_PAGE, heapPageCount);
+            int maximum = 0;
+            // Reads the whole map page so a failed search leaves its maximum exact
+            for (int heapPage = first; heapPage < last; heapPage++) {
+                int value = Byte.toUnsignedInt(page.buffer().get(ENTRIES_START + heapPage - first));
+                if (value >= needed && heapPage >= from && heapPage < to) return heapPage;
+                maximum = Math.max(maximum, value);
+            }
+            pageMaximum[mapPage] = maximum;
+            return -1;
+        } finally {
+            bufferPool.unpinPage(mapPage, false);
+        }
+    }
+
+    /**
+     * Record the bytes a heap page can still take
+     */
+    public void update(int heapPage, int freeBytes) throws IOException {
+        lock.lock();
+        try {
+            int mapPage = heapPage / ENTRIES_PER_PAGE;
+            while (bufferPool.pageCount() <= mapPage) {
+                bufferPool.newPage();
+                bufferPool.unpinPage(bufferPool.pageCount() - 1, true);
+            }
+            if (pageMaximum.length <= mapPage) {
+                pageMaximum = Arrays.copyOf(pageMaximum, mapPage + 1);
+            }
+
+            int value = Math.min(255, Math.max(0, freeBytes) / UNIT);
+            Page page = bufferPool.fetchPageForWrite(mapPage);
+            int position = ENTRIES_START + heapPage - mapPage * ENTRIES_PER_PAGE;
+            boolean changed = Byte.toUnsignedInt(page.buffer().get(position)) != value;
+            page.buffer().put(position, (byte) value);
+            bufferPool.unpinPage(mapPage, changed);
+
+            pageMaximum[mapPage] = Math.max(pageMaximum[mapPage], value);
+            if (value > 0 && heapPage < searchStart) {
+                searchStart = heapPage; // Freed space near the front is used first, keeping the table dense
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Recorded free bytes of a heap page, rounded down
+     */
+    public int getFreeSpace(int heapPage) throws IOException {
+        lock.lock();
+        try {
+            int mapPage = heapPage / ENTRIES_PER_PAGE;
+            if (mapPage >= bufferPool.pageCount()) return 0;
+            Page page = bufferPool.fetchPage(mapPage);
+            try {
+                return Byte.toUnsignedInt(page.buffer().get(ENTRIES_START + heapPage - mapPage * ENTRIES_PER_PAGE)) * UNIT;
+            } finally {
+                bufferPool.unpinPage(mapPage, false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            bufferPool.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
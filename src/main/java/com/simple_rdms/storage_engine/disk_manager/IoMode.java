@@ -0,0 +1,9 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+/*
+How a DiskManager reaches its file
+ */
+public enum IoMode {
+    FILE, // seek + read/write, every page miss is a syscall and a copy
+    MMAP  // file mapped into memory, a page miss is a view on the mapping
+}
@@ -0,0 +1,170 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.page.Page;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+
+/**
+ * Reads pages straight out of a memory mapping of the file.
+ * <p>
+ * A read hands out a read-only view on the mapping, so a page miss costs neither a
+ * syscall nor a copy once the file is in the page cache. The buffer pool copies a
+ * page before it is modified, so a change only reaches the mapping when the pool
+ * writes the page back, after its log records are on disk.
+ * <p>
+ * Appended pages are written through the channel and the mapping is grown to the
+ * new file size the first time one of them is read. The file itself is never
+ * extended past its last written page. Calls take a lock because a read may remap;
+ * a read of a mapped page only slices the mapping, so they are short.
+ */
+public class MappedDiskManager implements DiskManager {
+    // One MappedByteBuffer addresses at most 2GB, pages past that are read through the channel
+    private static final long MAX_MAPPED_BYTES = (Integer.MAX_VALUE / PAGE_SIZE) * (long) PAGE_SIZE;
+
+    private final Path filePath;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer mapping;
+    private int mappedPages;
+    private int pageCount;
+
+    public MappedDiskManager(Path filePath) throws IOException {
+        this.filePath = filePath;
+        Path parent = filePath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.pageCount = (int) (channel.size() / PAGE_SIZE);
+        remap();
+    }
+
+    @Override
+    public void writePage(int pageId, Page page) throws IOException {
+        lock.lock();
+        try {
+            long position = (long) pageId * PAGE_SIZE;
+            if (pageId < mappedPages) {
+                mapping.put((int) position, page.data());
+            } else {
+                ByteBuffer source = ByteBuffer.wrap(page.data());
+                while (source.hasRemaining()) {
+                    channel.write(source, position + source.position());
+                }
+            }
+            pageCount = Math.max(pageCount, pageId + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Page readPage(int pageId) throws IOException {
+        lock.lock();
+        try {
+            if (pageId >= mappedPages && pageId < pageCount) {
+                remap(); // File grew through appends since the last mapping
+            }
+            if (pageId < mappedPages) {
+                return new Page(mapping.slice(pageId * PAGE_SIZE, PAGE_SIZE).asReadOnlyBuffer());
+            }
+
+            Page page = new Page();
+            ByteBuffer target = ByteBuffer.wrap(page.data());
+            long position = (long) pageId * PAGE_SIZE;
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new EOFException("Page " + pageId + " is past the end of " + filePath);
+                }
+            }
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Map the whole file, up to the size one mapping can hold.
+     * Views on an older mapping stay valid, they see the same file.
+     */
+    private void remap() throws IOException {
+        long bytes = Math.min((long) pageCount * PAGE_SIZE, MAX_MAPPED_BYTES);
+        if (bytes == 0) {
+            mapping = null;
+            mappedPages = 0;
+            return;
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        mappedPages = (int) (bytes / PAGE_SIZE);
+    }
+
+    @Override
+    public int pageCount() {
+        lock.lock();
+        try {
+            return pageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Views on the cut pages must be gone already, touching them after this would fault
+     */
+    @Override
+    public void truncate(int pageCount) throws IOException {
+        lock.lock();
+        try {
+            if (pageCount >= this.pageCount) return;
+            this.pageCount = pageCount;
+            mapping = null;
+            channel.truncate((long) pageCount * PAGE_SIZE);
+            remap();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            if (mapping != null) {
+                mapping.force();
+            }
+            channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (mapping != null) {
+                mapping.force();
+                mapping = null; // Unmapped once the last view is collected
+            }
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.page.RowLayout;
+
+import java.io.IOException;
+
+/**
+ * Pull-based stream of rows. Rows are read a page at a time as the caller asks
+ * for them, so a scan holds one page worth of rows no matter how big the table is.
+ * Closing early simply stops reading.
+ */
+public interface RowCursor extends AutoCloseable {
+
+    /**
+     * The next row, or null once the cursor is exhausted
+     */
+    RowLayout next() throws IOException;
+
+    @Override
+    void close();
+}
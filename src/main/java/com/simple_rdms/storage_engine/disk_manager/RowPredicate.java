@@ -0,0 +1,11 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.page.EncodedRow;
+
+/**
+ * Row test run on the encoded bytes during a scan; only rows it accepts are decoded
+ */
+public interface RowPredicate {
+
+    boolean test(EncodedRow row);
+}
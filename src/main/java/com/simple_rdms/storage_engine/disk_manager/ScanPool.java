@@ -0,0 +1,36 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static com.simple_rdms.utils.Constants.SCAN_PARALLELISM;
+
+/**
+ * Fork/join pool shared by the parallel scans of every table.
+ * Changing the parallelism starts a new pool; scans already running finish on the old one.
+ */
+public final class ScanPool {
+    private static ForkJoinPool pool = new ForkJoinPool(SCAN_PARALLELISM);
+
+    private ScanPool() {
+    }
+
+    public static synchronized ForkJoinPool get() {
+        return pool;
+    }
+
+    /**
+     * Threads a full scan may read pages on; 1 reads every scan on the calling thread
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Scan parallelism must be at least 1");
+        }
+        if (parallelism == pool.getParallelism()) return;
+        pool.shutdown();
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public static synchronized int getParallelism() {
+        return pool.getParallelism();
+    }
+}
@@ -1,302 +1,1449 @@
 package com.simple_rdms.storage_engine.disk_manager;
 
+import com.simple_rdms.storage_engine.index.BPlusTree;
+import com.simple_rdms.storage_engine.index.IndexEntry;
+import com.simple_rdms.storage_engine.index.KeyCodec;
+import com.simple_rdms.storage_engine.index.SecondaryIndex;
+import com.simple_rdms.storage_engine.page.EncodedRow;
 import com.simple_rdms.storage_engine.page.Page;
 import com.simple_rdms.storage_engine.page.RowLayout;
 import com.simple_rdms.storage_engine.page.RowLocation;
+import com.simple_rdms.storage_engine.page.TableStats;
 import com.simple_rdms.storage_engine.schema.ColumnDef;
 import com.simple_rdms.storage_engine.schema.TableSchema;
-import org.springframework.stereotype.Service;
+import com.simple_rdms.storage_engine.wal.LogManager;
+import com.simple_rdms.storage_engine.wal.Snapshot;
+import com.simple_rdms.storage_engine.wal.Transaction;
+import com.simple_rdms.storage_engine.wal.TransactionLock;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static com.simple_rdms.utils.Constants.BUFFER_POOL_FRAMES;
+import static com.simple_rdms.utils.Constants.PARALLEL_SCAN_MIN_PAGES;
+import static com.simple_rdms.utils.Constants.SCAN_TASK_PAGES;
+import static com.simple_rdms.utils.Constants.TABLE_LOCK_TIMEOUT_SECONDS;
+import static com.simple_rdms.utils.Constants.VACUUM_BATCH_ROWS;
 
+
+/**
+ * A heap of row versions with its indexes.
+ * <p>
+ * Changing a row never overwrites it: a delete stamps the current version with the
+ * deleting transaction and an update adds a new version that points back at the old one.
+ * Every statement reads through a snapshot and sees, of each row, the version whose
+ * writer committed before the snapshot and whose deleter did not. Writers are serialized
+ * per table; readers only lock the table while they read one page or one chain of versions.
+ * Vacuum reclaims versions no snapshot can see any more.
+ */
 public class TableFile {
-    public static final int PAGE_HEADER_SIZE = 8;
-    private final DiskManager diskManager;
+    private final BufferPool bufferPool;
     private final TableSchema schema;
-    // Maps primary key -> RowLocation (pageIndex, rowIndex)
-    private final Map<Object, RowLocation> primaryKeyIndex = new HashMap<>();
-    // Track deleted rows
-    private final Set<Object> deletedKeys = new HashSet<>();
+    private final Path filePath;
+    private final int bufferPoolFrames;
+    private final IoMode ioMode;
+    // Write-ahead log of the database directory, every change below goes through it
+    private final LogManager logManager;
+    // Persistent primary key -> RowLocation (pageIndex, rowIndex) of the row's newest version,
+    // deleted rows stay in it until vacuum reclaims them
+    private final BPlusTree primaryKeyIndex;
+    // Free bytes per heap page, so inserts fill space left by deletes before growing the file
+    private final FreeSpaceMap freeSpaceMap;
+    // Index name -> secondary index, listed in the users.indexes catalog file
+    private final Map<String, SecondaryIndex> secondaryIndexes = new LinkedHashMap<>();
+    // Writers and each vacuum step take it exclusively, page and index catalog reads share it
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held by the transaction writing to the table from its first change until it finishes.
+    // A permit and not a lock, a transaction may finish on another thread than it wrote on.
+    private final Semaphore writerPermit = new Semaphore(1);
+    private volatile Transaction writer;
+    // Cursors still open; vacuum does not move rows under them
+    private final AtomicInteger openCursors = new AtomicInteger();
+    // Rows deleted or updated since the last vacuum, autovacuum picks tables by it
+    private final AtomicInteger deletesSinceVacuum = new AtomicInteger();
 
     public TableFile(TableSchema schema, Path filePath) throws IOException {
+        this(schema, filePath, BUFFER_POOL_FRAMES);
+    }
+
+    public TableFile(TableSchema schema, Path filePath, int bufferPoolFrames) throws IOException {
+        this(schema, filePath, bufferPoolFrames, IoMode.FILE);
+    }
+
+    /**
+     * ioMode applies to the table file and all of its index files
+     */
+    public TableFile(TableSchema schema, Path filePath, int bufferPoolFrames, IoMode ioMode) throws IOException {
         this.schema = schema;
-        this.diskManager = new DiskManager(filePath);
-
-        // Load all indexes and check deletion flags
-        for (int pageIndex = 0; pageIndex < diskManager.pageCount(); pageIndex++) {
-            Page page = diskManager.readPage(pageIndex);
-            ByteBuffer buffer = page.buffer();
-            buffer.position(PAGE_HEADER_SIZE);
-
-            for (int rowIndex = 0; rowIndex < page.getRowCount(); rowIndex++) {
-                // Read deletion flag (1 byte)
-                byte deletedFlag = buffer.get();
-                RowLayout row = RowLayout.deserialize(buffer, schema);
-
-                Object primaryKey = row.getPrimaryKey();
-                //Use RowLocation with both pageIndex AND rowIndex
-                RowLocation location = new RowLocation(pageIndex, rowIndex);
-                primaryKeyIndex.put(primaryKey, location);
-
-                if (deletedFlag == 1) {
-                    deletedKeys.add(primaryKey);
+        this.filePath = filePath;
+        this.bufferPoolFrames = bufferPoolFrames;
+        this.ioMode = ioMode;
+        // Opening the log first replays it, so the files below are read in a consistent state
+        this.logManager = LogManager.open(filePath.toAbsolutePath().getParent());
+        this.bufferPool = new BufferPool(DiskManager.open(filePath, ioMode), bufferPoolFrames, logManager);
+        logManager.register(bufferPool);
+
+        // Index lives next to the table file: users.tbl -> users.idx
+        ColumnDef pkColumn = schema.getColumns().get(schema.getPrimaryKeyIndex());
+        this.primaryKeyIndex = new BPlusTree(DiskManager.open(siblingPath(filePath, ".idx"), ioMode),
+                new KeyCodec(pkColumn.getType()), bufferPoolFrames, logManager);
+
+        // Tables written before the index existed get it built once
+        if (bufferPool.pageCount() > 0 && primaryKeyIndex.isEmpty()) {
+            inTransaction(txn -> {
+                forEachLiveRow((location, row) -> primaryKeyIndex.insert(txn, row.getPrimaryKey(), location));
+                return null;
+            });
+        }
+
+        // users.tbl -> users.fsm, filled from the pages when the table predates it
+        this.freeSpaceMap = new FreeSpaceMap(DiskManager.open(siblingPath(filePath, ".fsm"), ioMode), bufferPoolFrames);
+        if (bufferPool.pageCount() > 0 && freeSpaceMap.isEmpty()) {
+            for (int pageIndex = 0; pageIndex < bufferPool.pageCount(); pageIndex++) {
+                Page page = bufferPool.fetchPage(pageIndex);
+                int available = availableSpace(page);
+                bufferPool.unpinPage(pageIndex, false);
+                freeSpaceMap.update(pageIndex, available);
+            }
+        }
+
+        Path catalog = siblingPath(filePath, ".indexes");
+        if (Files.exists(catalog)) {
+            for (String line : Files.readAllLines(catalog)) {
+                if (line.isBlank()) continue;
+                String[] parts = line.trim().split("\\s+");
+                secondaryIndexes.put(parts[0], openSecondaryIndex(parts[0], columnIndex(parts[1])));
+            }
+        }
+    }
+
+    /**
+     * Create a non-unique index on a column and fill it from the existing rows
+     */
+    public void createIndex(String indexName, String columnName) throws IOException {
+        int columnIndex = columnIndex(columnName);
+        if (columnIndex == schema.getPrimaryKeyIndex()) {
+            throw new RuntimeException("Column is already indexed by the primary key: " + columnName);
+        }
+
+        // Leftover file from a dropped index would hold stale entries, and
+        // recovery would replay records still pointing into it onto the new one
+        if (!logManager.checkpoint(indexPath(indexName).getFileName().toString(), 0)) {
+            throw new RuntimeException("Log still holds changes of a dropped index " + indexName
+                    + ", retry once running transactions finish");
+        }
+
+        // Closed only after a failed fill was rolled back, the rollback writes to it
+        List<SecondaryIndex> opened = new ArrayList<>(1);
+        try {
+            inTransaction(txn -> {
+                if (secondaryIndexes.containsKey(indexName)) {
+                    throw new RuntimeException("Index already exists: " + indexName);
                 }
+                Files.deleteIfExists(indexPath(indexName));
+                SecondaryIndex index = openSecondaryIndex(indexName, columnIndex);
+                opened.add(index);
+                indexVersions(txn, index);
+
+                secondaryIndexes.put(indexName, index);
+                saveIndexCatalog();
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            for (SecondaryIndex index : opened) {
+                if (secondaryIndexes.get(indexName) != index) index.close();
+            }
+            throw e;
+        }
+    }
+
+    public void dropIndex(String indexName) throws IOException {
+        // Claims the table, so no running transaction has changes in the index left to roll back
+        SecondaryIndex index = inTransaction(txn -> {
+            SecondaryIndex removed = secondaryIndexes.remove(indexName);
+            if (removed == null) {
+                throw new RuntimeException("Index not found: " + indexName);
+            }
+            saveIndexCatalog();
+            return removed;
+        });
+        index.close();
+        logManager.checkpoint();
+        Files.deleteIfExists(index.getFilePath());
+    }
+
+    /**
+     * The secondary index on a column, or null if the column has none
+     */
+    public SecondaryIndex getIndexOnColumn(int columnIndex) {
+        lock.readLock().lock();
+        try {
+            for (SecondaryIndex index : secondaryIndexes.values()) {
+                if (index.getColumnIndex() == columnIndex) return index;
             }
+            return null;
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
+    /**
+     * Rows whose indexed column lies between the bounds; a null bound is open
+     */
+    public List<RowLayout> findByIndex(String indexName, Object low, boolean lowInclusive,
+                                       Object high, boolean highInclusive) throws IOException {
+        return drain(scanIndex(indexName, low, lowInclusive, high, highInclusive));
+    }
+
+    /**
+     * Cursor over the rows findByIndex returns, in index order
+     */
+    public RowCursor scanIndex(String indexName, Object low, boolean lowInclusive,
+                               Object high, boolean highInclusive) throws IOException {
+        return scanIndex(null, indexName, low, lowInclusive, high, highInclusive, null, null);
+    }
+
+    /**
+     * Same, only returning rows the filter accepts and decoding only the columns marked
+     * in decode. A null filter accepts all rows, a null decode decodes all columns.
+     * Rows are read as txn sees them, with its own changes, or as committed when it is null.
+     */
+    public RowCursor scanIndex(Transaction txn, String indexName, Object low, boolean lowInclusive, Object high,
+                               boolean highInclusive, RowPredicate filter, boolean[] decode) throws IOException {
+        SecondaryIndex index;
+        lock.readLock().lock();
+        try {
+            index = secondaryIndexes.get(indexName);
+            if (index == null) {
+                throw new RuntimeException("Index not found: " + indexName);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new LocationCursor(txn, index.getColumnIndex(), filter, decode, () -> {
+            lock.readLock().lock();
+            try {
+                return index.iterator(low, lowInclusive, high, highInclusive);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    private SecondaryIndex openSecondaryIndex(String indexName, int columnIndex) throws IOException {
+        return new SecondaryIndex(indexName, columnIndex,
+                schema.getColumns().get(columnIndex).getType(),
+                schema.getColumns().get(schema.getPrimaryKeyIndex()).getType(),
+                DiskManager.open(indexPath(indexName), ioMode), bufferPoolFrames, logManager);
+    }
+
+    // users.tbl -> users.email_idx.idx
+    private Path indexPath(String indexName) {
+        return siblingPath(filePath, "." + indexName + ".idx");
+    }
+
+    private void saveIndexCatalog() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            lines.add(index.getName() + " " + schema.getColumns().get(index.getColumnIndex()).getName());
+        }
+        Files.write(siblingPath(filePath, ".indexes"), lines);
+    }
+
+    private int columnIndex(String columnName) {
+        List<ColumnDef> columns = schema.getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getName().equalsIgnoreCase(columnName)) return i;
+        }
+        throw new RuntimeException("Unknown column: " + columnName);
+    }
+
+    /**
+     * Fill a new index from every version of every row, so statements reading old versions
+     * find them through it too. Each (value, primary key) entry points at the newest version
+     * holding the value; readers walk back from there.
+     */
+    private void indexVersions(Transaction txn, SecondaryIndex index) throws IOException {
+        boolean[] decode = new boolean[schema.getColumns().size()];
+        decode[index.getColumnIndex()] = true;
+
+        Iterator<IndexEntry> rows = primaryKeyIndex.iterator(null, true, null, true);
+        while (rows.hasNext()) {
+            IndexEntry entry = rows.next();
+            List<Object> indexed = new ArrayList<>();
+            RowLocation location = entry.getLocation();
+            while (location != null) {
+                Page page = bufferPool.fetchPage(location.getPageIndex());
+                Object value;
+                RowLocation previous;
+                try {
+                    value = readRow(page, location.getRowIndex(), decode).getValues(index.getColumnIndex());
+                    previous = page.getPrevious(location.getRowIndex());
+                } finally {
+                    bufferPool.unpinPage(location.getPageIndex(), false);
+                }
+                if (!indexed.contains(value)) {
+                    indexed.add(value);
+                    index.insert(txn, value, entry.getKey(), location);
+                }
+                location = previous;
+            }
+        }
+    }
+
+    /**
+     * Visit the current version of every row in physical order.
+     * One row object is decoded into over and over, a visitor must not keep it.
+     */
+    private void forEachLiveRow(RowVisitor visitor) throws IOException {
+        RowLayout row = RowLayout.reusable(schema);
+        for (int pageIndex = 0; pageIndex < bufferPool.pageCount(); pageIndex++) {
+            Page page = bufferPool.fetchPage(pageIndex);
+            try {
+                for (int rowIndex = 0; rowIndex < page.getRowCount(); rowIndex++) {
+                    if (page.isDeleted(rowIndex) || page.getXmax(rowIndex) != 0) continue;
+                    //Use RowLocation with both pageIndex AND rowIndex
+                    row.readFrom(page.buffer(), page.getRowOffset(rowIndex), null);
+                    visitor.visit(new RowLocation(pageIndex, rowIndex), row);
+                }
+            } finally {
+                bufferPool.unpinPage(pageIndex, false);
+            }
+        }
+    }
+
+    private interface RowVisitor {
+        void visit(RowLocation location, RowLayout row) throws IOException;
+    }
+
+    /**
+     * Run work as one transaction: committed when it returns, rolled back when it throws
+     */
+    private <T> T inTransaction(TransactionWork<T> work) throws IOException {
+        Transaction txn = logManager.begin();
+        T result;
+        try {
+            result = inTransaction(txn, work);
+        } catch (IOException | RuntimeException e) {
+            txn.abort();
+            throw e;
+        }
+        txn.commit();
+        return result;
+    }
+
+    /**
+     * Run work as part of txn, or as a transaction of its own when txn is null.
+     * When work throws, the changes it made so far stay in txn and the caller has to roll txn back.
+     */
+    private <T> T inTransaction(Transaction txn, TransactionWork<T> work) throws IOException {
+        if (txn == null) {
+            return inTransaction(work);
+        }
+        claim(txn);
+        lock.writeLock().lock();
+        try {
+            return work.run(txn);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Make txn the one transaction writing to this table until it finishes. Writers of
+     * other transactions wait for that, so a rollback never puts back bytes of pages
+     * someone else changed since.
+     */
+    private void claim(Transaction txn) {
+        if (writer == txn) return;
+        if (txn.getLogManager() != logManager) {
+            throw new RuntimeException("Transaction belongs to another database than table " + schema.getTableName());
+        }
+
+        try {
+            if (!writerPermit.tryAcquire(TABLE_LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new RuntimeException("Timed out waiting for another transaction writing to " + schema.getTableName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to write to " + schema.getTableName(), e);
+        }
+        writer = txn;
+        try {
+            txn.hold(new TableClaim());
+        } catch (RuntimeException e) {
+            writer = null;
+            writerPermit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * A transaction's claim on this table, an abort also shuts readers out while it undoes
+     */
+    private class TableClaim implements TransactionLock {
+        @Override
+        public void beforeUndo() {
+            lock.writeLock().lock();
+        }
+
+        @Override
+        public void afterUndo() {
+            lock.writeLock().unlock();
+        }
+
+        @Override
+        public void release() {
+            writer = null;
+            writerPermit.release();
+        }
+    }
+
+    private interface TransactionWork<T> {
+        T run(Transaction txn) throws IOException;
+    }
+
     /**
      * Insert a new row
      */
     public void insert(RowLayout row) throws IOException {
+        insert(null, row);
+    }
+
+    /**
+     * Insert a new row as part of txn, in a transaction of its own when txn is null
+     */
+    public void insert(Transaction txn, RowLayout row) throws IOException {
+        inTransaction(txn, t -> {
+            insertRow(t, row);
+            return null;
+        });
+    }
+
+    private void insertRow(Transaction txn, RowLayout row) throws IOException {
         Object primaryKey = row.getPrimaryKey();
 
-        // Check if key exists and is not deleted
-        if (primaryKeyIndex.containsKey(primaryKey) && !deletedKeys.contains(primaryKey)) {
-            throw new RuntimeException("Primary key violation: " + primaryKey);
+        // A deleted row stays in the index until vacuum, a new version then goes on top of it
+        RowLocation previous = primaryKeyIndex.search(primaryKey);
+        if (previous != null) {
+            long xmax = readXmax(previous);
+            if (xmax == 0) {
+                throw new RuntimeException("Primary key violation: " + primaryKey);
+            }
+            checkNotChanging(txn, xmax, primaryKey);
         }
 
-        // If the key was previously deleted, we can reuse the slot
-        if (deletedKeys.contains(primaryKey)) {
-//            RowLocation location = primaryKeyIndex.get(primaryKey);
-//            updateRowAtLocation(location, row, false);
-            deletedKeys.remove(primaryKey);
-            primaryKeyIndex.remove(primaryKey); //Remove old location
+        RowLocation location = writeRow(txn, row, previous);
+        if (previous == null) {
+            addToIndexes(txn, row, location);
+        } else {
+            indexNewVersion(txn, row, location);
         }
+    }
 
-        byte[] rowsByte = row.serialize();
-        int pageCount = diskManager.pageCount();
-        Page page;
+    /**
+     * Write a new version of a row, created by txn, into free space or a new page
+     */
+    private RowLocation writeRow(Transaction txn, RowLayout row, RowLocation previous) throws IOException {
+        int rowSize = row.encodedSize();
+        RowLocation location = writeToFreeSpace(txn, row, rowSize, txn.getId(), 0, previous, bufferPool.pageCount());
+        if (location != null) {
+            return location;
+        }
 
-        if (pageCount == 0) {
-            page = new Page();
-            writeRowToPage(page, rowsByte, false);
-            diskManager.writePage(0, page);
-            primaryKeyIndex.put(primaryKey, new RowLocation(0, 0));
-            return;
+        Page page = txn.newPage(bufferPool);
+        int pageIndex = bufferPool.pageCount() - 1;
+        int slot = writeRowToPage(page, row, rowSize, txn.getId(), 0, previous);
+        int available = availableSpace(page);
+        txn.releaseWrite(bufferPool, pageIndex);
+        freeSpaceMap.update(pageIndex, available);
+        if (slot == -1) {
+            throw new RuntimeException("Row too large for a page: " + rowSize + " bytes");
         }
+        return new RowLocation(pageIndex, slot);
+    }
 
-        page = diskManager.readPage(pageCount - 1);
-        int currentRowIndex = page.getRowCount();
+    /**
+     * A row deleted or replaced by a transaction that is still running cannot be changed again
+     */
+    private void checkNotChanging(Transaction txn, long xmax, Object primaryKey) {
+        if (xmax != txn.getId() && logManager.isActive(xmax)) {
+            throw new RuntimeException("Row is being changed by another transaction: " + primaryKey);
+        }
+    }
 
-        if (!writeRowToPage(page, rowsByte, false)) {
-            page = new Page();
-            writeRowToPage(page, rowsByte, false);
-            diskManager.writePage(pageCount, page);
-            primaryKeyIndex.put(primaryKey, new RowLocation(pageCount, 0));
-        } else {
-            diskManager.writePage(pageCount - 1, page);
-            primaryKeyIndex.put(primaryKey, new RowLocation(pageCount - 1, currentRowIndex));
+    private long readXmax(RowLocation location) throws IOException {
+        Page page = bufferPool.fetchPage(location.getPageIndex());
+        try {
+            return page.getXmax(location.getRowIndex());
+        } finally {
+            bufferPool.unpinPage(location.getPageIndex(), false);
         }
     }
 
     /**
-     * Update a row by primary key
+     * Write a row version into free space the map knows of on a page below pageLimit,
+     * returns null when no such page has room
      */
-    public boolean update(Object primaryKey, RowLayout newRow) throws IOException {
-        if (!primaryKeyIndex.containsKey(primaryKey) || deletedKeys.contains(primaryKey)) {
-            return false; // Row not found or deleted
+    private RowLocation writeToFreeSpace(Transaction txn, RowLayout row, int rowSize, long xmin, long xmax,
+                                         RowLocation previous, int pageLimit) throws IOException {
+        int needed = Page.RECORD_HEADER_SIZE + rowSize + Page.SLOT_SIZE;
+        int pageIndex;
+
+        // Each failed try corrects a stale map entry, so the same page is not offered again
+        while ((pageIndex = freeSpaceMap.findPage(needed, pageLimit)) >= 0) {
+            Page page = txn.fetchForWrite(bufferPool, pageIndex);
+            int slot = writeRowToPage(page, row, rowSize, xmin, xmax, previous);
+
+            // Tombstones may hold enough space, squeeze them out
+            if (slot == -1 && availableSpace(page) >= needed) {
+                page.compact();
+                slot = writeRowToPage(page, row, rowSize, xmin, xmax, previous);
+            }
+
+            int available = availableSpace(page);
+            txn.releaseWrite(bufferPool, pageIndex);
+            freeSpaceMap.update(pageIndex, available);
+            if (slot != -1) {
+                return new RowLocation(pageIndex, slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes a new record can use, counting tombstones that compaction would give back
+     */
+    private static int availableSpace(Page page) {
+        return page.getFreeSpace() + page.getDeadSpace();
+    }
+
+    /**
+     * Insert many rows as one transaction.
+     * Pages are filled in memory and logged once each instead of once per row,
+     * then every index takes the new keys in a single sorted pass.
+     */
+    public void insertBatch(List<RowLayout> rows) throws IOException {
+        insertBatch(null, rows);
+    }
+
+    /**
+     * Same, as part of txn when it is not null
+     */
+    public void insertBatch(Transaction txn, List<RowLayout> rows) throws IOException {
+        if (rows.isEmpty()) return;
+        inTransaction(txn, t -> {
+            insertRows(t, rows);
+            return null;
+        });
+    }
+
+    private void insertRows(Transaction txn, List<RowLayout> batch) throws IOException {
+        // Keys of deleted rows vacuum has not reclaimed yet take the single row path,
+        // their new version goes on top of the old ones
+        List<RowLayout> rows = batch;
+        if (!primaryKeyIndex.isEmpty()) {
+            rows = new ArrayList<>(batch.size());
+            for (RowLayout row : batch) {
+                if (primaryKeyIndex.search(row.getPrimaryKey()) == null) {
+                    rows.add(row);
+                } else {
+                    insertRow(txn, row);
+                }
+            }
+        }
+
+        List<RowLocation> locations = new ArrayList<>(rows.size());
+        int pageIndex = bufferPool.pageCount() - 1;
+        Page page = pageIndex >= 0 ? txn.fetchForWrite(bufferPool, pageIndex) : null;
+
+        try {
+            for (RowLayout row : rows) {
+                int rowSize = row.encodedSize();
+                int slot = page == null ? -1 : writeRowToPage(page, row, rowSize, txn.getId(), 0, null);
+                if (slot == -1) {
+                    // Current page is full, it is logged once and never touched again by this batch
+                    if (page != null) {
+                        int available = availableSpace(page);
+                        txn.releaseWrite(bufferPool, pageIndex);
+                        freeSpaceMap.update(pageIndex, available);
+                        page = null;
+                    }
+                    page = txn.newPage(bufferPool);
+                    pageIndex = bufferPool.pageCount() - 1;
+                    slot = writeRowToPage(page, row, rowSize, txn.getId(), 0, null);
+                    if (slot == -1) {
+                        throw new RuntimeException("Row too large for a page: " + rowSize + " bytes");
+                    }
+                }
+                locations.add(new RowLocation(pageIndex, slot));
+            }
+        } finally {
+            if (page != null) {
+                int available = availableSpace(page);
+                txn.releaseWrite(bufferPool, pageIndex);
+                freeSpaceMap.update(pageIndex, available);
+            }
+        }
+
+        // A duplicate key fails here and the whole batch is rolled back
+        List<IndexEntry> primaryKeys = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            primaryKeys.add(new IndexEntry(rows.get(i).getPrimaryKey(), locations.get(i)));
+        }
+        primaryKeyIndex.insertAll(txn, primaryKeys);
+
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            List<Object> values = new ArrayList<>(rows.size());
+            List<Object> keys = new ArrayList<>(rows.size());
+            for (RowLayout row : rows) {
+                values.add(row.getValues(index.getColumnIndex()));
+                keys.add(row.getPrimaryKey());
+            }
+            index.insertAll(txn, values, keys, locations);
+        }
+    }
+
+    private void addToIndexes(Transaction txn, RowLayout row, RowLocation location) throws IOException {
+        primaryKeyIndex.insert(txn, row.getPrimaryKey(), location);
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            index.insert(txn, row.getValues(index.getColumnIndex()), row.getPrimaryKey(), location);
+        }
+    }
+
+    /**
+     * Point the indexes at a new version of an existing row. Secondary entries for values
+     * only older versions hold keep pointing at those, statements reading them still find them.
+     */
+    private void indexNewVersion(Transaction txn, RowLayout row, RowLocation location) throws IOException {
+        primaryKeyIndex.update(txn, row.getPrimaryKey(), location);
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            Object value = row.getValues(index.getColumnIndex());
+            if (!index.update(txn, value, row.getPrimaryKey(), location)) {
+                index.insert(txn, value, row.getPrimaryKey(), location);
+            }
         }
+    }
 
+    /**
+     * Update a row by primary key, the delete and insert commit together.
+     * The new version points back at the old one.
+     */
+    public boolean update(Object primaryKey, RowLayout newRow) throws IOException {
+        return update(null, primaryKey, newRow);
+    }
+
+    public boolean update(Transaction txn, Object primaryKey, RowLayout newRow) throws IOException {
         // Verify the new row has the same primary key
         if (!newRow.getPrimaryKey().equals(primaryKey)) {
             throw new RuntimeException("Cannot change primary key value");
         }
 
-        if (!delete(primaryKey)) return false;
+        return inTransaction(txn, t -> {
+            if (!deleteRow(t, primaryKey)) return false; // Row not found or deleted
+
+            insertRow(t, newRow);
+            return true;
+        });
+    }
+
+    /**
+     * Delete a row by primary key. The current version is only stamped with the deleting
+     * transaction, snapshots taken before it commits keep reading the row until vacuum.
+     */
+    public boolean delete(Object primaryKey) throws IOException {
+        return delete(null, primaryKey);
+    }
+
+    public boolean delete(Transaction txn, Object primaryKey) throws IOException {
+        return inTransaction(txn, t -> deleteRow(t, primaryKey));
+    }
+
+    private boolean deleteRow(Transaction txn, Object primaryKey) throws IOException {
+        RowLocation location = primaryKeyIndex.search(primaryKey);
+        if (location == null) {
+            return false; // Row not found
+        }
+
+        // The index points at the newest version, only it can still be live
+        Page page = txn.fetchForWrite(bufferPool, location.getPageIndex());
+        long xmax = page.getXmax(location.getRowIndex());
+        if (xmax == 0) {
+            page.setXmax(location.getRowIndex(), txn.getId());
+        }
 
-        insert(newRow);
+        // Logged here, the page itself is written back by the buffer pool
+        txn.releaseWrite(bufferPool, location.getPageIndex());
+        if (xmax != 0) {
+            checkNotChanging(txn, xmax, primaryKey);
+            return false; // Already deleted
+        }
 
-        System.out.println("After update - in deletedKeys: " + deletedKeys.contains(primaryKey));
-        System.out.println("After update - in primaryKeyIndex: " + primaryKeyIndex.containsKey(primaryKey));
+        deletesSinceVacuum.incrementAndGet();
         return true;
     }
 
     /**
-     * Delete a row by primary key (soft delete with tombstone flag)
+     * Row and page counts; deleted rows are versions that were deleted or replaced
+     * and tombstones compaction has not dropped yet
      */
-    public boolean delete(Object primaryKey) throws IOException {
-        if (!primaryKeyIndex.containsKey(primaryKey) || deletedKeys.contains(primaryKey)) {
-            return false; // Row not found or already deleted
+    public TableStats getStats() throws IOException {
+        lock.readLock().lock();
+        try {
+            int total = 0;
+            int deleted = 0;
+            for (int pageIndex = 0; pageIndex < bufferPool.pageCount(); pageIndex++) {
+                Page page = bufferPool.fetchPage(pageIndex);
+                try {
+                    for (int slot = 0; slot < page.getRowCount(); slot++) {
+                        if (page.getRecordLength(slot) == 0) continue;
+                        total++;
+                        if (page.isDeleted(slot) || page.getXmax(slot) != 0) deleted++;
+                    }
+                } finally {
+                    bufferPool.unpinPage(pageIndex, false);
+                }
+            }
+            return new TableStats(total, total - deleted, deleted, bufferPool.pageCount());
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        RowLocation location = primaryKeyIndex.get(primaryKey);
+    public int getDeletesSinceVacuum() {
+        return deletesSinceVacuum.get();
+    }
 
-        // Read the page and mark the row as deleted
-        Page page = diskManager.readPage(location.getPageIndex());
-        ByteBuffer buffer = page.buffer();
+    /**
+     * Reclaim the space of deleted rows and return the number of pages cut off the file.
+     * <p>
+     * Versions no snapshot can see any more are tombstoned first. Then every page with
+     * tombstones is compacted, then rows are moved out of the last pages
+     * into free space further up, so emptied pages at the end of the file can be
+     * truncated. Each page is its own transaction under the table lock, so readers only
+     * wait for one page at a time. Rows are not moved while a cursor is open, and the
+     * file is only cut when a checkpoint leaves the log with no records for the cut pages.
+     */
+    public int vacuum() throws IOException {
+        pruneVersions();
+        for (int pageIndex = 0; pageIndex < bufferPool.pageCount(); pageIndex++) {
+            compactPage(pageIndex);
+        }
 
-        // Calculate the position of the deletion flag for this row
-        int position = PAGE_HEADER_SIZE; // Skip page header
-        for (int i = 0; i < location.getRowIndex(); i++) {
-            position++; // Skip deletion flag
-            position += getRowSize(buffer, position);
+        int keptPages = bufferPool.pageCount();
+        while (keptPages > 0 && emptyPage(keptPages - 1)) {
+            keptPages--;
         }
 
-        // Set deletion flag to 1
-        buffer.put(position, (byte) 1);
+        int reclaimed = 0;
+        lock.writeLock().lock();
+        try {
+            // Pages refilled since they were emptied stay
+            while (keptPages < bufferPool.pageCount() && hasLiveRecords(keptPages)) {
+                keptPages++;
+            }
+            int pageCount = bufferPool.pageCount();
+            if (keptPages < pageCount && logManager.checkpoint(bufferPool.getFileName(), keptPages)) {
+                for (int pageIndex = keptPages; pageIndex < pageCount; pageIndex++) {
+                    freeSpaceMap.update(pageIndex, 0);
+                }
+                bufferPool.truncate(keptPages);
+                reclaimed = pageCount - keptPages;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
 
-        // Write the page back
-        diskManager.writePage(location.getPageIndex(), page);
+        deletesSinceVacuum.set(0);
+        return reclaimed;
+    }
 
-        // Mark as deleted in memory
-        deletedKeys.add(primaryKey);
+    /**
+     * Tombstone the row versions no snapshot can see, a batch of rows per transaction.
+     * A version is dead once the transaction that deleted or replaced it finished before
+     * every open snapshot and running transaction began; the versions behind it are older
+     * still. A row whose newest version is dead leaves the primary key index.
+     */
+    private void pruneVersions() throws IOException {
+        Object after = null;
+        while (true) {
+            List<Object> primaryKeys = new ArrayList<>(VACUUM_BATCH_ROWS);
+            Iterator<IndexEntry> entries = primaryKeyIndex.iterator(after, false, null, true);
+            while (primaryKeys.size() < VACUUM_BATCH_ROWS && entries.hasNext()) {
+                primaryKeys.add(entries.next().getKey());
+            }
+            if (primaryKeys.isEmpty()) return;
+            after = primaryKeys.get(primaryKeys.size() - 1);
+
+            inTransaction(txn -> {
+                long oldest = logManager.oldestVisibleTxn();
+                for (Object primaryKey : primaryKeys) {
+                    pruneRow(txn, primaryKey, oldest);
+                }
+                return null;
+            });
+        }
+    }
+
+    private void pruneRow(Transaction txn, Object primaryKey, long oldest) throws IOException {
+        // Walk back to the newest dead version, remembering the version in front of it
+        RowLocation newer = null;
+        RowLocation location = primaryKeyIndex.search(primaryKey);
+        while (location != null) {
+            Page page = bufferPool.fetchPage(location.getPageIndex());
+            long xmax;
+            RowLocation previous;
+            try {
+                xmax = page.getXmax(location.getRowIndex());
+                previous = page.getPrevious(location.getRowIndex());
+            } finally {
+                bufferPool.unpinPage(location.getPageIndex(), false);
+            }
+            if (xmax != 0 && xmax < oldest) break;
+            newer = location;
+            location = previous;
+        }
+        if (location == null) return;
+
+        if (newer == null) {
+            primaryKeyIndex.delete(txn, primaryKey);
+        } else {
+            Page page = txn.fetchForWrite(bufferPool, newer.getPageIndex());
+            page.setPrevious(newer.getRowIndex(), null);
+            txn.releaseWrite(bufferPool, newer.getPageIndex());
+        }
+
+        while (location != null) {
+            Page page = txn.fetchForWrite(bufferPool, location.getPageIndex());
+            RowLayout row = secondaryIndexes.isEmpty() ? null : readRow(page, location.getRowIndex());
+            RowLocation previous = page.getPrevious(location.getRowIndex());
+            page.markDeleted(location.getRowIndex());
+            int available = availableSpace(page);
+            txn.releaseWrite(bufferPool, location.getPageIndex());
+            freeSpaceMap.update(location.getPageIndex(), available);
+
+            // An entry points at the newest version holding its value, only entries leading here go
+            for (SecondaryIndex index : secondaryIndexes.values()) {
+                Object value = row.getValues(index.getColumnIndex());
+                if (location.equals(index.search(value, primaryKey))) {
+                    index.delete(txn, value, primaryKey);
+                }
+            }
+            location = previous;
+        }
+    }
+
+    private void compactPage(int pageIndex) throws IOException {
+        // A transaction that changes nothing commits without touching the log
+        inTransaction(txn -> {
+            if (pageIndex >= bufferPool.pageCount()) return null;
+            Page page = bufferPool.fetchPage(pageIndex);
+            int dead = page.getDeadSpace();
+            bufferPool.unpinPage(pageIndex, false);
+            if (dead == 0) return null;
+
+            Page writable = txn.fetchForWrite(bufferPool, pageIndex);
+            writable.compact();
+            int available = availableSpace(writable);
+            txn.releaseWrite(bufferPool, pageIndex);
+            freeSpaceMap.update(pageIndex, available);
+            return null;
+        });
+    }
+
+    /**
+     * Move every live row of a page into free space on earlier pages.
+     * Returns false, leaving the rest of the rows in place, when one does not fit,
+     * a cursor is open, or the page holds an old version a snapshot still reads.
+     */
+    private boolean emptyPage(int pageIndex) throws IOException {
+        return inTransaction(txn -> {
+            if (openCursors.get() > 0 || pageIndex >= bufferPool.pageCount()) return false;
+            if (!hasLiveRecords(pageIndex)) return true;
 
+            Page page = txn.fetchForWrite(bufferPool, pageIndex);
+            boolean emptied = true;
+            try {
+                for (int slot = 0; slot < page.getRowCount(); slot++) {
+                    if (page.isDeleted(slot)) continue;
+                    if (!moveRow(txn, page, new RowLocation(pageIndex, slot))) {
+                        emptied = false;
+                        break;
+                    }
+                }
+                page.compact();
+            } finally {
+                int available = availableSpace(page);
+                txn.releaseWrite(bufferPool, pageIndex);
+                freeSpaceMap.update(pageIndex, available);
+            }
+            return emptied;
+        });
+    }
+
+    private boolean moveRow(Transaction txn, Page page, RowLocation from) throws IOException {
+        RowLayout row = readRow(page, from.getRowIndex());
+        // Only newest versions move, the version after an old one finds it by its location
+        if (!from.equals(primaryKeyIndex.search(row.getPrimaryKey()))) return false;
+
+        int slot = from.getRowIndex();
+        RowLocation to = writeToFreeSpace(txn, row, row.encodedSize(), page.getXmin(slot), page.getXmax(slot),
+                page.getPrevious(slot), from.getPageIndex());
+        if (to == null) return false;
+
+        page.markDeleted(slot);
+        primaryKeyIndex.update(txn, row.getPrimaryKey(), to);
+        for (SecondaryIndex index : secondaryIndexes.values()) {
+            index.update(txn, row.getValues(index.getColumnIndex()), row.getPrimaryKey(), to);
+        }
         return true;
     }
 
+    private boolean hasLiveRecords(int pageIndex) throws IOException {
+        Page page = bufferPool.fetchPage(pageIndex);
+        try {
+            return page.hasLiveRecords();
+        } finally {
+            bufferPool.unpinPage(pageIndex, false);
+        }
+    }
+
     /**
      * Find a single row by primary key
      */
     public RowLayout findByPrimaryKey(Object primaryKey) throws IOException {
-        if (!primaryKeyIndex.containsKey(primaryKey) || deletedKeys.contains(primaryKey)) {
-            return null;
+        Snapshot snapshot = logManager.snapshot(null);
+        // Held across lookup and read, so vacuum cannot move the row in between
+        lock.readLock().lock();
+        try {
+            RowLocation location = primaryKeyIndex.search(primaryKey);
+            if (location == null) {
+                return null;
+            }
+
+            return readVisible(location, snapshot, null, null, null);
+        } finally {
+            lock.readLock().unlock();
+            snapshot.release();
         }
+    }
 
-        RowLocation location = primaryKeyIndex.get(primaryKey);
-        Page page = diskManager.readPage(location.getPageIndex());
-        ByteBuffer buffer = page.buffer();
-//        buffer.position(PAGE_HEADER_SIZE);
+    /**
+     * Rows with low <= primary key <= high in key order; a null bound is open
+     */
+    public List<RowLayout> findByPrimaryKeyRange(Object low, Object high) throws IOException {
+        return findByPrimaryKeyRange(low, true, high, true);
+    }
 
-        int position = PAGE_HEADER_SIZE;
-        for (int r = 0; r <= location.getRowIndex(); r++) {
-//            byte deletedFlag = buffer.get();
-            position++;
-            position += getRowSizeAtPosition(buffer, position);
-        }
-        buffer.position(position);
-        byte deleteFlag = buffer.get();
+    public List<RowLayout> findByPrimaryKeyRange(Object low, boolean lowInclusive,
+                                                 Object high, boolean highInclusive) throws IOException {
+        return drain(scanPrimaryKeyRange(low, lowInclusive, high, highInclusive));
+    }
 
-        if (deleteFlag == 1) {
-            return null;
-        }
-        return RowLayout.deserialize(buffer, schema);
+    /**
+     * Cursor over the rows findByPrimaryKeyRange returns, in key order
+     */
+    public RowCursor scanPrimaryKeyRange(Object low, boolean lowInclusive,
+                                         Object high, boolean highInclusive) throws IOException {
+        return scanPrimaryKeyRange(null, low, lowInclusive, high, highInclusive, null, null);
     }
 
-    private int getRowSizeAtPosition(ByteBuffer buffer, int startPosition) {
-        int originalPosition = buffer.position();
-        buffer.position(startPosition);
+    /**
+     * Same, only returning rows the filter accepts and decoding only the columns marked
+     * in decode. A null filter accepts all rows, a null decode decodes all columns.
+     * Rows are read as txn sees them, with its own changes, or as committed when it is null.
+     */
+    public RowCursor scanPrimaryKeyRange(Transaction txn, Object low, boolean lowInclusive, Object high,
+                                         boolean highInclusive, RowPredicate filter, boolean[] decode)
+            throws IOException {
+        return new LocationCursor(txn, -1, filter, decode,
+                () -> primaryKeyIndex.iterator(low, lowInclusive, high, highInclusive));
+    }
 
-        int size = 0;
-        for (ColumnDef columnDef : schema.getColumns()) {
-            switch (columnDef.getType()) {
-                case INT -> {
-                    buffer.getInt();
-                    size += 4;
-                }
-                case STRING -> {
-                    int len = buffer.getInt();
-                    buffer.position(buffer.position() + len);
-                    size += 4 + len;
-                }
-                case BOOLEAN -> {
-                    buffer.get();
-                    size += 1;
-                }
-                case FLOAT -> {
-                    buffer.getFloat();
-                    size += 4;
+    /**
+     * The version the snapshot sees of the row at a location, walking back through older
+     * versions, if the filter accepts it; otherwise null
+     */
+    private RowLayout readVisible(RowLocation location, Snapshot snapshot, RowPredicate filter, EncodedRow view,
+                                  boolean[] decode) throws IOException {
+        lock.readLock().lock();
+        try {
+            while (location != null) {
+                // A location read from an index before a page was cut off
+                if (location.getPageIndex() >= bufferPool.pageCount()) {
+                    return null;
                 }
-                case DOUBLE -> {
-                    buffer.getDouble();
-                    size += 8;
+                int pageIndex = location.getPageIndex();
+                int slot = location.getRowIndex();
+                Page page = bufferPool.fetchPage(pageIndex);
+                try {
+                    if (slot >= page.getRowCount() || page.isDeleted(slot)) {
+                        return null;
+                    }
+                    if (snapshot.sees(page.getXmin(slot), page.getXmax(slot))) {
+                        if (filter != null && !filter.test(view.reset(page.buffer(), page.getRowOffset(slot)))) {
+                            return null;
+                        }
+                        return readRow(page, slot, decode);
+                    }
+                    location = page.getPrevious(slot);
+                } finally {
+                    bufferPool.unpinPage(pageIndex, false);
                 }
             }
+            return null;
+        } finally {
+            lock.readLock().unlock();
         }
-
-        buffer.position(originalPosition);
-        return size;
     }
 
     /**
-     * Read all non-deleted rows from the table
+     * Read all non-deleted rows from the table.
+     * Holds the whole table in memory, scan() streams the same rows.
      */
     public List<RowLayout> readAll() throws IOException {
-        List<RowLayout> rows = new ArrayList<>();
+        return drain(scan());
+    }
 
-        for (int pageIndex = 0; pageIndex < diskManager.pageCount(); pageIndex++) {
-            Page pageData = diskManager.readPage(pageIndex);
-            ByteBuffer buffer = pageData.buffer();
-            buffer.position(PAGE_HEADER_SIZE); // Skip header
+    /**
+     * Cursor over all non-deleted rows in physical order
+     */
+    public RowCursor scan() {
+        return new ScanCursor(null, null, null);
+    }
 
-            for (int rowIndex = 0; rowIndex < pageData.getRowCount(); rowIndex++) {
-                byte deletedFlag = buffer.get();
-                RowLayout row = RowLayout.deserialize(buffer, schema);
+    /**
+     * Cursor over the rows the filter accepts. The filter runs on the encoded bytes
+     * during the page scan, rejected rows are never decoded, and of the accepted rows
+     * only the columns marked in decode are (all of them when decode is null).
+     * Rows are read as txn sees them, with its own changes, or as committed when it is null.
+     */
+    public RowCursor scan(Transaction txn, RowPredicate filter, boolean[] decode) {
+        return new ScanCursor(txn, filter, decode);
+    }
 
-                // Only include non-deleted rows
-                if (deletedFlag == 0) {
-                    rows.add(row);
-                }
+    /**
+     * Number of rows txn sees (the committed ones when it is null) that the filter accepts.
+     * Rows are tested by their record header and encoded bytes on the page, none is decoded;
+     * a large table is counted in parallel page ranges like a full scan.
+     */
+    public long count(Transaction txn, RowPredicate filter) throws IOException {
+        Snapshot snapshot = logManager.snapshot(txn);
+        openCursors.incrementAndGet();
+        try {
+            int pageCount = bufferPool.pageCount();
+            ForkJoinPool pool = parallelScanPool();
+            if (pool == null) {
+                return countPages(0, pageCount, snapshot, filter);
+            }
+            try {
+                return pool.invoke(new CountTask(0, pageCount, snapshot, filter));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
+        } finally {
+            openCursors.decrementAndGet();
+            snapshot.release();
         }
+    }
 
-        return rows;
+    private long countPages(int from, int to, Snapshot snapshot, RowPredicate filter) throws IOException {
+        EncodedRow view = filter == null ? null : new EncodedRow(schema);
+        long count = 0;
+        for (int pageIndex = from; pageIndex < to; pageIndex++) {
+            lock.readLock().lock();
+            try {
+                if (pageIndex >= bufferPool.pageCount()) break;
+                Page page = bufferPool.fetchPage(pageIndex);
+                try {
+                    for (int rowIndex = 0; rowIndex < page.getRowCount(); rowIndex++) {
+                        if (page.isDeleted(rowIndex) || !snapshot.sees(page.getXmin(rowIndex), page.getXmax(rowIndex))) {
+                            continue;
+                        }
+                        if (filter == null || filter.test(view.reset(page.buffer(), page.getRowOffset(rowIndex)))) {
+                            count++;
+                        }
+                    }
+                } finally {
+                    bufferPool.unpinPage(pageIndex, false);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return count;
     }
 
     /**
-     * Write a row to a page with deletion flag
+     * Count of pages [from, to), halved until a task has SCAN_TASK_PAGES pages or fewer
      */
-    private boolean writeRowToPage(Page page, byte[] rowsByte, boolean isDeleted) {
-        ByteBuffer buffer = page.buffer();
-        int offset = page.getOffset();
-        int remaining = 4096 - offset;
+    @SuppressWarnings("serial") // Tasks run in this process only, they are never serialized
+    private class CountTask extends RecursiveTask<Long> {
+        private final int from;
+        private final int to;
+        private final Snapshot snapshot;
+        private final RowPredicate filter;
 
-        // Need space for deletion flag (1 byte) + row data
-        if (rowsByte.length + 1 > remaining) {
-            return false;
+        CountTask(int from, int to, Snapshot snapshot, RowPredicate filter) {
+            this.from = from;
+            this.to = to;
+            this.snapshot = snapshot;
+            this.filter = filter;
         }
 
-        buffer.position(offset);
-        buffer.put((byte) (isDeleted ? 1 : 0)); // Write deletion flag
-        buffer.put(rowsByte);
-        page.setOffset(offset + rowsByte.length + 1);
-        page.setRowCount(page.getRowCount() + 1);
+        @Override
+        protected Long compute() {
+            if (to - from <= SCAN_TASK_PAGES) {
+                try {
+                    return countPages(from, to, snapshot, filter);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            CountTask left = new CountTask(from, middle, snapshot, filter);
+            left.fork();
+            long right = new CountTask(middle, to, snapshot, filter).compute();
+            return left.join() + right;
+        }
+    }
 
-        return true;
+    private static List<RowLayout> drain(RowCursor cursor) throws IOException {
+        List<RowLayout> rows = new ArrayList<>();
+        try (cursor) {
+            RowLayout row;
+            while ((row = cursor.next()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
     }
 
-    private int getRowSize(ByteBuffer buffer, int startPosition) {
-        int originalPosition = buffer.position();
-        buffer.position(startPosition);
+    /**
+     * Reads pages in physical order. A large table is read a chunk of pages at a time on
+     * the scan pool, each chunk split over fork/join tasks and put back together in page
+     * order; the next chunk is read while the caller goes through the current one.
+     * <p>
+     * Pages are unpinned before their rows are handed out, so an open cursor never holds a
+     * buffer frame. Only the versions its snapshot sees are returned, so rows written
+     * meanwhile do not show up.
+     */
+    private class ScanCursor implements RowCursor {
+        private final RowPredicate filter;
+        private final boolean[] decode;
+        private final EncodedRow view = new EncodedRow(schema);
+        private final Snapshot snapshot;
+        // Null when the pages are read one at a time on the caller's thread
+        private final ForkJoinPool pool;
+        private List<RowLayout> pageRows = new ArrayList<>();
+        private ForkJoinTask<List<RowLayout>> readAhead;
+        private int position;
+        private int nextPageIndex;
+        private volatile boolean closed;
 
-        int size = 0;
+        ScanCursor(Transaction txn, RowPredicate filter, boolean[] decode) {
+            this.filter = filter;
+            this.decode = decode;
+            this.snapshot = logManager.snapshot(txn);
+            this.pool = parallelScanPool();
+            openCursors.incrementAndGet();
+        }
 
-        for (ColumnDef column : schema.getColumns()) {
-            switch (column.getType()) {
-                case INT -> {
-                    buffer.getInt();
-                    size += 4;
-                }
-                case STRING -> {
-                    int len = buffer.getInt();
-                    buffer.position(buffer.position() + len);
-                    size += 4 + len;
+        @Override
+        public RowLayout next() throws IOException {
+            while (position == pageRows.size()) {
+                if (closed) return null;
+                if (pool == null) {
+                    if (nextPageIndex >= bufferPool.pageCount()) return null;
+                    pageRows.clear();
+                    readPage(nextPageIndex++, snapshot, filter, decode, view, pageRows);
+                } else if (!loadChunk()) {
+                    return null;
                 }
-                case BOOLEAN -> {
-                    buffer.get();
-                    size += 1;
+                position = 0;
+            }
+            return pageRows.get(position++);
+        }
+
+        private boolean loadChunk() throws IOException {
+            if (readAhead == null) readAhead = submitChunk();
+            if (readAhead == null) return false;
+            try {
+                pageRows = readAhead.join();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                readAhead = null;
+            }
+            readAhead = submitChunk();
+            return true;
+        }
+
+        private ForkJoinTask<List<RowLayout>> submitChunk() {
+            int pageCount = bufferPool.pageCount();
+            if (nextPageIndex >= pageCount) return null;
+            int to = Math.min(pageCount, nextPageIndex + pool.getParallelism() * SCAN_TASK_PAGES * 2);
+            ForkJoinTask<List<RowLayout>> task = pool.submit(new PageRangeTask(nextPageIndex, to));
+            nextPageIndex = to;
+            return task;
+        }
+
+        /**
+         * Rows of pages [from, to), halved until a task has SCAN_TASK_PAGES pages or fewer
+         */
+        @SuppressWarnings("serial")
+        private class PageRangeTask extends RecursiveTask<List<RowLayout>> {
+            private final int from;
+            private final int to;
+
+            PageRangeTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected List<RowLayout> compute() {
+                if (to - from <= SCAN_TASK_PAGES) {
+                    List<RowLayout> rows = new ArrayList<>();
+                    EncodedRow taskView = new EncodedRow(schema);
+                    try {
+                        for (int pageIndex = from; pageIndex < to && !closed; pageIndex++) {
+                            readPage(pageIndex, snapshot, filter, decode, taskView, rows);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return rows;
                 }
-                case FLOAT -> {
-                    buffer.getFloat();
-                    size += 4;
+                int middle = (from + to) >>> 1;
+                PageRangeTask left = new PageRangeTask(from, middle);
+                left.fork();
+                List<RowLayout> right = new PageRangeTask(middle, to).compute();
+                List<RowLayout> rows = left.join();
+                rows.addAll(right);
+                return rows;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                // No task may still read pages once the snapshot is released
+                if (readAhead != null) {
+                    readAhead.quietlyJoin();
+                    readAhead = null;
                 }
-                case DOUBLE -> {
-                    buffer.getDouble();
-                    size += 8;
+                openCursors.decrementAndGet();
+                snapshot.release();
+            }
+            pageRows = new ArrayList<>();
+            position = 0;
+        }
+    }
+
+    /**
+     * Pool for a full scan, null when the scan reads on the caller's thread: the table is
+     * small, or the buffer pool has too few frames for every scan thread to pin a page
+     */
+    private ForkJoinPool parallelScanPool() {
+        ForkJoinPool pool = ScanPool.get();
+        int parallelism = pool.getParallelism();
+        if (parallelism < 2 || bufferPool.getFrameCount() < 2 * parallelism
+                || bufferPool.pageCount() < PARALLEL_SCAN_MIN_PAGES) {
+            return null;
+        }
+        return pool;
+    }
+
+    /**
+     * Add the rows of a page that the snapshot sees and the filter accepts to rows
+     */
+    private void readPage(int pageIndex, Snapshot snapshot, RowPredicate filter, boolean[] decode,
+                          EncodedRow view, List<RowLayout> rows) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (pageIndex >= bufferPool.pageCount()) return;
+            Page page = bufferPool.fetchPage(pageIndex);
+            try {
+                for (int rowIndex = 0; rowIndex < page.getRowCount(); rowIndex++) {
+                    // Only include the versions this snapshot sees
+                    if (page.isDeleted(rowIndex) || !snapshot.sees(page.getXmin(rowIndex), page.getXmax(rowIndex))) {
+                        continue;
+                    }
+                    if (filter != null && !filter.test(view.reset(page.buffer(), page.getRowOffset(rowIndex)))) {
+                        continue;
+                    }
+                    rows.add(readRow(page, rowIndex, decode));
                 }
+            } finally {
+                bufferPool.unpinPage(pageIndex, false);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Opens the index entries a LocationCursor follows, once the cursor has its snapshot
+    private interface EntrySource {
+        Iterator<IndexEntry> open() throws IOException;
+    }
+
+    /**
+     * Reads the rows an index points at, one at a time, in the version the cursor's snapshot
+     * sees, skipping rows that version does not exist for and rows the filter rejects.
+     * <p>
+     * The index is walked a leaf at a time while writers carry on, so an entry can be stale
+     * by the time its row is read: the row was deleted or moved and another row took its slot.
+     * A row only counts when it still has the key of the entry that led to it.
+     */
+    private class LocationCursor implements RowCursor {
+        private final Iterator<IndexEntry> entries;
+        // Column of a secondary index, whose keys are (column value, primary key); -1 for the primary key index
+        private final int indexedColumn;
+        private final RowPredicate filter;
+        private final boolean[] decode;
+        private final EncodedRow view = new EncodedRow(schema);
+        private final Snapshot snapshot;
+        private boolean closed;
+
+        /**
+         * The snapshot is taken before the index is read: a leaf read earlier could hold
+         * the location of a version that was replaced by a commit the snapshot sees.
+         */
+        LocationCursor(Transaction txn, int indexedColumn, RowPredicate filter, boolean[] decode,
+                       EntrySource source) throws IOException {
+            this.indexedColumn = indexedColumn;
+            this.filter = filter;
+            // The key columns are always decoded, they are checked against the entry
+            if (decode != null) {
+                decode = decode.clone();
+                decode[schema.getPrimaryKeyIndex()] = true;
+                if (indexedColumn >= 0) decode[indexedColumn] = true;
+            }
+            this.decode = decode;
+            this.snapshot = logManager.snapshot(txn);
+            openCursors.incrementAndGet();
+            try {
+                this.entries = source.open();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public RowLayout next() throws IOException {
+            while (!closed && entries.hasNext()) {
+                IndexEntry entry = entries.next();
+                RowLayout row = readVisible(entry.getLocation(), snapshot, filter, view, decode);
+                if (row != null && matchesEntry(row, entry.getKey())) return row;
             }
+            return null;
         }
 
-        buffer.position(originalPosition);
-        return size;
+        private boolean matchesEntry(RowLayout row, Object key) {
+            if (indexedColumn < 0) {
+                return row.getPrimaryKey().equals(key);
+            }
+            Object[] parts = (Object[]) key;
+            return row.getValues(indexedColumn).equals(parts[0]) && row.getPrimaryKey().equals(parts[1]);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                openCursors.decrementAndGet();
+                snapshot.release();
+            }
+            closed = true;
+        }
+    }
+
+    /**
+     * Decode the row stored in a slot, skipping its record header
+     */
+    private RowLayout readRow(Page page, int slot) {
+        return readRow(page, slot, null);
+    }
+
+    private RowLayout readRow(Page page, int slot, boolean[] decode) {
+        RowLayout row = RowLayout.reusable(schema);
+        row.readFrom(page.buffer(), page.getRowOffset(slot), decode);
+        return row;
+    }
+
+    /**
+     * Write a row version of rowSize encoded bytes to a page, behind its record header,
+     * returns the slot or -1 if it does not fit. The row is encoded straight into the page.
+     */
+    private int writeRowToPage(Page page, RowLayout row, int rowSize, long xmin, long xmax, RowLocation previous) {
+        int slot = page.allocateRecord(Page.RECORD_HEADER_SIZE + rowSize);
+        if (slot == -1) return -1;
+
+        page.writeRecordHeader(slot, xmin, xmax, previous);
+        row.writeTo(page.buffer(), page.getRowOffset(slot));
+        return slot;
+    }
+
+    private static Path siblingPath(Path filePath, String extension) {
+        String fileName = filePath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return filePath.resolveSibling(baseName + extension);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public BPlusTree getPrimaryKeyIndex() {
+        return primaryKeyIndex;
+    }
+
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    public TableSchema getSchema() {
+        return schema;
+    }
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public LogManager getLogManager() {
+        return logManager;
     }
 
     public void close() throws IOException {
-        diskManager.close();
+        lock.writeLock().lock();
+        try {
+            bufferPool.close();
+            primaryKeyIndex.close();
+            freeSpaceMap.close();
+            for (SecondaryIndex index : secondaryIndexes.values()) {
+                index.close();
+            }
+            logManager.release();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
 }
@@ -0,0 +1,633 @@
+package com.simple_rdms.storage_engine.index;
+
+import com.simple_rdms.storage_engine.disk_manager.BufferPool;
+import com.simple_rdms.storage_engine.disk_manager.DiskManager;
+import com.simple_rdms.storage_engine.page.Page;
+import com.simple_rdms.storage_engine.page.RowLocation;
+import com.simple_rdms.storage_engine.wal.LogManager;
+import com.simple_rdms.storage_engine.wal.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+
+/**
+ * Persistent B+tree mapping unique keys to row locations.
+ * <p>
+ * Page 0 is a meta page holding the root page id, every other page is one node.
+ * After the page LSN:
+ * leaf:     [leaf=1:1][keyCount:4][nextLeaf:4] (key, pageIndex:4, rowIndex:4)*
+ * internal: [leaf=0:1][keyCount:4][unused:4]   child:4 (key, child:4)*
+ * Leaves are chained left to right so range scans never go back up the tree.
+ * Deletes only remove the entry from its leaf, nodes are not merged.
+ * Changes are made inside a transaction so they are logged and can be undone.
+ * <p>
+ * Keys of a fixed size (e.g. an INT primary key) sit at a fixed stride in the node, so
+ * lookups binary search them on the page bytes; no node is decoded and no key boxed.
+ */
+public class BPlusTree {
+    private static final int MAGIC = 0x42505452; // "BPTR"
+    private static final int META_PAGE = 0;
+    private static final int NODE_START = Page.LSN_SIZE;
+    private static final int NODE_HEADER_SIZE = 9;
+    private static final int NODE_CAPACITY = PAGE_SIZE - NODE_START;
+    private static final int NO_PAGE = -1;
+    // Keeps a split guaranteed to produce two nodes that fit in a page
+    private static final int MAX_KEY_SIZE = PAGE_SIZE / 4;
+
+    private final BufferPool bufferPool;
+    private final KeyCodec codec;
+    // Lookups and scans share the tree, a change has it to itself
+    private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+    // Size of every key, -1 when keys vary in size and nodes are decoded to be searched
+    private final int fixedKeySize;
+
+    public BPlusTree(DiskManager diskManager, KeyCodec codec, int bufferPoolFrames, LogManager logManager) throws IOException {
+        this.bufferPool = new BufferPool(diskManager, bufferPoolFrames, logManager);
+        logManager.register(bufferPool);
+        this.codec = codec;
+        this.fixedKeySize = codec.fixedSize();
+
+        if (bufferPool.pageCount() == 0) {
+            Transaction txn = logManager.begin();
+            try {
+                Page meta = txn.newPage(bufferPool);
+                Page root = txn.newPage(bufferPool);
+                writeNode(root, Node.leaf());
+                writeMeta(meta, 1);
+                txn.releaseWrite(bufferPool, 1);
+                txn.releaseWrite(bufferPool, META_PAGE);
+                txn.commit();
+            } catch (IOException | RuntimeException e) {
+                txn.abort();
+                throw e;
+            }
+        } else {
+            Page meta = bufferPool.fetchPage(META_PAGE);
+            int magic = meta.buffer().getInt(NODE_START);
+            bufferPool.unpinPage(META_PAGE, false);
+            if (magic != MAGIC) {
+                throw new IOException("Not an index file: " + diskManager.getFilePath());
+            }
+        }
+    }
+
+    /**
+     * True when the index was just created and holds no entries yet
+     */
+    public boolean isEmpty() throws IOException {
+        latch.readLock().lock();
+        try {
+            return !iterator(null, true, null, true).hasNext();
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    public RowLocation search(Object key) throws IOException {
+        latch.readLock().lock();
+        try {
+            int leafId = findLeaf(key);
+            if (fixedKeySize < 0) {
+                Node leaf = readNode(leafId);
+                int position = leaf.indexOf(key, codec);
+                return position >= 0 ? leaf.values.get(position) : null;
+            }
+
+            // Leaf entries are (key, pageIndex, rowIndex) right after the header
+            Page page = bufferPool.fetchPage(leafId);
+            try {
+                ByteBuffer buffer = page.buffer();
+                int first = NODE_START + NODE_HEADER_SIZE;
+                int stride = fixedKeySize + 8;
+                int keyCount = buffer.getInt(NODE_START + 1);
+                int position = lowerBound(buffer, first, stride, keyCount, key);
+                if (position == keyCount || codec.compareAt(buffer, first + position * stride, key) != 0) {
+                    return null;
+                }
+                int offset = first + position * stride + fixedKeySize;
+                return new RowLocation(buffer.getInt(offset), buffer.getInt(offset + 4));
+            } finally {
+                bufferPool.unpinPage(leafId, false);
+            }
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a new key, fails if the key is already present
+     */
+    public void insert(Transaction txn, Object key, RowLocation location) throws IOException {
+        latch.writeLock().lock();
+        try {
+            if (codec.size(key) > MAX_KEY_SIZE) {
+                throw new RuntimeException("Index key too large: " + codec.size(key) + " bytes");
+            }
+
+            int rootPageId = readRoot();
+            Split split = insertInto(txn, rootPageId, key, location);
+            if (split == null) return;
+
+            // Root was split, grow the tree by one level
+            Page page = txn.newPage(bufferPool);
+            int newRootId = bufferPool.pageCount() - 1;
+            Node root = Node.internal();
+            root.children.add(rootPageId);
+            root.keys.add(split.key);
+            root.children.add(split.rightPageId);
+            writeNode(page, root);
+            txn.releaseWrite(bufferPool, newRootId);
+
+            Page meta = txn.fetchForWrite(bufferPool, META_PAGE);
+            writeMeta(meta, newRootId);
+            txn.releaseWrite(bufferPool, META_PAGE);
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Insert many new keys. Entries are sorted first, then consecutive keys that land in
+     * the same leaf are added with a single page write; when a leaf is full the next key
+     * goes through insert, which splits it.
+     */
+    public void insertAll(Transaction txn, List<IndexEntry> entries) throws IOException {
+        latch.writeLock().lock();
+        try {
+            List<IndexEntry> sorted = new ArrayList<>(entries);
+            sorted.sort((a, b) -> codec.compare(a.getKey(), b.getKey()));
+
+            int i = 0;
+            while (i < sorted.size()) {
+                Object key = sorted.get(i).getKey();
+                if (codec.size(key) > MAX_KEY_SIZE) {
+                    throw new RuntimeException("Index key too large: " + codec.size(key) + " bytes");
+                }
+
+                // Find the leaf and the first separator above it, keys past that belong to another leaf
+                int leafId = readRoot();
+                Node node = readNode(leafId);
+                Object upperBound = null;
+                while (!node.leaf) {
+                    int childIndex = node.childIndex(key, codec);
+                    if (childIndex < node.keys.size()) {
+                        upperBound = node.keys.get(childIndex);
+                    }
+                    leafId = node.children.get(childIndex);
+                    node = readNode(leafId);
+                }
+
+                int added = 0;
+                Page page = txn.fetchForWrite(bufferPool, leafId);
+                try {
+                    Node leaf = decode(page);
+                    while (i < sorted.size()) {
+                        IndexEntry entry = sorted.get(i);
+                        if (upperBound != null && codec.compare(entry.getKey(), upperBound) >= 0) break;
+                        if (leaf.encodedSize(codec) + codec.size(entry.getKey()) + 8 > NODE_CAPACITY) break;
+
+                        int position = leaf.lowerBound(entry.getKey(), codec);
+                        if (position < leaf.keys.size() && codec.compare(leaf.keys.get(position), entry.getKey()) == 0) {
+                            throw new RuntimeException("Duplicate index key: " + entry.getKey());
+                        }
+                        leaf.keys.add(position, entry.getKey());
+                        leaf.values.add(position, entry.getLocation());
+                        added++;
+                        i++;
+                    }
+                    if (added > 0) {
+                        writeNode(page, leaf);
+                    }
+                } finally {
+                    txn.releaseWrite(bufferPool, leafId);
+                }
+
+                if (added == 0) {
+                    insert(txn, sorted.get(i).getKey(), sorted.get(i).getLocation());
+                    i++;
+                }
+            }
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Point an existing key at a new location
+     */
+    public boolean update(Transaction txn, Object key, RowLocation location) throws IOException {
+        latch.writeLock().lock();
+        try {
+            int leafId = findLeaf(key);
+            Page page = txn.fetchForWrite(bufferPool, leafId);
+            Node leaf = decode(page);
+            int position = leaf.indexOf(key, codec);
+            if (position >= 0) {
+                leaf.values.set(position, location);
+                writeNode(page, leaf);
+            }
+            txn.releaseWrite(bufferPool, leafId);
+            return position >= 0;
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    public boolean delete(Transaction txn, Object key) throws IOException {
+        latch.writeLock().lock();
+        try {
+            int leafId = findLeaf(key);
+            Page page = txn.fetchForWrite(bufferPool, leafId);
+            Node leaf = decode(page);
+            int position = leaf.indexOf(key, codec);
+            if (position >= 0) {
+                leaf.keys.remove(position);
+                leaf.values.remove(position);
+                writeNode(page, leaf);
+            }
+            txn.releaseWrite(bufferPool, leafId);
+            return position >= 0;
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Walk entries in key order between two bounds; a null bound is open
+     */
+    public Iterator<IndexEntry> iterator(Object low, boolean lowInclusive,
+                                         Object high, boolean highInclusive) throws IOException {
+        latch.readLock().lock();
+        try {
+            int leafId;
+            if (low == null) {
+                leafId = readRoot();
+                Node node = readNode(leafId);
+                while (!node.leaf) {
+                    leafId = node.children.get(0);
+                    node = readNode(leafId);
+                }
+            } else {
+                leafId = findLeaf(low);
+            }
+            return new RangeIterator(leafId, low, lowInclusive, high, highInclusive);
+        } finally {
+            latch.readLock().unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        latch.writeLock().lock();
+        try {
+            bufferPool.flushAll();
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void close() throws IOException {
+        latch.writeLock().lock();
+        try {
+            bufferPool.close();
+        } finally {
+            latch.writeLock().unlock();
+        }
+    }
+
+    // The root is read from the meta page every time so an aborted root split leaves nothing stale behind
+    private int readRoot() throws IOException {
+        Page meta = bufferPool.fetchPage(META_PAGE);
+        try {
+            return meta.buffer().getInt(NODE_START + 4);
+        } finally {
+            bufferPool.unpinPage(META_PAGE, false);
+        }
+    }
+
+    private int findLeaf(Object key) throws IOException {
+        int pageId = readRoot();
+        if (fixedKeySize < 0) {
+            Node node = readNode(pageId);
+            while (!node.leaf) {
+                pageId = node.children.get(node.childIndex(key, codec));
+                node = readNode(pageId);
+            }
+            return pageId;
+        }
+
+        // Internal entries are child:4 (key, child:4)* after the header, searched in place
+        int first = NODE_START + NODE_HEADER_SIZE + 4;
+        int stride = fixedKeySize + 4;
+        while (true) {
+            Page page = bufferPool.fetchPage(pageId);
+            int childId;
+            try {
+                ByteBuffer buffer = page.buffer();
+                if (buffer.get(NODE_START) == 1) return pageId;
+
+                int keyCount = buffer.getInt(NODE_START + 1);
+                int position = lowerBound(buffer, first, stride, keyCount, key);
+                // Keys equal to a separator live in the right subtree
+                if (position < keyCount && codec.compareAt(buffer, first + position * stride, key) == 0) {
+                    position++;
+                }
+                childId = position == 0
+                        ? buffer.getInt(first - 4)
+                        : buffer.getInt(first + (position - 1) * stride + fixedKeySize);
+            } finally {
+                bufferPool.unpinPage(pageId, false);
+            }
+            pageId = childId;
+        }
+    }
+
+    /**
+     * First of count fixed-size entries, stride bytes apart from first, whose key is >= key
+     */
+    private int lowerBound(ByteBuffer buffer, int first, int stride, int count, Object key) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codec.compareAt(buffer, first + mid * stride, key) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Insert below pageId, returning the separator and new right sibling when the node split
+     */
+    private Split insertInto(Transaction txn, int pageId, Object key, RowLocation location) throws IOException {
+        Node node = readNode(pageId);
+
+        if (node.leaf) {
+            int position = node.lowerBound(key, codec);
+            if (position < node.keys.size() && codec.compare(node.keys.get(position), key) == 0) {
+                throw new RuntimeException("Duplicate index key: " + key);
+            }
+            node.keys.add(position, key);
+            node.values.add(position, location);
+        } else {
+            int childIndex = node.childIndex(key, codec);
+            Split split = insertInto(txn, node.children.get(childIndex), key, location);
+            if (split == null) return null;
+            node.keys.add(childIndex, split.key);
+            node.children.add(childIndex + 1, split.rightPageId);
+        }
+
+        if (node.encodedSize(codec) <= NODE_CAPACITY) {
+            Page page = txn.fetchForWrite(bufferPool, pageId);
+            writeNode(page, node);
+            txn.releaseWrite(bufferPool, pageId);
+            return null;
+        }
+        return split(txn, pageId, node);
+    }
+
+    private Split split(Transaction txn, int pageId, Node node) throws IOException {
+        int middle = node.splitPoint(codec);
+        Node right;
+        Object separator;
+
+        Page rightPage = txn.newPage(bufferPool);
+        int rightId = bufferPool.pageCount() - 1;
+
+        if (node.leaf) {
+            right = Node.leaf();
+            right.keys.addAll(node.keys.subList(middle, node.keys.size()));
+            right.values.addAll(node.values.subList(middle, node.values.size()));
+            node.keys.subList(middle, node.keys.size()).clear();
+            node.values.subList(middle, node.values.size()).clear();
+            right.next = node.next;
+            node.next = rightId;
+            separator = right.keys.get(0);
+        } else {
+            // The middle key moves up instead of being copied
+            right = Node.internal();
+            separator = node.keys.get(middle);
+            right.keys.addAll(node.keys.subList(middle + 1, node.keys.size()));
+            right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+            node.keys.subList(middle, node.keys.size()).clear();
+            node.children.subList(middle + 1, node.children.size()).clear();
+        }
+
+        writeNode(rightPage, right);
+        txn.releaseWrite(bufferPool, rightId);
+
+        Page page = txn.fetchForWrite(bufferPool, pageId);
+        writeNode(page, node);
+        txn.releaseWrite(bufferPool, pageId);
+
+        return new Split(separator, rightId);
+    }
+
+    private Node readNode(int pageId) throws IOException {
+        Page page = bufferPool.fetchPage(pageId);
+        try {
+            return decode(page);
+        } finally {
+            bufferPool.unpinPage(pageId, false);
+        }
+    }
+
+    private Node decode(Page page) {
+        ByteBuffer buffer = page.buffer().duplicate();
+        buffer.position(NODE_START);
+        boolean leaf = buffer.get() == 1;
+        int keyCount = buffer.getInt();
+        int next = buffer.getInt();
+
+        Node node = leaf ? Node.leaf() : Node.internal();
+        node.next = next;
+        if (!leaf) {
+            node.children.add(buffer.getInt());
+        }
+        for (int i = 0; i < keyCount; i++) {
+            node.keys.add(codec.read(buffer));
+            if (leaf) {
+                node.values.add(new RowLocation(buffer.getInt(), buffer.getInt()));
+            } else {
+                node.children.add(buffer.getInt());
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(Page page, Node node) {
+        ByteBuffer buffer = page.buffer().duplicate();
+        buffer.position(NODE_START);
+        buffer.put((byte) (node.leaf ? 1 : 0));
+        buffer.putInt(node.keys.size());
+        buffer.putInt(node.next);
+        if (!node.leaf) {
+            buffer.putInt(node.children.get(0));
+        }
+        for (int i = 0; i < node.keys.size(); i++) {
+            codec.write(buffer, node.keys.get(i));
+            if (node.leaf) {
+                buffer.putInt(node.values.get(i).getPageIndex());
+                buffer.putInt(node.values.get(i).getRowIndex());
+            } else {
+                buffer.putInt(node.children.get(i + 1));
+            }
+        }
+    }
+
+    private void writeMeta(Page meta, int rootPageId) {
+        meta.buffer().putInt(NODE_START, MAGIC);
+        meta.buffer().putInt(NODE_START + 4, rootPageId);
+    }
+
+    private static class Split {
+        final Object key;
+        final int rightPageId;
+
+        Split(Object key, int rightPageId) {
+            this.key = key;
+            this.rightPageId = rightPageId;
+        }
+    }
+
+    private static class Node {
+        final boolean leaf;
+        final List<Object> keys = new ArrayList<>();
+        final List<RowLocation> values = new ArrayList<>();
+        final List<Integer> children = new ArrayList<>();
+        int next = NO_PAGE;
+
+        private Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        static Node leaf() {
+            return new Node(true);
+        }
+
+        static Node internal() {
+            return new Node(false);
+        }
+
+        // First position whose key is >= key
+        int lowerBound(Object key, KeyCodec codec) {
+            int low = 0, high = keys.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (codec.compare(keys.get(mid), key) < 0) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        int indexOf(Object key, KeyCodec codec) {
+            int position = lowerBound(key, codec);
+            return position < keys.size() && codec.compare(keys.get(position), key) == 0 ? position : -1;
+        }
+
+        // Keys equal to a separator live in the right subtree
+        int childIndex(Object key, KeyCodec codec) {
+            int position = lowerBound(key, codec);
+            if (position < keys.size() && codec.compare(keys.get(position), key) == 0) {
+                return position + 1;
+            }
+            return position;
+        }
+
+        // Split by bytes rather than by count so variable-length keys leave both halves in a page
+        int splitPoint(KeyCodec codec) {
+            int half = encodedSize(codec) / 2;
+            int size = NODE_HEADER_SIZE;
+            for (int i = 0; i < keys.size(); i++) {
+                size += codec.size(keys.get(i)) + (leaf ? 8 : 4);
+                if (size >= half) {
+                    return Math.max(1, Math.min(i, keys.size() - 1));
+                }
+            }
+            return keys.size() / 2;
+        }
+
+        int encodedSize(KeyCodec codec) {
+            int size = NODE_HEADER_SIZE + (leaf ? 0 : 4);
+            for (Object key : keys) {
+                size += codec.size(key) + (leaf ? 8 : 4);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Follows the leaf chain one node at a time, so no page stays pinned between calls
+     */
+    private class RangeIterator implements Iterator<IndexEntry> {
+        private final Object high;
+        private final boolean highInclusive;
+        private Node leaf;
+        private int position;
+        private IndexEntry nextEntry;
+
+        RangeIterator(int leafId, Object low, boolean lowInclusive, Object high, boolean highInclusive) throws IOException {
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.leaf = readNode(leafId);
+            if (low != null) {
+                position = leaf.lowerBound(low, codec);
+                if (!lowInclusive && position < leaf.keys.size() && codec.compare(leaf.keys.get(position), low) == 0) {
+                    position++;
+                }
+            }
+            advance();
+        }
+
+        private void advance() throws IOException {
+            nextEntry = null;
+            latch.readLock().lock();
+            try {
+                while (leaf != null && position >= leaf.keys.size()) {
+                    leaf = leaf.next == NO_PAGE ? null : readNode(leaf.next);
+                    position = 0;
+                }
+            } finally {
+                latch.readLock().unlock();
+            }
+            if (leaf == null) return;
+
+            Object key = leaf.keys.get(position);
+            if (high != null) {
+                int cmp = codec.compare(key, high);
+                if (cmp > 0 || (cmp == 0 && !highInclusive)) {
+                    leaf = null;
+                    return;
+                }
+            }
+            nextEntry = new IndexEntry(key, leaf.values.get(position));
+            position++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        @Override
+        public IndexEntry next() {
+            if (nextEntry == null) throw new NoSuchElementException();
+            IndexEntry current = nextEntry;
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return current;
+        }
+    }
+}
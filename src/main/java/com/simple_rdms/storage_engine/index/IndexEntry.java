@@ -0,0 +1,24 @@
+package com.simple_rdms.storage_engine.index;
+
+import com.simple_rdms.storage_engine.page.RowLocation;
+
+/**
+ * A key and the location of the row it points to
+ */
+public class IndexEntry {
+    private final Object key;
+    private final RowLocation location;
+
+    public IndexEntry(Object key, RowLocation location) {
+        this.key = key;
+        this.location = location;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+
+    public RowLocation getLocation() {
+        return location;
+    }
+}
@@ -0,0 +1,150 @@
+package com.simple_rdms.storage_engine.index;
+
+import com.simple_rdms.storage_engine.schema.ColumnType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes, decodes and orders the keys stored in a B+tree node.
+ * With a single type keys are plain values, with several types keys are Object[]
+ * compared column by column. A shorter array that matches the start of a longer one
+ * sorts before it, so a prefix can be used as a lower bound.
+ */
+public class KeyCodec {
+
+    private final ColumnType[] types;
+
+    public KeyCodec(ColumnType... types) {
+        if (types.length == 0) {
+            throw new IllegalArgumentException("A key needs at least one column");
+        }
+        this.types = types;
+    }
+
+    public ColumnType getType() {
+        return types[0];
+    }
+
+    /**
+     * Bytes every key takes when all keys are the same size (one INT, FLOAT, DOUBLE or
+     * BOOLEAN column), otherwise -1
+     */
+    public int fixedSize() {
+        if (types.length > 1) return -1;
+        return switch (types[0]) {
+            case INT, FLOAT -> 4;
+            case DOUBLE -> 8;
+            case BOOLEAN -> 1;
+            case STRING -> -1;
+        };
+    }
+
+    /**
+     * Compare the fixed-size key stored at offset with key, reading the primitive in place
+     */
+    public int compareAt(ByteBuffer buffer, int offset, Object key) {
+        return switch (types[0]) {
+            case INT -> Integer.compare(buffer.getInt(offset), (Integer) key);
+            case FLOAT -> Float.compare(buffer.getFloat(offset), (Float) key);
+            case DOUBLE -> Double.compare(buffer.getDouble(offset), (Double) key);
+            case BOOLEAN -> Boolean.compare(buffer.get(offset) == 1, (Boolean) key);
+            case STRING -> throw new IllegalStateException("STRING keys have no fixed size");
+        };
+    }
+
+    public int size(Object key) {
+        if (types.length == 1) {
+            return size(types[0], key);
+        }
+        Object[] parts = (Object[]) key;
+        int size = 0;
+        for (int i = 0; i < types.length; i++) {
+            size += size(types[i], parts[i]);
+        }
+        return size;
+    }
+
+    public void write(ByteBuffer buffer, Object key) {
+        if (types.length == 1) {
+            write(types[0], buffer, key);
+            return;
+        }
+        Object[] parts = (Object[]) key;
+        for (int i = 0; i < types.length; i++) {
+            write(types[i], buffer, parts[i]);
+        }
+    }
+
+    public Object read(ByteBuffer buffer) {
+        if (types.length == 1) {
+            return read(types[0], buffer);
+        }
+        Object[] parts = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            parts[i] = read(types[i], buffer);
+        }
+        return parts;
+    }
+
+    public int compare(Object a, Object b) {
+        if (types.length == 1) {
+            return compare(types[0], a, b);
+        }
+        Object[] left = (Object[]) a;
+        Object[] right = (Object[]) b;
+        int length = Math.min(left.length, right.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = compare(types[i], left[i], right[i]);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(left.length, right.length);
+    }
+
+    private static int size(ColumnType type, Object key) {
+        return switch (type) {
+            case INT, FLOAT -> 4;
+            case DOUBLE -> 8;
+            case BOOLEAN -> 1;
+            case STRING -> 4 + ((String) key).getBytes(StandardCharsets.UTF_8).length;
+        };
+    }
+
+    private static void write(ColumnType type, ByteBuffer buffer, Object key) {
+        switch (type) {
+            case INT -> buffer.putInt((Integer) key);
+            case FLOAT -> buffer.putFloat((Float) key);
+            case DOUBLE -> buffer.putDouble((Double) key);
+            case BOOLEAN -> buffer.put((byte) ((Boolean) key ? 1 : 0));
+            case STRING -> {
+                byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+    }
+
+    private static Object read(ColumnType type, ByteBuffer buffer) {
+        return switch (type) {
+            case INT -> buffer.getInt();
+            case FLOAT -> buffer.getFloat();
+            case DOUBLE -> buffer.getDouble();
+            case BOOLEAN -> buffer.get() == 1;
+            case STRING -> {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                yield new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    public static int compare(ColumnType type, Object a, Object b) {
+        return switch (type) {
+            case INT -> Integer.compare((Integer) a, (Integer) b);
+            case FLOAT -> Float.compare((Float) a, (Float) b);
+            case DOUBLE -> Double.compare((Double) a, (Double) b);
+            case BOOLEAN -> Boolean.compare((Boolean) a, (Boolean) b);
+            case STRING -> ((String) a).compareTo((String) b);
+        };
+    }
+}
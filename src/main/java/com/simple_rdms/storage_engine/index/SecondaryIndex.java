@@ -0,0 +1,152 @@
+package com.simple_rdms.storage_engine.index;
+
+import com.simple_rdms.storage_engine.disk_manager.BufferPool;
+import com.simple_rdms.storage_engine.disk_manager.DiskManager;
+import com.simple_rdms.storage_engine.page.RowLocation;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.wal.LogManager;
+import com.simple_rdms.storage_engine.wal.Transaction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Non-unique index on one column.
+ * Stored as a B+tree keyed by (column value, primary key), the primary key making
+ * every entry unique while rows sharing a value stay next to each other.
+ */
+public class SecondaryIndex {
+    private final String name;
+    private final int columnIndex;
+    private final ColumnType columnType;
+    private final Path filePath;
+    private final BPlusTree tree;
+
+    public SecondaryIndex(String name, int columnIndex, ColumnType columnType, ColumnType primaryKeyType,
+                          DiskManager diskManager, int bufferPoolFrames, LogManager logManager) throws IOException {
+        this.name = name;
+        this.columnIndex = columnIndex;
+        this.columnType = columnType;
+        this.filePath = diskManager.getFilePath();
+        this.tree = new BPlusTree(diskManager, new KeyCodec(columnType, primaryKeyType), bufferPoolFrames, logManager);
+    }
+
+    public void insert(Transaction txn, Object value, Object primaryKey, RowLocation location) throws IOException {
+        tree.insert(txn, new Object[]{value, primaryKey}, location);
+    }
+
+    /**
+     * Add entries for many rows at once, the lists are parallel
+     */
+    public void insertAll(Transaction txn, List<Object> values, List<Object> primaryKeys,
+                          List<RowLocation> locations) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            entries.add(new IndexEntry(new Object[]{values.get(i), primaryKeys.get(i)}, locations.get(i)));
+        }
+        tree.insertAll(txn, entries);
+    }
+
+    /**
+     * Point the entry of a row that moved at its new location
+     */
+    public boolean update(Transaction txn, Object value, Object primaryKey, RowLocation location) throws IOException {
+        return tree.update(txn, new Object[]{value, primaryKey}, location);
+    }
+
+    public boolean delete(Transaction txn, Object value, Object primaryKey) throws IOException {
+        return tree.delete(txn, new Object[]{value, primaryKey});
+    }
+
+    /**
+     * Location the entry of one row points at, or null if it has none
+     */
+    public RowLocation search(Object value, Object primaryKey) throws IOException {
+        return tree.search(new Object[]{value, primaryKey});
+    }
+
+    public List<RowLocation> find(Object value) throws IOException {
+        return findRange(value, true, value, true);
+    }
+
+    /**
+     * Locations of rows whose value lies between the bounds; a null bound is open
+     */
+    public List<RowLocation> findRange(Object low, boolean lowInclusive,
+                                       Object high, boolean highInclusive) throws IOException {
+        List<RowLocation> locations = new ArrayList<>();
+        Iterator<IndexEntry> iterator = iterator(low, lowInclusive, high, highInclusive);
+        while (iterator.hasNext()) {
+            locations.add(iterator.next().getLocation());
+        }
+        return locations;
+    }
+
+    /**
+     * Same entries as findRange, read from the tree a leaf at a time.
+     * Keys are (value, primary key) pairs.
+     */
+    public Iterator<IndexEntry> iterator(Object low, boolean lowInclusive,
+                                          Object high, boolean highInclusive) throws IOException {
+        // A one element prefix sorts before every (value, pk) entry with that value
+        Iterator<IndexEntry> entries = tree.iterator(low == null ? null : new Object[]{low}, true, null, true);
+
+        return new Iterator<>() {
+            private IndexEntry nextEntry = advance();
+
+            private IndexEntry advance() {
+                while (entries.hasNext()) {
+                    IndexEntry entry = entries.next();
+                    Object value = ((Object[]) entry.getKey())[0];
+
+                    if (low != null && !lowInclusive && KeyCodec.compare(columnType, value, low) == 0) {
+                        continue;
+                    }
+                    if (high != null) {
+                        int cmp = KeyCodec.compare(columnType, value, high);
+                        if (cmp > 0 || (cmp == 0 && !highInclusive)) return null;
+                    }
+                    return entry;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextEntry != null;
+            }
+
+            @Override
+            public IndexEntry next() {
+                if (nextEntry == null) throw new NoSuchElementException();
+                IndexEntry current = nextEntry;
+                nextEntry = advance();
+                return current;
+            }
+        };
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    public BufferPool getBufferPool() {
+        return tree.getBufferPool();
+    }
+
+    public void close() throws IOException {
+        tree.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.simple_rdms.storage_engine.page;
+
+import com.simple_rdms.storage_engine.schema.TableSchema;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only view of one row in the format RowLayout.serialize writes, straight on the page bytes.
+ * <p>
+ * Columns are decoded one at a time as a predicate asks for them; nothing is copied and no
+ * String is built. Column offsets are found on first use, skipping string lengths, and kept
+ * until the view is moved to the next row, so one view serves a whole scan.
+ */
+public class EncodedRow {
+    private final TableSchema schema;
+    // offsets[i] is where column i starts, valid for i <= resolved
+    private final int[] offsets;
+    private int resolved;
+    private ByteBuffer buffer;
+
+    public EncodedRow(TableSchema schema) {
+        this.schema = schema;
+        this.offsets = new int[schema.getColumns().size() + 1];
+    }
+
+    /**
+     * Point the view at the row whose first column starts at offset
+     */
+    public EncodedRow reset(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offsets[0] = offset;
+        this.resolved = 0;
+        return this;
+    }
+
+    public int getInt(int column) {
+        return buffer.getInt(offsetOf(column));
+    }
+
+    public float getFloat(int column) {
+        return buffer.getFloat(offsetOf(column));
+    }
+
+    public double getDouble(int column) {
+        return buffer.getDouble(offsetOf(column));
+    }
+
+    public boolean getBoolean(int column) {
+        return buffer.get(offsetOf(column)) == 1;
+    }
+
+    /**
+     * Compare a STRING column with UTF-8 bytes, in the order String.compareTo gives
+     */
+    public int compareString(int column, byte[] utf8) {
+        int offset = offsetOf(column);
+        int length = buffer.getInt(offset);
+        return compareUtf8(buffer, offset + 4, length, utf8);
+    }
+
+    public boolean matches(int column, LikePattern pattern) {
+        int offset = offsetOf(column);
+        int length = buffer.getInt(offset);
+        return pattern.matches(buffer, offset + 4, offset + 4 + length);
+    }
+
+    private int offsetOf(int column) {
+        while (resolved < column) {
+            int offset = offsets[resolved];
+            offsets[resolved + 1] = offset + switch (schema.getColumns().get(resolved).getType()) {
+                case INT, FLOAT -> 4;
+                case DOUBLE -> 8;
+                case BOOLEAN -> 1;
+                case STRING -> 4 + buffer.getInt(offset);
+            };
+            resolved++;
+        }
+        return offsets[column];
+    }
+
+    /**
+     * UTF-8 bytes sort in code point order, String.compareTo in UTF-16 order. The two only
+     * disagree where a character above U+FFFF (lead byte F0-F4) meets one in U+E000-U+FFFF
+     * (lead byte EE-EF): its surrogates put the first one lower in UTF-16.
+     */
+    static int compareUtf8(ByteBuffer buffer, int start, int length, byte[] other) {
+        int common = Math.min(length, other.length);
+        for (int i = 0; i < common; i++) {
+            int a = Byte.toUnsignedInt(buffer.get(start + i));
+            int b = Byte.toUnsignedInt(other[i]);
+            if (a == b) continue;
+            if (a >= 0xF0 && (b == 0xEE || b == 0xEF)) return -1;
+            if (b >= 0xF0 && (a == 0xEE || a == 0xEF)) return 1;
+            return a - b;
+        }
+        return Integer.compare(length, other.length);
+    }
+}
@@ -0,0 +1,83 @@
+package com.simple_rdms.storage_engine.page;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * SQL LIKE pattern matched against UTF-8 bytes: % is any run of characters,
+ * _ exactly one character. There is no escape character.
+ */
+public class LikePattern {
+    private static final int ANY_CHARACTER = -1;
+    private static final int ANY_SEQUENCE = -2;
+
+    // Pattern bytes, or one of the wildcards above
+    private final int[] elements;
+
+    public LikePattern(String pattern) {
+        byte[] bytes = pattern.getBytes(StandardCharsets.UTF_8);
+        int[] elements = new int[bytes.length];
+        int count = 0;
+        for (byte b : bytes) {
+            if (b == '%') {
+                // Consecutive % match the same as one
+                if (count == 0 || elements[count - 1] != ANY_SEQUENCE) elements[count++] = ANY_SEQUENCE;
+            } else if (b == '_') {
+                elements[count++] = ANY_CHARACTER;
+            } else {
+                elements[count++] = Byte.toUnsignedInt(b);
+            }
+        }
+        this.elements = Arrays.copyOf(elements, count);
+    }
+
+    /**
+     * Match the bytes from start up to end. Greedy with backtracking to the last %,
+     * which advances one whole character at a time so _ never splits a character.
+     */
+    public boolean matches(ByteBuffer buffer, int start, int end) {
+        int position = start;
+        int element = 0;
+        int starElement = -1;
+        int starPosition = 0;
+
+        while (position < end) {
+            if (element < elements.length && elements[element] == ANY_CHARACTER) {
+                position += characterLength(buffer.get(position));
+                element++;
+            } else if (element < elements.length && elements[element] == Byte.toUnsignedInt(buffer.get(position))) {
+                position++;
+                element++;
+            } else if (element < elements.length && elements[element] == ANY_SEQUENCE) {
+                starElement = element++;
+                starPosition = position;
+            } else if (starElement >= 0) {
+                element = starElement + 1;
+                starPosition += characterLength(buffer.get(starPosition));
+                position = starPosition;
+            } else {
+                return false;
+            }
+        }
+
+        while (element < elements.length && elements[element] == ANY_SEQUENCE) {
+            element++;
+        }
+        return element == elements.length && position == end;
+    }
+
+    public boolean matches(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return matches(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    // Bytes in the UTF-8 sequence a lead byte starts
+    private static int characterLength(byte lead) {
+        int b = Byte.toUnsignedInt(lead);
+        if (b < 0x80) return 1;
+        if (b < 0xE0) return 2;
+        if (b < 0xF0) return 3;
+        return 4;
+    }
+}
@@ -6,39 +6,257 @@ import static com.simple_rdms.utils.Constants.PAGE_SIZE;
 
 /**
  * Smallest unit of disk I/O
+ * <p>
+ * Every page starts with the LSN of the last log record applied to it.
+ * Slotted layout:
+ * [pageLSN:8][slotCount:4][freeStart:4][records growing up ->   free   <- slot directory growing down]
+ * Each slot is [offset:2][length:2] and a record is
+ * [deleted flag:1][xmin:8][xmax:8][previous page:4][previous slot:4][row bytes].
+ * A record is one version of a row: xmin is the transaction that wrote it, xmax the one
+ * that deleted or replaced it (0 while it is the current version), and previous points at
+ * the version it replaced (page -1 when there is none).
+ * A row is addressed by its slot number, so records can move inside the page
+ * without changing their RowLocation.
  */
 public class Page {
-    private static final int HEADER_SIZE = 8;
+    public static final int LSN_SIZE = 8;
+    public static final int HEADER_SIZE = 16;
+    public static final int SLOT_SIZE = 4;
+    public static final int RECORD_HEADER_SIZE = 25;
     private final ByteBuffer buffer;
 
     public Page() {
         this.buffer = ByteBuffer.allocate(PAGE_SIZE); //Allocates a fixed memory block for the page
+        buffer.putLong(0L);
         buffer.putInt(0);
         buffer.putInt(HEADER_SIZE);
     }
 
+    /**
+     * Page over existing bytes, e.g. a read-only view on a memory-mapped file
+     */
+    public Page(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public boolean isReadOnly() {
+        return buffer.isReadOnly();
+    }
+
+    /**
+     * Private, writable copy of this page
+     */
+    public Page copy() {
+        Page copy = new Page();
+        copy.buffer.put(0, buffer, 0, PAGE_SIZE);
+        return copy;
+    }
+
     public ByteBuffer buffer() {
         return buffer;
     }
 
+    //LSN of the newest log record whose change is in this page
+    public long getLsn() {
+        return buffer.getLong(0);
+    }
+
+    public void setLsn(long lsn) {
+        buffer.putLong(0, lsn);
+    }
+
+    //Number of slots, including slots of deleted rows
     public int getRowCount() {
-        return buffer.getInt(0); //0-> get row count
+        return buffer.getInt(8); //8-> get row count
     }
 
     public void setRowCount(int count) {
-        buffer.putInt(0, count);
+        buffer.putInt(8, count);
     }
 
-    //Offset is the starting and ending point in our byte data.
+    //Offset is where the next record will be written.
     public int getOffset() {
-        return buffer.getInt(4); //4->Get offset
+        return buffer.getInt(12); //12->Get offset
     }
 
     public void setOffset(int offset) {
-        buffer.putInt(4, offset);
+        buffer.putInt(12, offset);
     }
 
+    //Backing array, only writable pages have one
     public byte[] data() {
         return buffer.array();
     }
+
+    /**
+     * Contiguous bytes between the last record and the slot directory
+     */
+    public int getFreeSpace() {
+        return slotPosition(getRowCount()) + SLOT_SIZE - getOffset();
+    }
+
+    /**
+     * Store a record at the end of the record area, reusing an empty slot if there is one.
+     * Returns the slot number, or -1 when the page has no contiguous room.
+     */
+    public int insertRecord(byte[] record) {
+        int slot = allocateRecord(record.length);
+        if (slot != -1) {
+            buffer.put(getRecordOffset(slot), record);
+        }
+        return slot;
+    }
+
+    /**
+     * Reserve room for a record of length bytes that the caller writes in place at
+     * getRecordOffset(slot). Returns the slot number, or -1 when the page has no contiguous room.
+     */
+    public int allocateRecord(int length) {
+        int slot = findEmptySlot();
+        boolean newSlot = slot == -1;
+        if (length + (newSlot ? SLOT_SIZE : 0) > getFreeSpace()) {
+            return -1;
+        }
+
+        if (newSlot) {
+            slot = getRowCount();
+            setRowCount(slot + 1);
+        }
+
+        int offset = getOffset();
+        setSlot(slot, offset, length);
+        setOffset(offset + length);
+        return slot;
+    }
+
+    //Slots emptied by compaction are handed out again before growing the directory
+    private int findEmptySlot() {
+        for (int slot = 0; slot < getRowCount(); slot++) {
+            if (getRecordLength(slot) == 0) return slot;
+        }
+        return -1;
+    }
+
+    public int getRecordOffset(int slot) {
+        return Short.toUnsignedInt(buffer.getShort(slotPosition(slot)));
+    }
+
+    /**
+     * Where the row bytes of a record start, just past its header
+     */
+    public int getRowOffset(int slot) {
+        return getRecordOffset(slot) + RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Fill in the header of a record allocateRecord reserved
+     */
+    public void writeRecordHeader(int slot, long xmin, long xmax, RowLocation previous) {
+        int offset = getRecordOffset(slot);
+        buffer.put(offset, (byte) 0);
+        buffer.putLong(offset + 1, xmin);
+        buffer.putLong(offset + 9, xmax);
+        setPrevious(slot, previous);
+    }
+
+    public long getXmin(int slot) {
+        return buffer.getLong(getRecordOffset(slot) + 1);
+    }
+
+    public long getXmax(int slot) {
+        return buffer.getLong(getRecordOffset(slot) + 9);
+    }
+
+    public void setXmax(int slot, long txnId) {
+        buffer.putLong(getRecordOffset(slot) + 9, txnId);
+    }
+
+    /**
+     * The version this record replaced, or null
+     */
+    public RowLocation getPrevious(int slot) {
+        int offset = getRecordOffset(slot);
+        int pageIndex = buffer.getInt(offset + 17);
+        return pageIndex < 0 ? null : new RowLocation(pageIndex, buffer.getInt(offset + 21));
+    }
+
+    public void setPrevious(int slot, RowLocation previous) {
+        int offset = getRecordOffset(slot);
+        buffer.putInt(offset + 17, previous == null ? -1 : previous.getPageIndex());
+        buffer.putInt(offset + 21, previous == null ? -1 : previous.getRowIndex());
+    }
+
+    public int getRecordLength(int slot) {
+        return Short.toUnsignedInt(buffer.getShort(slotPosition(slot) + 2));
+    }
+
+    /**
+     * A slot is deleted when its tombstone flag is set or compaction already dropped its record
+     */
+    public boolean isDeleted(int slot) {
+        return getRecordLength(slot) == 0 || buffer.get(getRecordOffset(slot)) == 1;
+    }
+
+    public void markDeleted(int slot) {
+        buffer.put(getRecordOffset(slot), (byte) 1);
+    }
+
+    /**
+     * True while some slot still holds a row that is not deleted
+     */
+    public boolean hasLiveRecords() {
+        for (int slot = 0; slot < getRowCount(); slot++) {
+            if (!isDeleted(slot)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Bytes held by tombstoned records that compaction would give back
+     */
+    public int getDeadSpace() {
+        int dead = 0;
+        for (int slot = 0; slot < getRowCount(); slot++) {
+            if (getRecordLength(slot) > 0 && isDeleted(slot)) {
+                dead += getRecordLength(slot);
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * Slide live records together so all free space is contiguous.
+     * Tombstoned records are dropped and their slots left empty; slot numbers never change.
+     */
+    public void compact() {
+        byte[] copy = buffer.array().clone();
+        int writeOffset = HEADER_SIZE;
+
+        for (int slot = 0; slot < getRowCount(); slot++) {
+            int length = getRecordLength(slot);
+            if (length == 0) continue;
+
+            int offset = getRecordOffset(slot);
+            if (copy[offset] == 1) {
+                setSlot(slot, 0, 0);
+                continue;
+            }
+
+            buffer.put(writeOffset, copy, offset, length);
+            setSlot(slot, writeOffset, length);
+            writeOffset += length;
+        }
+
+        setOffset(writeOffset);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        int position = slotPosition(slot);
+        buffer.putShort(position, (short) offset);
+        buffer.putShort(position + 2, (short) length);
+    }
+
+    private static int slotPosition(int slot) {
+        return PAGE_SIZE - (slot + 1) * SLOT_SIZE;
+    }
 }
@@ -1,10 +1,9 @@
 package com.simple_rdms.storage_engine.page;
 
 import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
 import com.simple_rdms.storage_engine.schema.TableSchema;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
@@ -22,36 +21,71 @@ public class RowLayout {
         this.schema = schema;
     }
 
+    /**
+     * Empty row to decode into with readFrom, one object reused for a whole scan
+     */
+    public static RowLayout reusable(TableSchema schema) {
+        return new RowLayout(schema, new Object[schema.getColumns().size()]);
+    }
+
     //Convert row data to binary format
     public byte[] serialize() {
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(); //Growable byte buffer since we do not know the row size in advance.
-
-            List<ColumnDef> columns = schema.getColumns();
-            for (int i = 0; i < values.length; i++) {
-                ColumnDef column = columns.get(i); //Each value is serialized according to column type
-                switch (column.getType()) {
-                    case INT ->
-                            outputStream.write(ByteBuffer.allocate(4).putInt((Integer) values[i]).array()); //int is 4 bytes
-                    case STRING -> {
-                        byte[] stringByte = ((String) values[i]).getBytes(StandardCharsets.UTF_8);
-
-                        //[4-byte length][actual string bytes]
-                        //Strings are variable length, so we have to get length to know where the next column begins
-                        outputStream.write(ByteBuffer.allocate(4).putInt(stringByte.length).array());
-                        outputStream.write(stringByte);
-                    }
-                    case BOOLEAN -> outputStream.write((Boolean) values[i] ? 1 : 0); //0 and 1
-                    case FLOAT -> outputStream.write(ByteBuffer.allocate(4).putFloat((Float) values[i]).array());
-                    case DOUBLE ->
-                            outputStream.write(ByteBuffer.allocate(8).putDouble((Double) values[i]).array()); //*bytes because of high precision
+        byte[] bytes = new byte[encodedSize()];
+        writeTo(ByteBuffer.wrap(bytes), 0);
+        return bytes;
+    }
+
+    /**
+     * Number of bytes serialize produces, known before anything is written
+     */
+    public int encodedSize() {
+        int size = 0;
+        List<ColumnDef> columns = schema.getColumns();
+        for (int i = 0; i < values.length; i++) {
+            size += switch (columns.get(i).getType()) {
+                case INT, FLOAT -> 4; //int and float are 4 bytes
+                case DOUBLE -> 8; //8 bytes because of high precision
+                case BOOLEAN -> 1; //0 and 1
+                //[4-byte length][actual string bytes]
+                case STRING -> 4 + utf8Length((String) values[i]);
+            };
+        }
+        return size;
+    }
+
+    /**
+     * Write the row in the serialize format straight into buffer at offset, e.g. a page.
+     * Each value is put with an absolute write, no temporary buffers.
+     * Returns the offset just past the row.
+     */
+    public int writeTo(ByteBuffer buffer, int offset) {
+        List<ColumnDef> columns = schema.getColumns();
+        for (int i = 0; i < values.length; i++) {
+            ColumnDef column = columns.get(i); //Each value is serialized according to column type
+            switch (column.getType()) {
+                case INT -> {
+                    buffer.putInt(offset, (Integer) values[i]);
+                    offset += 4;
+                }
+                case STRING -> {
+                    //Strings are variable length, so we store the length to know where the next column begins.
+                    //The bytes go in first and the length is filled in behind them.
+                    int end = putUtf8(buffer, offset + 4, (String) values[i]);
+                    buffer.putInt(offset, end - offset - 4);
+                    offset = end;
+                }
+                case BOOLEAN -> buffer.put(offset++, (byte) ((Boolean) values[i] ? 1 : 0));
+                case FLOAT -> {
+                    buffer.putFloat(offset, (Float) values[i]);
+                    offset += 4;
+                }
+                case DOUBLE -> {
+                    buffer.putDouble(offset, (Double) values[i]);
+                    offset += 8;
                 }
             }
-
-            return outputStream.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        return offset;
     }
 
     /*
@@ -59,27 +93,128 @@ public class RowLayout {
      *
      */
     public static RowLayout deserialize(ByteBuffer buffer, TableSchema schema) {
-        Object[] values = new Object[schema.getColumns().size()]; //Value container for the columns we have
+        return deserialize(buffer, schema, null);
+    }
+
+    /*
+     * Bytes to java objects, only for the columns marked in decode (all of them when null).
+     * The other columns are stepped over by their size or length prefix and stay null,
+     * so no String is allocated for a column nobody reads.
+     */
+    public static RowLayout deserialize(ByteBuffer buffer, TableSchema schema, boolean[] decode) {
+        RowLayout row = reusable(schema);
+        buffer.position(row.readFrom(buffer, buffer.position(), decode));
+        return row;
+    }
+
+    /**
+     * Decode the row at offset into this object, replacing its values. Reading from absolute
+     * offsets leaves the buffer untouched, so a page's buffer is used without a duplicate.
+     * Returns the offset just past the row.
+     */
+    public int readFrom(ByteBuffer buffer, int offset, boolean[] decode) {
+        List<ColumnDef> columns = schema.getColumns();
 
         //Loop over the columns to decode
         for (int i = 0; i < values.length; i++) {
-            ColumnDef column = schema.getColumns().get(i);
+            ColumnType type = columns.get(i).getType();
+
+            if (decode != null && !decode[i]) {
+                values[i] = null;
+                offset += switch (type) {
+                    case INT, FLOAT -> 4;
+                    case DOUBLE -> 8;
+                    case BOOLEAN -> 1;
+                    case STRING -> 4 + buffer.getInt(offset); //Length prefix and the bytes behind it
+                };
+                continue;
+            }
 
-            switch (column.getType()) {
-                case INT -> values[i] = buffer.getInt();
+            switch (type) {
+                case INT -> {
+                    values[i] = buffer.getInt(offset);
+                    offset += 4;
+                }
                 case STRING -> {
-                    int len = buffer.getInt(); //Read 4 byte length
-                    byte[] stringBytes = new byte[len]; //Allocate exact byte array.
-                    buffer.get(stringBytes);
-                    values[i] = new String(stringBytes, StandardCharsets.UTF_8); //Decode utf-8
+                    int len = buffer.getInt(offset); //Read 4 byte length
+                    values[i] = getUtf8(buffer, offset + 4, len); //Decode utf-8
+                    offset += 4 + len;
+                }
+                case BOOLEAN -> values[i] = buffer.get(offset++) == 1; //Reads 1byte
+                case FLOAT -> {
+                    values[i] = buffer.getFloat(offset); //Read 4
+                    offset += 4;
+                }
+                case DOUBLE -> {
+                    values[i] = buffer.getDouble(offset); //Read 8
+                    offset += 8;
                 }
-                case BOOLEAN -> values[i] = buffer.get() == 1; //Reads 1byte
-                case FLOAT -> values[i] = buffer.getFloat(); //Read 4
-                case DOUBLE -> values[i] = buffer.getDouble(); //Read 8
             }
         }
+        return offset;
+    }
 
-        return new RowLayout(schema, values);
+    /**
+     * Bytes String.getBytes(UTF_8) would produce, counted without producing them
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1; //Unpaired surrogate, encoded as '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode like String.getBytes(UTF_8), straight into the buffer. Returns the offset past the bytes.
+     */
+    private static int putUtf8(ByteBuffer buffer, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put(offset++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(offset++, (byte) (0xC0 | (c >> 6)));
+                buffer.put(offset++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put(offset++, (byte) (0xF0 | (codePoint >> 18)));
+                buffer.put(offset++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put(offset++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put(offset++, (byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(offset++, (byte) '?');
+            } else {
+                buffer.put(offset++, (byte) (0xE0 | (c >> 12)));
+                buffer.put(offset++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(offset++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return offset;
+    }
+
+    //Heap pages are decoded in place, a read-only mapped page has no array and is copied out first
+    private static String getUtf8(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] stringBytes = new byte[length]; //Allocate exact byte array.
+        buffer.get(offset, stringBytes);
+        return new String(stringBytes, StandardCharsets.UTF_8);
     }
 
     public Object getValues(int columnIndex) {
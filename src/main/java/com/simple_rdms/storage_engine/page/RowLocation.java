@@ -16,4 +16,20 @@ public class RowLocation {
     public int getRowIndex() {
         return rowIndex;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RowLocation other)) return false;
+        return pageIndex == other.pageIndex && rowIndex == other.rowIndex;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * pageIndex + rowIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + pageIndex + ", " + rowIndex + ")";
+    }
 }
@@ -4,17 +4,19 @@ public class TableStats {
     public final int totalRows;
     public final int activeRows;
     public final int deletedRows;
+    public final int pages;
 
-    public TableStats(int totalRows, int activeRows, int deletedRows) {
+    public TableStats(int totalRows, int activeRows, int deletedRows, int pages) {
         this.totalRows = totalRows;
         this.activeRows = activeRows;
         this.deletedRows = deletedRows;
+        this.pages = pages;
     }
 
     @Override
     public String toString() {
-        return String.format("Total: %d, Active: %d, Deleted: %d (%.1f%% fragmentation)",
+        return String.format("Total: %d, Active: %d, Deleted: %d (%.1f%% fragmentation), Pages: %d",
                 totalRows, activeRows, deletedRows,
-                totalRows > 0 ? (deletedRows * 100.0 / totalRows) : 0);
+                totalRows > 0 ? (deletedRows * 100.0 / totalRows) : 0, pages);
     }
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.index.KeyCodec;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+import com.simple_rdms.storage_engine.sql_parser.Statement.Aggregate;
+import com.simple_rdms.storage_engine.sql_parser.Statement.SelectItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GROUP BY and the aggregate functions of a SELECT, run as a hash aggregation: one pass
+ * over the matching rows keeps a running value per aggregate and group, so memory grows
+ * with the number of groups and not with the number of rows.
+ * <p>
+ * A result row holds the group's column values followed by its aggregate values;
+ * output says which of them each select item prints.
+ */
+class Aggregation {
+    final int[] groupColumns;
+    // Each aggregate once, however often the select list and ORDER BY mention it
+    private final List<Aggregate> functions = new ArrayList<>();
+    // Column each aggregate reads, -1 for COUNT, which needs none as columns cannot hold NULL
+    private final List<Integer> columns = new ArrayList<>();
+    final int[] output;
+    // Null when there is no ORDER BY
+    final Comparator<Object[]> order;
+
+    private final TableSchema schema;
+
+    Aggregation(Statement.Select select, QueryPlan plan, TableSchema schema) {
+        this.schema = schema;
+        if (select.items().isEmpty()) {
+            throw new RuntimeException("SELECT * cannot be aggregated, list the columns");
+        }
+
+        groupColumns = new int[select.groupBy().size()];
+        for (int i = 0; i < groupColumns.length; i++) {
+            groupColumns[i] = plan.columnIndex(select.groupBy().get(i));
+        }
+
+        output = new int[select.items().size()];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = resultIndex(select.items().get(i), plan);
+        }
+
+        Comparator<Object[]> comparator = null;
+        for (Statement.OrderBy key : select.orderBy()) {
+            int index = resultIndex(key.item(), plan);
+            Comparator<Object[]> next = Comparator.comparing(result -> result[index], this::compareValues);
+            if (key.descending()) next = next.reversed();
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        order = comparator;
+    }
+
+    /**
+     * Where a select or ORDER BY item is in a result row
+     */
+    private int resultIndex(SelectItem item, QueryPlan plan) {
+        // Only COUNT(*) has no column
+        int column = item.column() == null ? -1 : plan.columnIndex(item.column());
+        if (item.aggregate() == null) {
+            for (int i = 0; i < groupColumns.length; i++) {
+                if (groupColumns[i] == column) return i;
+            }
+            throw new RuntimeException("Column " + item.column() + " must be in GROUP BY or aggregated");
+        }
+
+        Aggregate function = item.aggregate();
+        ColumnType type = column < 0 ? null : schema.getColumns().get(column).getType();
+        if ((function == Aggregate.SUM || function == Aggregate.AVG)
+                && type != ColumnType.INT && type != ColumnType.FLOAT && type != ColumnType.DOUBLE) {
+            throw new RuntimeException(function + " needs a numeric column: " + item.column());
+        }
+        if (function == Aggregate.COUNT) column = -1;
+
+        for (int i = 0; i < functions.size(); i++) {
+            if (functions.get(i) == function && columns.get(i) == column) return groupColumns.length + i;
+        }
+        functions.add(function);
+        columns.add(column);
+        return groupColumns.length + functions.size() - 1;
+    }
+
+    /**
+     * Columns the scan has to decode for the aggregation, none when it only counts
+     */
+    boolean[] decodedColumns() {
+        boolean[] decode = new boolean[schema.getColumns().size()];
+        for (int column : groupColumns) {
+            decode[column] = true;
+        }
+        for (int column : columns) {
+            if (column >= 0) decode[column] = true;
+        }
+        return decode;
+    }
+
+    /**
+     * Nothing but counts over the whole set of matching rows, which the table can
+     * answer by testing rows on their pages without decoding any
+     */
+    boolean countsOnly() {
+        return groupColumns.length == 0 && columns.stream().allMatch(column -> column < 0);
+    }
+
+    /**
+     * The one result row of a countsOnly aggregation
+     */
+    Object[] countResult(long count) {
+        Object[] result = new Object[functions.size()];
+        Arrays.fill(result, count);
+        return result;
+    }
+
+    Groups newGroups() {
+        return new Groups();
+    }
+
+    /**
+     * Running values of one execution, by group
+     */
+    class Groups {
+        private final Map<List<Object>, Accumulator[]> groups = new HashMap<>();
+
+        void add(RowLayout row) {
+            Object[] key = new Object[groupColumns.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = row.getValues(groupColumns[i]);
+            }
+            Accumulator[] accumulators = groups.computeIfAbsent(Arrays.asList(key), k -> newAccumulators());
+            for (int i = 0; i < accumulators.length; i++) {
+                int column = columns.get(i);
+                accumulators[i].add(column < 0 ? null : row.getValues(column));
+            }
+        }
+
+        /**
+         * One row per group; without GROUP BY always one row, even when no row matched
+         */
+        List<Object[]> results() {
+            if (groups.isEmpty() && groupColumns.length == 0) {
+                groups.put(List.of(), newAccumulators());
+            }
+            List<Object[]> results = new ArrayList<>(groups.size());
+            for (Map.Entry<List<Object>, Accumulator[]> group : groups.entrySet()) {
+                Object[] result = new Object[groupColumns.length + functions.size()];
+                for (int i = 0; i < groupColumns.length; i++) {
+                    result[i] = group.getKey().get(i);
+                }
+                Accumulator[] accumulators = group.getValue();
+                for (int i = 0; i < accumulators.length; i++) {
+                    result[groupColumns.length + i] = accumulators[i].result();
+                }
+                results.add(result);
+            }
+            return results;
+        }
+    }
+
+    private Accumulator[] newAccumulators() {
+        Accumulator[] accumulators = new Accumulator[functions.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            int column = columns.get(i);
+            ColumnType type = column < 0 ? null : schema.getColumns().get(column).getType();
+            accumulators[i] = switch (functions.get(i)) {
+                case COUNT -> new Count();
+                case SUM -> type == ColumnType.INT ? new IntSum() : new Sum();
+                case AVG -> new Average();
+                case MIN -> new Extreme(type, -1);
+                case MAX -> new Extreme(type, 1);
+            };
+        }
+        return accumulators;
+    }
+
+    /**
+     * NULL, the result of an aggregate over no rows, sorts first
+     */
+    private int compareValues(Object a, Object b) {
+        if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+        if (a instanceof Long x && b instanceof Long y) return Long.compare(x, y);
+        if (a instanceof Double x && b instanceof Double y) return Double.compare(x, y);
+        if (a instanceof Integer x && b instanceof Integer y) return Integer.compare(x, y);
+        if (a instanceof Float x && b instanceof Float y) return Float.compare(x, y);
+        if (a instanceof Boolean x && b instanceof Boolean y) return Boolean.compare(x, y);
+        return KeyCodec.compare(ColumnType.STRING, a, b);
+    }
+
+    private interface Accumulator {
+        void add(Object value);
+
+        Object result();
+    }
+
+    private static class Count implements Accumulator {
+        private long count;
+
+        @Override
+        public void add(Object value) {
+            count++;
+        }
+
+        @Override
+        public Object result() {
+            return count;
+        }
+    }
+
+    /**
+     * SUM of an INT column, kept exact as a long
+     */
+    private static class IntSum implements Accumulator {
+        private long sum;
+        private boolean any;
+
+        @Override
+        public void add(Object value) {
+            sum += (Integer) value;
+            any = true;
+        }
+
+        @Override
+        public Object result() {
+            return any ? sum : null;
+        }
+    }
+
+    private static class Sum implements Accumulator {
+        private double sum;
+        private boolean any;
+
+        @Override
+        public void add(Object value) {
+            sum += ((Number) value).doubleValue();
+            any = true;
+        }
+
+        @Override
+        public Object result() {
+            return any ? sum : null;
+        }
+    }
+
+    private static class Average implements Accumulator {
+        private double sum;
+        private long count;
+
+        @Override
+        public void add(Object value) {
+            sum += ((Number) value).doubleValue();
+            count++;
+        }
+
+        @Override
+        public Object result() {
+            return count == 0 ? null : sum / count;
+        }
+    }
+
+    /**
+     * MIN with sign -1, MAX with sign 1
+     */
+    private static class Extreme implements Accumulator {
+        private final ColumnType type;
+        private final int sign;
+        private Object value;
+
+        Extreme(ColumnType type, int sign) {
+            this.type = type;
+            this.sign = sign;
+        }
+
+        @Override
+        public void add(Object candidate) {
+            if (value == null || KeyCodec.compare(type, candidate, value) * sign > 0) {
+                value = candidate;
+            }
+        }
+
+        @Override
+        public Object result() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.RowCursor;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+import static com.simple_rdms.utils.Constants.SORT_MEMORY_BYTES;
+import static com.simple_rdms.utils.Constants.SORT_MERGE_FAN_IN;
+
+/**
+ * Sorts any number of rows in bounded memory.
+ * <p>
+ * Rows are gathered until their estimated size reaches the memory budget. A full batch is
+ * sorted and written to a run file in the sort directory, and the rows are dropped. When
+ * all rows are in, the runs are merged through a heap holding one row per run; more than
+ * SORT_MERGE_FAN_IN runs are first merged into longer runs. A sort that fits the budget
+ * never touches disk. Runs are SpillFiles, holding only the decoded columns.
+ */
+public class ExternalSort implements AutoCloseable {
+    private static volatile long memoryBudget = SORT_MEMORY_BYTES;
+
+    private final TableSchema schema;
+    private final boolean[] decode;
+    private final Comparator<RowLayout> order;
+    private final Path directory;
+    private final List<RowLayout> batch = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long batchBytes;
+
+    /**
+     * decode marks the columns the rows hold, null for all of them.
+     * Runs are written to directory, and deleted on close.
+     */
+    ExternalSort(TableSchema schema, boolean[] decode, Comparator<RowLayout> order, Path directory) {
+        this.schema = schema;
+        this.decode = decode;
+        this.order = order;
+        this.directory = directory;
+    }
+
+    /**
+     * Memory a sort may keep rows in before it spills them to disk
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes < PAGE_SIZE) {
+            throw new IllegalArgumentException("Sort memory must be at least " + PAGE_SIZE + " bytes");
+        }
+        memoryBudget = bytes;
+    }
+
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    void add(RowLayout row) throws IOException {
+        batch.add(row);
+        batchBytes += SpillFile.estimateSize(schema, row);
+        if (batchBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Number of run files written so far
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * The rows in order. Call once, after the last add.
+     */
+    RowCursor sorted() throws IOException {
+        batch.sort(order);
+        if (runs.isEmpty()) {
+            return new ListCursor(batch);
+        }
+        if (!batch.isEmpty()) {
+            spill();
+        }
+        while (runs.size() > SORT_MERGE_FAN_IN) {
+            mergeRuns();
+        }
+        return new MergeCursor(new ArrayList<>(runs));
+    }
+
+    private void spill() throws IOException {
+        batch.sort(order);
+        Path run = SpillFile.create(directory, "sort");
+        runs.add(run);
+        try (DataOutputStream out = SpillFile.openWrite(run)) {
+            for (RowLayout row : batch) {
+                SpillFile.write(out, schema, decode, row);
+            }
+            SpillFile.end(out);
+        }
+        batch.clear();
+        batchBytes = 0;
+    }
+
+    /**
+     * Merge the first SORT_MERGE_FAN_IN runs into one run at the end of the list
+     */
+    private void mergeRuns() throws IOException {
+        List<Path> inputs = new ArrayList<>(runs.subList(0, SORT_MERGE_FAN_IN));
+        Path merged = SpillFile.create(directory, "sort");
+        runs.add(merged);
+        try (MergeCursor cursor = new MergeCursor(inputs); DataOutputStream out = SpillFile.openWrite(merged)) {
+            RowLayout row;
+            while ((row = cursor.next()) != null) {
+                SpillFile.write(out, schema, decode, row);
+            }
+            SpillFile.end(out);
+        }
+        for (Path input : inputs) {
+            Files.deleteIfExists(input);
+        }
+        runs.subList(0, SORT_MERGE_FAN_IN).clear();
+    }
+
+    @Override
+    public void close() {
+        batch.clear();
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                System.out.println("Could not delete sort run " + run + ": " + e.getMessage());
+            }
+        }
+        runs.clear();
+    }
+
+    private static class ListCursor implements RowCursor {
+        private final List<RowLayout> rows;
+        private int position;
+
+        ListCursor(List<RowLayout> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public RowLayout next() {
+            return position < rows.size() ? rows.get(position++) : null;
+        }
+
+        @Override
+        public void close() {
+            position = rows.size();
+        }
+    }
+
+    /**
+     * Smallest head row of several runs first; equal rows come in run order, so the sort is stable
+     */
+    private class MergeCursor implements RowCursor {
+        private final List<DataInputStream> inputs = new ArrayList<>();
+        private final PriorityQueue<Head> heap;
+
+        MergeCursor(List<Path> runFiles) throws IOException {
+            heap = new PriorityQueue<>(runFiles.size(), (a, b) -> {
+                int cmp = order.compare(a.row, b.row);
+                return cmp != 0 ? cmp : Integer.compare(a.run, b.run);
+            });
+            try {
+                for (Path runFile : runFiles) {
+                    DataInputStream in = SpillFile.openRead(runFile);
+                    inputs.add(in);
+                    RowLayout row = SpillFile.read(in, schema, decode);
+                    if (row != null) heap.add(new Head(row, inputs.size() - 1));
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public RowLayout next() throws IOException {
+            Head head = heap.poll();
+            if (head == null) return null;
+            RowLayout next = SpillFile.read(inputs.get(head.run), schema, decode);
+            if (next != null) heap.add(new Head(next, head.run));
+            return head.row;
+        }
+
+        @Override
+        public void close() {
+            heap.clear();
+            for (DataInputStream in : inputs) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Only read from, nothing is lost
+                }
+            }
+            inputs.clear();
+        }
+    }
+
+    private record Head(RowLayout row, int run) {
+    }
+}
@@ -0,0 +1,367 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.RowCursor;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.simple_rdms.utils.Constants.JOIN_MAX_PARTITION_DEPTH;
+import static com.simple_rdms.utils.Constants.JOIN_MEMORY_BYTES;
+import static com.simple_rdms.utils.Constants.JOIN_PARTITIONS;
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+
+/**
+ * Hash join: the rows of the build table go into a hash table by join key, then each row
+ * of the probe table is paired with the build rows of its key as it is read.
+ * <p>
+ * When the build rows outgrow the memory budget the join turns into a grace hash join:
+ * both tables are split by a hash of the key into JOIN_PARTITIONS partition files next to
+ * the table, and the partitions are joined one by one, a matching pair of rows always
+ * landing in the same partition. A build partition still too large is split again with
+ * another hash, up to JOIN_MAX_PARTITION_DEPTH times; rows sharing one key cannot be split,
+ * so past that the partition is joined in memory whatever its size.
+ */
+public class HashJoin implements RowCursor {
+    private static volatile long memoryBudget = JOIN_MEMORY_BYTES;
+
+    private final JoinPlan plan;
+    // Whether the build table is the left one of the join
+    private final boolean buildLeft;
+    private final TableSchema buildSchema;
+    private final TableSchema probeSchema;
+    private final boolean[] buildDecode;
+    private final boolean[] probeDecode;
+    private final int buildKey;
+    private final int probeKey;
+    private final Path directory;
+
+    // Build rows by key, of the whole build table or of the partition being joined
+    private final Map<Object, List<RowLayout>> table = new HashMap<>();
+    // Rows probing the table: the probe table or a probe partition; null when none is open
+    private RowCursor probe;
+    private RowLayout probeRow;
+    private List<RowLayout> matches;
+    private int match;
+    // Partitions not joined yet
+    private final Deque<Partition> pending = new ArrayDeque<>();
+
+    /**
+     * build and probe return the rows of each table its part of the WHERE clause accepts,
+     * decoded as marked in buildDecode and probeDecode (null for all columns); the join
+     * closes them. Partition files go to directory.
+     */
+    HashJoin(JoinPlan plan, boolean buildLeft, RowCursor build, boolean[] buildDecode, RowCursor probe,
+             boolean[] probeDecode, Path directory) throws IOException {
+        this.plan = plan;
+        this.buildLeft = buildLeft;
+        this.buildSchema = buildLeft ? plan.leftSchema : plan.rightSchema;
+        this.probeSchema = buildLeft ? plan.rightSchema : plan.leftSchema;
+        this.buildDecode = buildDecode;
+        this.probeDecode = probeDecode;
+        this.buildKey = buildLeft ? plan.leftKey : plan.rightKey;
+        this.probeKey = buildLeft ? plan.rightKey : plan.leftKey;
+        this.directory = directory;
+
+        try (build) {
+            if (load(build)) {
+                this.probe = probe;
+                return;
+            }
+            // Out of memory: what is in the table goes to the partitions first, then the rest
+            Partitioner builds = new Partitioner(buildSchema, buildDecode, buildKey, 0);
+            Partitioner probes = new Partitioner(probeSchema, probeDecode, probeKey, 0);
+            try (probe) {
+                for (List<RowLayout> rows : table.values()) {
+                    for (RowLayout row : rows) {
+                        builds.add(row);
+                    }
+                }
+                table.clear();
+                builds.addAll(build);
+                probes.addAll(probe);
+            } catch (IOException | RuntimeException e) {
+                builds.delete();
+                probes.delete();
+                throw e;
+            }
+            queue(builds, probes, 0);
+        } catch (IOException | RuntimeException e) {
+            probe.close();
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Memory the build rows may take before the join partitions both tables on disk
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes < PAGE_SIZE) {
+            throw new IllegalArgumentException("Join memory must be at least " + PAGE_SIZE + " bytes");
+        }
+        memoryBudget = bytes;
+    }
+
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    @Override
+    public RowLayout next() throws IOException {
+        while (true) {
+            if (matches != null && match < matches.size()) {
+                RowLayout buildRow = matches.get(match++);
+                return buildLeft ? plan.combine(buildRow, probeRow) : plan.combine(probeRow, buildRow);
+            }
+            matches = null;
+            if (probe != null) {
+                probeRow = probe.next();
+                if (probeRow != null) {
+                    matches = table.get(probeRow.getValues(probeKey));
+                    match = 0;
+                    continue;
+                }
+                probe.close();
+                probe = null;
+            }
+            if (pending.isEmpty()) return null;
+            Partition partition = pending.pop();
+            try {
+                open(partition);
+            } catch (IOException | RuntimeException e) {
+                delete(partition.build);
+                delete(partition.probe);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Put build rows in the table until they run out (true) or the memory budget does (false)
+     */
+    private boolean load(RowCursor rows) throws IOException {
+        long bytes = 0;
+        RowLayout row;
+        while ((row = rows.next()) != null) {
+            List<RowLayout> sameKey = table.computeIfAbsent(row.getValues(buildKey), key -> new ArrayList<>(1));
+            // A new key also costs a map entry and a list
+            bytes += SpillFile.estimateSize(buildSchema, row) + (sameKey.isEmpty() ? 80 : 8);
+            sameKey.add(row);
+            if (bytes >= memoryBudget) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Load a partition's build rows and start probing them with its probe rows,
+     * or split it again when the build rows do not fit
+     */
+    private void open(Partition partition) throws IOException {
+        table.clear();
+        boolean fits;
+        try (RowCursor build = new FileCursor(partition.build, buildSchema, buildDecode, false)) {
+            fits = load(build) || partition.depth >= JOIN_MAX_PARTITION_DEPTH;
+            if (fits) {
+                // Rows sharing one key: join them in memory anyway
+                RowLayout row;
+                while ((row = build.next()) != null) {
+                    table.computeIfAbsent(row.getValues(buildKey), key -> new ArrayList<>(1)).add(row);
+                }
+            }
+        }
+        if (fits) {
+            Files.deleteIfExists(partition.build);
+            probe = new FileCursor(partition.probe, probeSchema, probeDecode, true);
+            return;
+        }
+
+        table.clear();
+        int depth = partition.depth + 1;
+        Partitioner builds = new Partitioner(buildSchema, buildDecode, buildKey, depth);
+        Partitioner probes = new Partitioner(probeSchema, probeDecode, probeKey, depth);
+        try (RowCursor build = new FileCursor(partition.build, buildSchema, buildDecode, true);
+             RowCursor probeRows = new FileCursor(partition.probe, probeSchema, probeDecode, true)) {
+            builds.addAll(build);
+            probes.addAll(probeRows);
+        } catch (IOException | RuntimeException e) {
+            builds.delete();
+            probes.delete();
+            throw e;
+        }
+        queue(builds, probes, depth);
+    }
+
+    /**
+     * Add the partitions that have rows on both sides, an inner join has nothing to pair in the others
+     */
+    private void queue(Partitioner builds, Partitioner probes, int depth) throws IOException {
+        try {
+            builds.finish();
+            probes.finish();
+        } catch (IOException | RuntimeException e) {
+            builds.delete();
+            probes.delete();
+            throw e;
+        }
+        for (int i = 0; i < JOIN_PARTITIONS; i++) {
+            if (builds.counts[i] > 0 && probes.counts[i] > 0) {
+                pending.push(new Partition(builds.files[i], probes.files[i], depth));
+            } else {
+                Files.deleteIfExists(builds.files[i]);
+                Files.deleteIfExists(probes.files[i]);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        table.clear();
+        matches = null;
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        while (!pending.isEmpty()) {
+            Partition partition = pending.pop();
+            delete(partition.build);
+            delete(partition.probe);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Could not delete join partition " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Partition of a key at a depth. Each depth seeds the hash differently, so the keys of
+     * one partition spread over all partitions of the next depth.
+     */
+    private static int partition(Object key, int depth) {
+        int hash = key.hashCode() ^ (depth * 0x9E3779B9);
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, JOIN_PARTITIONS);
+    }
+
+    private record Partition(Path build, Path probe, int depth) {
+    }
+
+    /**
+     * Writes the rows of one table to JOIN_PARTITIONS files by the hash of their key
+     */
+    private class Partitioner {
+        private final TableSchema schema;
+        private final boolean[] decode;
+        private final int key;
+        private final int depth;
+        final Path[] files = new Path[JOIN_PARTITIONS];
+        final long[] counts = new long[JOIN_PARTITIONS];
+        private final DataOutputStream[] outputs = new DataOutputStream[JOIN_PARTITIONS];
+
+        Partitioner(TableSchema schema, boolean[] decode, int key, int depth) throws IOException {
+            this.schema = schema;
+            this.decode = decode;
+            this.key = key;
+            this.depth = depth;
+            try {
+                for (int i = 0; i < JOIN_PARTITIONS; i++) {
+                    files[i] = SpillFile.create(directory, "join");
+                    outputs[i] = SpillFile.openWrite(files[i]);
+                }
+            } catch (IOException | RuntimeException e) {
+                delete();
+                throw e;
+            }
+        }
+
+        void add(RowLayout row) throws IOException {
+            int i = partition(row.getValues(key), depth);
+            SpillFile.write(outputs[i], schema, decode, row);
+            counts[i]++;
+        }
+
+        void addAll(RowCursor rows) throws IOException {
+            RowLayout row;
+            while ((row = rows.next()) != null) {
+                add(row);
+            }
+        }
+
+        void finish() throws IOException {
+            for (DataOutputStream output : outputs) {
+                SpillFile.end(output);
+                output.close();
+            }
+        }
+
+        void delete() {
+            for (int i = 0; i < JOIN_PARTITIONS; i++) {
+                if (outputs[i] != null) {
+                    try {
+                        outputs[i].close();
+                    } catch (IOException e) {
+                        // The file is deleted next
+                    }
+                }
+                if (files[i] != null) HashJoin.delete(files[i]);
+            }
+        }
+    }
+
+    /**
+     * The rows of a partition file, deleting the file when closed if asked to
+     */
+    private static class FileCursor implements RowCursor {
+        private final Path file;
+        private final TableSchema schema;
+        private final boolean[] decode;
+        private final boolean deleteOnClose;
+        private final DataInputStream in;
+        private boolean done;
+
+        FileCursor(Path file, TableSchema schema, boolean[] decode, boolean deleteOnClose) throws IOException {
+            this.file = file;
+            this.schema = schema;
+            this.decode = decode;
+            this.deleteOnClose = deleteOnClose;
+            this.in = SpillFile.openRead(file);
+        }
+
+        @Override
+        public RowLayout next() throws IOException {
+            if (done) return null;
+            RowLayout row = SpillFile.read(in, schema, decode);
+            done = row == null;
+            return row;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Only read from, nothing is lost
+            }
+            if (deleteOnClose) delete(file);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.RowCursor;
+import com.simple_rdms.storage_engine.page.RowLayout;
+
+import java.io.IOException;
+
+/**
+ * Index nested loop join: every row of the outer table is looked up by its join key in
+ * the index the inner table has on its key, the primary key index or a secondary index.
+ * Reads only the inner rows that match, so it wins when the outer side is a few rows.
+ */
+class IndexJoin implements RowCursor {
+    private final JoinPlan plan;
+    private final RowCursor outer;
+    // Whether the outer table is the left one of the join
+    private final boolean outerLeft;
+    private final Lookup lookup;
+    private RowLayout outerRow;
+    // Inner rows matching outerRow, null between outer rows
+    private RowCursor inner;
+
+    /**
+     * The inner rows with a join key, that its part of the WHERE clause accepts
+     */
+    interface Lookup {
+        RowCursor open(Object key) throws IOException;
+    }
+
+    IndexJoin(JoinPlan plan, RowCursor outer, boolean outerLeft, Lookup lookup) {
+        this.plan = plan;
+        this.outer = outer;
+        this.outerLeft = outerLeft;
+        this.lookup = lookup;
+    }
+
+    @Override
+    public RowLayout next() throws IOException {
+        while (true) {
+            if (inner != null) {
+                RowLayout row = inner.next();
+                if (row != null) {
+                    return outerLeft ? plan.combine(outerRow, row) : plan.combine(row, outerRow);
+                }
+                inner.close();
+                inner = null;
+            }
+            outerRow = outer.next();
+            if (outerRow == null) return null;
+            inner = lookup.open(outerRow.getValues(outerLeft ? plan.leftKey : plan.rightKey));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (inner != null) {
+            inner.close();
+            inner = null;
+        }
+        outer.close();
+    }
+}
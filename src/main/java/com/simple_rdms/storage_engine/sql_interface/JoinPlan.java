@@ -0,0 +1,169 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.index.KeyCodec;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_parser.Expression;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The two tables of a SELECT ... FROM left JOIN right ON left.key = right.key.
+ * <p>
+ * A joined row holds the left table's columns followed by the right table's, so the select
+ * list, GROUP BY and ORDER BY of a join are planned like those of one table with all of
+ * these columns. Every condition of the WHERE clause has to use the columns of one table:
+ * the conditions of a table make up a plan of their own, so each table is filtered, and
+ * narrowed by its indexes, while it is read and before any row is joined.
+ */
+class JoinPlan {
+    // Columns of the joined rows, and the table name or alias each one may be qualified with
+    final TableSchema schema;
+    final String[] qualifiers;
+
+    final TableSchema leftSchema;
+    final TableSchema rightSchema;
+    // The WHERE conditions on each table
+    final QueryPlan left;
+    final QueryPlan right;
+    // The ON columns, as columns of their tables
+    final int leftKey;
+    final int rightKey;
+    final ColumnType keyType;
+    // ORDER BY nothing but the join key ascending, the order a merge join returns rows in
+    final boolean orderedByKey;
+
+    JoinPlan(Statement.Select select, TableSchema leftSchema, TableSchema rightSchema,
+             List<ColumnDef> parameterColumns) {
+        Statement.Join join = select.join();
+        this.leftSchema = leftSchema;
+        this.rightSchema = rightSchema;
+        String leftName = select.alias() != null ? select.alias() : leftSchema.getTableName();
+        String rightName = join.alias() != null ? join.alias() : rightSchema.getTableName();
+        if (leftName.equalsIgnoreCase(rightName)) {
+            throw new RuntimeException("Both tables of the join are called " + leftName + ", give one an alias");
+        }
+
+        int leftCount = leftSchema.getColumns().size();
+        List<ColumnDef> columns = new ArrayList<>(leftSchema.getColumns());
+        columns.addAll(rightSchema.getColumns());
+        schema = new TableSchema(leftName + "_" + rightName, columns, leftSchema.getPrimaryKeyIndex());
+        qualifiers = new String[columns.size()];
+        for (int i = 0; i < qualifiers.length; i++) {
+            qualifiers[i] = i < leftCount ? leftName : rightName;
+        }
+
+        // ON may name the two columns in either order
+        int first = QueryPlan.columnIndex(schema, qualifiers, join.leftColumn());
+        int second = QueryPlan.columnIndex(schema, qualifiers, join.rightColumn());
+        if ((first < leftCount) == (second < leftCount)) {
+            throw new RuntimeException("JOIN ON must compare a column of " + leftName + " with a column of " + rightName);
+        }
+        leftKey = Math.min(first, second);
+        rightKey = Math.max(first, second) - leftCount;
+        keyType = leftSchema.getColumns().get(leftKey).getType();
+        ColumnType rightType = rightSchema.getColumns().get(rightKey).getType();
+        if (keyType != rightType) {
+            throw new RuntimeException("Cannot join " + keyType + " column " + join.leftColumn()
+                    + " with " + rightType + " column " + join.rightColumn());
+        }
+
+        Expression leftWhere = null;
+        Expression rightWhere = null;
+        if (select.where() != null) {
+            List<Expression> conjuncts = new ArrayList<>();
+            QueryPlan.collectConjuncts(select.where(), conjuncts);
+            for (Expression conjunct : conjuncts) {
+                List<String> names = new ArrayList<>();
+                collectColumns(conjunct, names);
+                Boolean onLeft = null;
+                for (String name : names) {
+                    boolean isLeft = QueryPlan.columnIndex(schema, qualifiers, name) < leftCount;
+                    if (onLeft != null && onLeft != isLeft) {
+                        throw new RuntimeException("Each WHERE condition of a join may only use the columns of one table");
+                    }
+                    onLeft = isLeft;
+                }
+                if (onLeft) {
+                    leftWhere = leftWhere == null ? conjunct : new Expression.And(leftWhere, conjunct);
+                } else {
+                    rightWhere = rightWhere == null ? conjunct : new Expression.And(rightWhere, conjunct);
+                }
+            }
+        }
+        // Parameters are numbered across the whole statement, both plans fill in the same list
+        left = new QueryPlan(new Statement.Select(select.tableName(), select.alias(), null, List.of(), leftWhere,
+                List.of(), List.of(), null), leftSchema, null, parameterColumns);
+        right = new QueryPlan(new Statement.Select(join.tableName(), join.alias(), null, List.of(), rightWhere,
+                List.of(), List.of(), null), rightSchema, null, parameterColumns);
+
+        boolean byKey = false;
+        if (select.orderBy().size() == 1 && !select.orderBy().get(0).descending()
+                && select.orderBy().get(0).item().aggregate() == null) {
+            int column = QueryPlan.columnIndex(schema, qualifiers, select.orderBy().get(0).item().column());
+            byKey = column == leftKey || column == leftCount + rightKey;
+        }
+        orderedByKey = byKey;
+    }
+
+    private static void collectColumns(Expression expression, List<String> names) {
+        if (expression instanceof Expression.Comparison comparison) {
+            names.add(comparison.column());
+        } else if (expression instanceof Expression.Between between) {
+            names.add(between.column());
+        } else if (expression instanceof Expression.Like like) {
+            names.add(like.column());
+        } else if (expression instanceof Expression.In in) {
+            names.add(in.column());
+        } else if (expression instanceof Expression.IsNull isNull) {
+            names.add(isNull.column());
+        } else if (expression instanceof Expression.And and) {
+            collectColumns(and.left(), names);
+            collectColumns(and.right(), names);
+        } else if (expression instanceof Expression.Or or) {
+            collectColumns(or.left(), names);
+            collectColumns(or.right(), names);
+        } else {
+            collectColumns(((Expression.Not) expression).operand(), names);
+        }
+    }
+
+    /**
+     * Columns one table has to decode for joined rows needing the columns marked in decode
+     * (all of them when it is null); its join key always
+     */
+    boolean[] decode(boolean[] decode, boolean leftTable) {
+        if (decode == null) return null;
+        int from = leftTable ? 0 : leftSchema.getColumns().size();
+        TableSchema table = leftTable ? leftSchema : rightSchema;
+        boolean[] columns = new boolean[table.getColumns().size()];
+        System.arraycopy(decode, from, columns, 0, columns.length);
+        columns[leftTable ? leftKey : rightKey] = true;
+        return columns;
+    }
+
+    RowLayout combine(RowLayout leftRow, RowLayout rightRow) {
+        int leftCount = leftSchema.getColumns().size();
+        Object[] values = new Object[schema.getColumns().size()];
+        for (int i = 0; i < leftCount; i++) {
+            values[i] = leftRow.getValues(i);
+        }
+        for (int i = leftCount; i < values.length; i++) {
+            values[i] = rightRow.getValues(i - leftCount);
+        }
+        return new RowLayout(schema, values);
+    }
+
+    /**
+     * Order of rows by their join key, the order of the key's index
+     */
+    Comparator<RowLayout> keyOrder(boolean leftTable) {
+        int key = leftTable ? leftKey : rightKey;
+        return (a, b) -> KeyCodec.compare(keyType, a.getValues(key), b.getValues(key));
+    }
+}
@@ -0,0 +1,79 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.RowCursor;
+import com.simple_rdms.storage_engine.index.KeyCodec;
+import com.simple_rdms.storage_engine.page.RowLayout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sort-merge join of two tables read in join key order. Both are walked once, side by side;
+ * only the right rows sharing one key are held, to pair them with each left row of that key.
+ * Rows come out in key order.
+ */
+class MergeJoin implements RowCursor {
+    private final JoinPlan plan;
+    private final RowCursor left;
+    private final RowCursor right;
+    private RowLayout leftRow;
+    // First right row not in the group yet
+    private RowLayout rightRow;
+    // Right rows with the key of leftRow
+    private final List<RowLayout> group = new ArrayList<>();
+    private int match;
+
+    /**
+     * left and right have to return rows in the order of JoinPlan.keyOrder
+     */
+    MergeJoin(JoinPlan plan, RowCursor left, RowCursor right) throws IOException {
+        this.plan = plan;
+        this.left = left;
+        this.right = right;
+        try {
+            rightRow = right.next();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public RowLayout next() throws IOException {
+        while (true) {
+            if (leftRow != null && match < group.size()) {
+                return plan.combine(leftRow, group.get(match++));
+            }
+
+            leftRow = left.next();
+            match = 0;
+            if (leftRow == null) return null;
+            Object key = leftRow.getValues(plan.leftKey);
+            // Another left row with the same key pairs with the same group
+            if (!group.isEmpty() && compare(group.get(0), key) == 0) continue;
+
+            group.clear();
+            while (rightRow != null && compare(rightRow, key) < 0) {
+                rightRow = right.next();
+            }
+            while (rightRow != null && compare(rightRow, key) == 0) {
+                group.add(rightRow);
+                rightRow = right.next();
+            }
+            // No right row is left to pair with the rest of the left rows
+            if (group.isEmpty() && rightRow == null) return null;
+        }
+    }
+
+    private int compare(RowLayout row, Object leftKey) {
+        return KeyCodec.compare(plan.keyType, row.getValues(plan.rightKey), leftKey);
+    }
+
+    @Override
+    public void close() {
+        group.clear();
+        left.close();
+        right.close();
+    }
+}
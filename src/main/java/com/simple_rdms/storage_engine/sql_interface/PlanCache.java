@@ -0,0 +1,54 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used query plans, keyed by normalized statement text.
+ * A hit skips parsing and planning, the statement only has to be tokenized to build its key.
+ */
+public class PlanCache {
+    private final Map<String, QueryPlan> plans;
+    private final int capacity;
+    private long hits;
+    private long misses;
+
+    public PlanCache(int capacity) {
+        this.capacity = capacity;
+        // Access order: every get moves the entry to the end, the head is the least recently used
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > PlanCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * The cached plan, or null on a miss
+     */
+    public synchronized QueryPlan get(String key) {
+        QueryPlan plan = plans.get(key);
+        if (plan == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return plan;
+    }
+
+    public synchronized void put(String key, QueryPlan plan) {
+        plans.put(key, plan);
+    }
+
+    public synchronized void clear() {
+        plans.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("Plans: %d/%d, Hits: %d, Misses: %d (%.1f%% hit ratio)",
+                plans.size(), capacity, hits, misses, lookups > 0 ? hits * 100.0 / lookups : 0);
+    }
+}
@@ -0,0 +1,527 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.RowPredicate;
+import com.simple_rdms.storage_engine.index.KeyCodec;
+import com.simple_rdms.storage_engine.page.LikePattern;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_parser.Expression;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Literal;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Operator;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A statement resolved against a table schema once, so it can run many times.
+ * <p>
+ * Column names are looked up, constants converted to their column types and the WHERE
+ * clause compiled up front; running the plan only binds the ? arguments. The bound WHERE
+ * clause is a RowPredicate, tested on the encoded rows while pages are scanned.
+ * The plan holds no table file: which index to scan is decided each run from the
+ * columns listed in rangeColumns, so a plan stays valid when indexes come and go.
+ * <p>
+ * A SELECT joining two tables is planned against the schema of its joined rows, the
+ * columns of both tables; join holds the plan of each table's part of the WHERE clause.
+ */
+public class QueryPlan {
+    private final Statement statement;
+    final TableSchema schema;
+    // Table name or alias a column may be qualified with, by column
+    private final String[] qualifiers;
+    // Column each ? is compared with or stored into, by parameter number; shared by the plans of a join
+    private final List<ColumnDef> parameterColumns;
+
+    // SELECT, UPDATE and DELETE
+    // Null when there is no WHERE clause
+    Filter filter;
+    // Columns the WHERE clause bounds on every matching row, primary key first, and their bounds
+    final List<Integer> rangeColumns = new ArrayList<>();
+    final List<Bound> bounds = new ArrayList<>();
+
+    // SELECT
+    int[] projection = new int[0];
+    // Columns the scan decodes: the selected and ORDER BY ones, or the grouped and aggregated ones; null for SELECT *
+    boolean[] decodedColumns;
+    Comparator<RowLayout> order;
+    // ORDER BY primary key ascending, which a primary key scan returns without sorting
+    boolean orderedByPrimaryKey;
+    int limit = Integer.MAX_VALUE;
+    // GROUP BY and aggregates, null when the SELECT has neither
+    Aggregation aggregation;
+    // The two tables of a JOIN, null for a SELECT from one table
+    JoinPlan join;
+
+    // INSERT
+    Operand[][] rows;
+
+    // UPDATE
+    int[] assignedColumns;
+    Operand[] assignedValues;
+
+    /**
+     * joinedSchema is the schema of the table a SELECT joins, null when there is none
+     */
+    QueryPlan(Statement statement, TableSchema schema, TableSchema joinedSchema) {
+        this(statement, schema, joinedSchema, new ArrayList<>());
+    }
+
+    QueryPlan(Statement statement, TableSchema tableSchema, TableSchema joinedSchema,
+              List<ColumnDef> parameterColumns) {
+        this.statement = statement;
+        this.parameterColumns = parameterColumns;
+        if (statement instanceof Statement.Select select && select.join() != null) {
+            if (joinedSchema == null) {
+                throw new RuntimeException("Table " + select.join().tableName() + " is not open for the join");
+            }
+            join = new JoinPlan(select, tableSchema, joinedSchema, parameterColumns);
+            schema = join.schema;
+            qualifiers = join.qualifiers;
+        } else {
+            schema = tableSchema;
+            String qualifier = statement instanceof Statement.Select select && select.alias() != null
+                    ? select.alias() : tableSchema.getTableName();
+            qualifiers = new String[tableSchema.getColumns().size()];
+            Arrays.fill(qualifiers, qualifier);
+        }
+
+        if (statement instanceof Statement.Select select) {
+            // A join's conditions are in the plans of its tables
+            if (join == null) planWhere(select.where());
+            if (select.limit() != null) limit = select.limit();
+            if (isAggregate(select)) {
+                aggregation = new Aggregation(select, this, schema);
+                decodedColumns = aggregation.decodedColumns();
+                return;
+            }
+
+            projection = new int[select.items().size()];
+            for (int i = 0; i < projection.length; i++) {
+                projection[i] = columnIndex(select.items().get(i).column());
+            }
+            order = comparator(select.orderBy());
+            if (projection.length > 0) {
+                decodedColumns = new boolean[schema.getColumns().size()];
+                for (int column : projection) {
+                    decodedColumns[column] = true;
+                }
+                for (Statement.OrderBy key : select.orderBy()) {
+                    decodedColumns[columnIndex(key.item().column())] = true;
+                }
+            }
+            orderedByPrimaryKey = join == null && select.orderBy().size() == 1 && !select.orderBy().get(0).descending()
+                    && columnIndex(select.orderBy().get(0).item().column()) == schema.getPrimaryKeyIndex();
+        } else if (statement instanceof Statement.Insert insert) {
+            int columnCount = schema.getColumns().size();
+            rows = new Operand[insert.rows().size()][];
+            for (int r = 0; r < rows.length; r++) {
+                List<Literal> values = insert.rows().get(r);
+                if (values.size() != columnCount) {
+                    throw new RuntimeException(
+                            String.format("Column/value count mismatch: expected %d, got %d",
+                                    columnCount, values.size())
+                    );
+                }
+                rows[r] = new Operand[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    rows[r][i] = operand(i, values.get(i));
+                }
+            }
+        } else if (statement instanceof Statement.Update update) {
+            assignedColumns = new int[update.assignments().size()];
+            assignedValues = new Operand[assignedColumns.length];
+            for (int i = 0; i < assignedColumns.length; i++) {
+                Statement.Assignment assignment = update.assignments().get(i);
+                assignedColumns[i] = columnIndex(assignment.column());
+                if (assignedColumns[i] == schema.getPrimaryKeyIndex()) {
+                    throw new RuntimeException("Cannot change primary key value");
+                }
+                assignedValues[i] = operand(assignedColumns[i], assignment.value());
+            }
+            planWhere(update.where());
+        } else if (statement instanceof Statement.Delete delete) {
+            planWhere(delete.where());
+        }
+    }
+
+    public Statement getStatement() {
+        return statement;
+    }
+
+    public int getParameterCount() {
+        return parameterColumns.size();
+    }
+
+    /**
+     * Names of the values a SELECT returns for each row: the select list as written, or
+     * every column for SELECT *, qualified with its table when two tables are joined
+     */
+    public List<String> getColumnLabels() {
+        if (!(statement instanceof Statement.Select select)) {
+            throw new RuntimeException("Only SELECT returns rows");
+        }
+        List<String> labels = new ArrayList<>();
+        if (!select.items().isEmpty()) {
+            for (Statement.SelectItem item : select.items()) {
+                labels.add(item.toString());
+            }
+            return labels;
+        }
+        List<ColumnDef> columns = schema.getColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            labels.add(join != null ? qualifiers[i] + "." + columns.get(i).getName() : columns.get(i).getName());
+        }
+        return labels;
+    }
+
+    /**
+     * Types of the values a SELECT returns for each row, in the order of getColumnLabels().
+     * COUNT, SUM and AVG are DOUBLE, there is no integer type wide enough for a count or
+     * the sum of an INT column; MIN and MAX the type of their column.
+     */
+    public List<ColumnType> getColumnTypes() {
+        if (!(statement instanceof Statement.Select select)) {
+            throw new RuntimeException("Only SELECT returns rows");
+        }
+        List<ColumnType> types = new ArrayList<>();
+        if (select.items().isEmpty()) {
+            for (ColumnDef column : schema.getColumns()) {
+                types.add(column.getType());
+            }
+            return types;
+        }
+        for (Statement.SelectItem item : select.items()) {
+            ColumnType type = item.column() == null ? null
+                    : schema.getColumns().get(columnIndex(item.column())).getType();
+            if (item.aggregate() == null) {
+                types.add(type);
+                continue;
+            }
+            types.add(switch (item.aggregate()) {
+                case COUNT, SUM, AVG -> ColumnType.DOUBLE;
+                case MIN, MAX -> type;
+            });
+        }
+        return types;
+    }
+
+    /**
+     * Type of the column each ? is compared with or stored into, by parameter number
+     */
+    public List<ColumnType> getParameterTypes() {
+        List<ColumnType> types = new ArrayList<>(parameterColumns.size());
+        for (ColumnDef column : parameterColumns) {
+            types.add(column.getType());
+        }
+        return types;
+    }
+
+    /**
+     * Arguments as values of the columns their parameters belong to.
+     * An argument may be a SQL literal, its text, or already a value of the column type.
+     */
+    public Object[] bind(Object... args) {
+        if (args.length != parameterColumns.size()) {
+            throw new RuntimeException(String.format("Expected %d arguments, got %d",
+                    parameterColumns.size(), args.length));
+        }
+
+        Object[] params = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            ColumnDef column = parameterColumns.get(i);
+            Object arg = args[i];
+            if (arg == null) {
+                throw new RuntimeException("Missing value for parameter " + (i + 1));
+            } else if (arg instanceof Literal literal) {
+                params[i] = convert(column, literal.text());
+            } else if (javaType(column.getType()).isInstance(arg)) {
+                params[i] = arg;
+            } else {
+                params[i] = convert(column, arg.toString());
+            }
+        }
+        return params;
+    }
+
+    /**
+     * A value a plan reads when it runs: a constant, or the argument bound to a ?
+     */
+    interface Operand {
+        Object value(Object[] params);
+    }
+
+    /**
+     * WHERE clause waiting for its arguments. Binding resolves every value once,
+     * e.g. a string constant to its UTF-8 bytes, so the per-row test does no conversion.
+     */
+    interface Filter {
+        RowPredicate bind(Object[] params);
+    }
+
+    /**
+     * The row test for one run, null when every row matches
+     */
+    RowPredicate bindFilter(Object[] params) {
+        return filter == null ? null : filter.bind(params);
+    }
+
+    /**
+     * column operator value, one side of the range an index scan may be limited to
+     */
+    record Bound(int column, Operator operator, Operand value) {
+    }
+
+    private void planWhere(Expression where) {
+        if (where == null) return;
+        filter = compile(where);
+
+        List<Expression> conjuncts = new ArrayList<>();
+        collectConjuncts(where, conjuncts);
+        for (Expression conjunct : conjuncts) {
+            if (conjunct instanceof Expression.Between between) {
+                int column = columnIndex(between.column());
+                bounds.add(new Bound(column, Operator.GREATER_EQUALS, operand(column, between.low())));
+                bounds.add(new Bound(column, Operator.LESS_EQUALS, operand(column, between.high())));
+                addRangeColumn(column);
+            } else if (conjunct instanceof Expression.Comparison comparison
+                    && comparison.operator() != Operator.NOT_EQUALS) {
+                int column = columnIndex(comparison.column());
+                bounds.add(new Bound(column, comparison.operator(), operand(column, comparison.value())));
+                addRangeColumn(column);
+            }
+        }
+    }
+
+    private void addRangeColumn(int column) {
+        if (rangeColumns.contains(column)) return;
+        if (column == schema.getPrimaryKeyIndex()) {
+            rangeColumns.add(0, column);
+        } else {
+            rangeColumns.add(column);
+        }
+    }
+
+    static void collectConjuncts(Expression expression, List<Expression> conjuncts) {
+        if (expression instanceof Expression.And and) {
+            collectConjuncts(and.left(), conjuncts);
+            collectConjuncts(and.right(), conjuncts);
+        } else {
+            conjuncts.add(expression);
+        }
+    }
+
+    /**
+     * Turn a WHERE clause into a filter, columns and constants resolved up front
+     */
+    private Filter compile(Expression expression) {
+        if (expression instanceof Expression.Comparison comparison) {
+            int column = columnIndex(comparison.column());
+            ColumnType type = schema.getColumns().get(column).getType();
+            Operand value = operand(column, comparison.value());
+            Operator operator = comparison.operator();
+            return params -> compare(column, type, operator, value.value(params));
+        }
+        if (expression instanceof Expression.Between between) {
+            int column = columnIndex(between.column());
+            ColumnType type = schema.getColumns().get(column).getType();
+            Operand low = operand(column, between.low());
+            Operand high = operand(column, between.high());
+            return params -> {
+                RowPredicate atLeast = compare(column, type, Operator.GREATER_EQUALS, low.value(params));
+                RowPredicate atMost = compare(column, type, Operator.LESS_EQUALS, high.value(params));
+                return row -> atLeast.test(row) && atMost.test(row);
+            };
+        }
+        if (expression instanceof Expression.Like like) {
+            int column = columnIndex(like.column());
+            if (schema.getColumns().get(column).getType() != ColumnType.STRING) {
+                throw new RuntimeException("LIKE needs a STRING column: " + like.column());
+            }
+            Operand pattern = operand(column, like.pattern());
+            return params -> {
+                LikePattern likePattern = new LikePattern((String) pattern.value(params));
+                return row -> row.matches(column, likePattern);
+            };
+        }
+        if (expression instanceof Expression.In in) {
+            int column = columnIndex(in.column());
+            ColumnType type = schema.getColumns().get(column).getType();
+            List<Operand> values = new ArrayList<>();
+            for (Literal literal : in.values()) {
+                values.add(operand(column, literal));
+            }
+            return params -> {
+                RowPredicate[] equals = new RowPredicate[values.size()];
+                for (int i = 0; i < equals.length; i++) {
+                    equals[i] = compare(column, type, Operator.EQUALS, values.get(i).value(params));
+                }
+                return row -> {
+                    for (RowPredicate predicate : equals) {
+                        if (predicate.test(row)) return true;
+                    }
+                    return false;
+                };
+            };
+        }
+        if (expression instanceof Expression.IsNull isNull) {
+            // Columns cannot hold NULL, a value is stored for every column of every row
+            columnIndex(isNull.column());
+            return params -> row -> false;
+        }
+        if (expression instanceof Expression.And and) {
+            Filter left = compile(and.left());
+            Filter right = compile(and.right());
+            return params -> {
+                RowPredicate l = left.bind(params);
+                RowPredicate r = right.bind(params);
+                return row -> l.test(row) && r.test(row);
+            };
+        }
+        if (expression instanceof Expression.Or or) {
+            Filter left = compile(or.left());
+            Filter right = compile(or.right());
+            return params -> {
+                RowPredicate l = left.bind(params);
+                RowPredicate r = right.bind(params);
+                return row -> l.test(row) || r.test(row);
+            };
+        }
+        Filter operand = compile(((Expression.Not) expression).operand());
+        return params -> {
+            RowPredicate o = operand.bind(params);
+            return row -> !o.test(row);
+        };
+    }
+
+    /**
+     * column operator value on the encoded row, decoding only that column as a primitive
+     */
+    private static RowPredicate compare(int column, ColumnType type, Operator operator, Object value) {
+        switch (type) {
+            case INT -> {
+                int v = (Integer) value;
+                return row -> holds(operator, Integer.compare(row.getInt(column), v));
+            }
+            case FLOAT -> {
+                float v = (Float) value;
+                return row -> holds(operator, Float.compare(row.getFloat(column), v));
+            }
+            case DOUBLE -> {
+                double v = (Double) value;
+                return row -> holds(operator, Double.compare(row.getDouble(column), v));
+            }
+            case BOOLEAN -> {
+                boolean v = (Boolean) value;
+                return row -> holds(operator, Boolean.compare(row.getBoolean(column), v));
+            }
+            default -> {
+                byte[] v = ((String) value).getBytes(StandardCharsets.UTF_8);
+                return row -> holds(operator, row.compareString(column, v));
+            }
+        }
+    }
+
+    static boolean holds(Operator operator, int cmp) {
+        return switch (operator) {
+            case EQUALS -> cmp == 0;
+            case NOT_EQUALS -> cmp != 0;
+            case LESS -> cmp < 0;
+            case LESS_EQUALS -> cmp <= 0;
+            case GREATER -> cmp > 0;
+            case GREATER_EQUALS -> cmp >= 0;
+        };
+    }
+
+    private static boolean isAggregate(Statement.Select select) {
+        if (!select.groupBy().isEmpty()) return true;
+        for (Statement.SelectItem item : select.items()) {
+            if (item.aggregate() != null) return true;
+        }
+        for (Statement.OrderBy key : select.orderBy()) {
+            if (key.item().aggregate() != null) return true;
+        }
+        return false;
+    }
+
+    private Comparator<RowLayout> comparator(List<Statement.OrderBy> orderBy) {
+        Comparator<RowLayout> order = null;
+        for (Statement.OrderBy key : orderBy) {
+            int column = columnIndex(key.item().column());
+            ColumnType type = schema.getColumns().get(column).getType();
+            Comparator<RowLayout> next = (a, b) -> KeyCodec.compare(type, a.getValues(column), b.getValues(column));
+            if (key.descending()) next = next.reversed();
+            order = order == null ? next : order.thenComparing(next);
+        }
+        return order;
+    }
+
+    /**
+     * A literal as a value of a column's type; a ? takes the column's type when bound
+     */
+    private Operand operand(int columnIndex, Literal literal) {
+        ColumnDef column = schema.getColumns().get(columnIndex);
+        if (literal.isParameter()) {
+            int parameter = literal.parameter();
+            while (parameterColumns.size() <= parameter) {
+                parameterColumns.add(null);
+            }
+            parameterColumns.set(parameter, column);
+            return params -> params[parameter];
+        }
+        Object value = convert(column, literal.text());
+        return params -> value;
+    }
+
+    int columnIndex(String columnName) {
+        return columnIndex(schema, qualifiers, columnName);
+    }
+
+    /**
+     * The column a name refers to, either on its own or qualified: users.id.
+     * A name without qualifier has to be unique among the columns.
+     */
+    static int columnIndex(TableSchema schema, String[] qualifiers, String columnName) {
+        int dot = columnName.indexOf('.');
+        String qualifier = dot < 0 ? null : columnName.substring(0, dot);
+        String name = columnName.substring(dot + 1);
+        int found = -1;
+        for (int i = 0; i < schema.getColumns().size(); i++) {
+            if (!schema.getColumns().get(i).getName().equalsIgnoreCase(name)) continue;
+            if (qualifier != null && !qualifiers[i].equalsIgnoreCase(qualifier)) continue;
+            if (found >= 0) throw new RuntimeException("Ambiguous column " + columnName + ", qualify it with its table");
+            found = i;
+        }
+        if (found < 0) throw new RuntimeException("Unknown column: " + columnName);
+        return found;
+    }
+
+    static Object convert(ColumnDef column, String text) {
+        try {
+            return switch (column.getType()) {
+                case INT -> Integer.parseInt(text);
+                case STRING -> text;
+                case BOOLEAN -> Boolean.parseBoolean(text);
+                case FLOAT -> Float.parseFloat(text);
+                case DOUBLE -> Double.parseDouble(text);
+            };
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid " + column.getType() + " value for " + column.getName() + ": " + text);
+        }
+    }
+
+    private static Class<?> javaType(ColumnType type) {
+        return switch (type) {
+            case INT -> Integer.class;
+            case STRING -> String.class;
+            case BOOLEAN -> Boolean.class;
+            case FLOAT -> Float.class;
+            case DOUBLE -> Double.class;
+        };
+    }
+}
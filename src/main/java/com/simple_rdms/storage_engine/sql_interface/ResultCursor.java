@@ -0,0 +1,18 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import java.io.IOException;
+
+/**
+ * The rows a SELECT returns, read one at a time as the caller asks for them.
+ * Each row holds the selected values in the order of QueryPlan.getColumnLabels();
+ * aggregates over no rows are null. Close it to let go of the table, early or not.
+ */
+public interface ResultCursor extends AutoCloseable {
+    /**
+     * The next row, or null when there are no more
+     */
+    Object[] next() throws IOException;
+
+    @Override
+    void close();
+}
@@ -1,188 +1,611 @@
 package com.simple_rdms.storage_engine.sql_interface;
 
+import com.simple_rdms.storage_engine.disk_manager.RowCursor;
+import com.simple_rdms.storage_engine.disk_manager.RowPredicate;
 import com.simple_rdms.storage_engine.disk_manager.TableFile;
+import com.simple_rdms.storage_engine.index.KeyCodec;
+import com.simple_rdms.storage_engine.index.SecondaryIndex;
 import com.simple_rdms.storage_engine.page.RowLayout;
 import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
 import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_parser.Parser;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+import com.simple_rdms.storage_engine.wal.Transaction;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import static com.simple_rdms.utils.Constants.BULK_LOAD_BATCH_ROWS;
 
 public class SQLTableInterface {
 
     private final TableFile tableFile;
     private final TableSchema tableSchema;
+    // Open transaction the statements run in, null when each statement commits on its own
+    private final Transaction transaction;
+    // The table a SELECT joins with this one, null when there is none
+    private final SQLTableInterface joined;
 
     public SQLTableInterface(TableFile tableFile, TableSchema tableSchema) {
+        this(tableFile, tableSchema, null);
+    }
+
+    public SQLTableInterface(TableFile tableFile, TableSchema tableSchema, Transaction transaction) {
+        this(tableFile, tableSchema, null, null, transaction);
+    }
+
+    /**
+     * joinedFile and joinedSchema are the table a SELECT ... JOIN joins this one with
+     */
+    public SQLTableInterface(TableFile tableFile, TableSchema tableSchema, TableFile joinedFile,
+                             TableSchema joinedSchema, Transaction transaction) {
         this.tableFile = tableFile;
         this.tableSchema = tableSchema;
+        this.transaction = transaction;
+        this.joined = joinedFile == null ? null : new SQLTableInterface(joinedFile, joinedSchema, transaction);
     }
 
     public void executeSQL(String sql) throws IOException {
-        sql = sql.trim();
+        execute(prepare(Parser.parse(sql)));
+    }
+
+    /**
+     * Resolve a statement against this table's schema, the plan can then be executed
+     * any number of times with different arguments for its ? parameters
+     */
+    public QueryPlan prepare(String sql) {
+        return prepare(Parser.parse(sql));
+    }
 
-        if (sql.toUpperCase().startsWith("INSERT")) {
-            executeInsert(sql);
-        } else if (sql.toUpperCase().startsWith("UPDATE")) {
-            executeUpdate(sql);
-        } else if (sql.toUpperCase().startsWith("DELETE")) {
-            executeDelete(sql);
-        } else if (sql.toUpperCase().startsWith("SELECT")) {
-            executeSelect(sql);
+    public QueryPlan prepare(Statement statement) {
+        if (statement instanceof Statement.Prepare || statement instanceof Statement.Execute) {
+            throw new RuntimeException("PREPARE and EXECUTE cannot be prepared");
         }
+        if (statement instanceof Statement.Begin || statement instanceof Statement.Commit
+                || statement instanceof Statement.Rollback) {
+            throw new RuntimeException("BEGIN, COMMIT and ROLLBACK are not table statements");
+        }
+        return new QueryPlan(statement, tableSchema, joined == null ? null : joined.tableSchema);
     }
 
-    private void executeInsert(String sql) throws IOException {
-        // Support: INSERT INTO table VALUES (val1, val2, val3)
-        Pattern pattern = Pattern.compile(
-                "INSERT INTO\\s+\\w+\\s+VALUES\\s+\\(([^)]+)\\)",
-                Pattern.CASE_INSENSITIVE
-        );
+    /**
+     * Run a statement, printing the rows of a SELECT or what a change did
+     */
+    public void execute(QueryPlan plan, Object... args) throws IOException {
+        if (plan.getStatement() instanceof Statement.Select) {
+            try (ResultCursor results = query(plan, args)) {
+                Object[] values;
+                while ((values = results.next()) != null) {
+                    System.out.println(format(values));
+                }
+            }
+            return;
+        }
+        String message = update(plan, args);
+        if (message != null) {
+            System.out.println(message);
+        }
+    }
 
-        Matcher matcher = pattern.matcher(sql);
+    /**
+     * Rows of a SELECT. Without ORDER BY or aggregates they are read from the table as they are
+     * taken, so a caller reading slowly holds the scan back; otherwise all matching rows are
+     * sorted or grouped before the first one is returned.
+     */
+    public ResultCursor query(QueryPlan plan, Object... args) throws IOException {
+        if (!(plan.getStatement() instanceof Statement.Select)) {
+            throw new RuntimeException("Only SELECT returns rows");
+        }
+        Object[] params = plan.bind(args);
+        return plan.aggregation != null ? executeAggregate(plan, params) : executeSelect(plan, params);
+    }
 
-        if (!matcher.find()) {
-            throw new RuntimeException("Invalid INSERT syntax");
+    /**
+     * Run a statement that is not a SELECT; returns what it did, e.g. "Updated 3 rows", or null
+     */
+    public String update(QueryPlan plan, Object... args) throws IOException {
+        Object[] params = plan.bind(args);
+        Statement statement = plan.getStatement();
+
+        // COPY commits per batch and index changes checkpoint, neither can be rolled back with others
+        if (transaction != null && (statement instanceof Statement.Copy
+                || statement instanceof Statement.CreateIndex || statement instanceof Statement.DropIndex)) {
+            throw new RuntimeException("COPY, CREATE INDEX and DROP INDEX cannot run inside a transaction");
         }
 
-        String valuesStr = matcher.group(1);
-        String[] values = splitValues(valuesStr);
+        if (statement instanceof Statement.Select) {
+            throw new RuntimeException("SELECT returns rows, query it");
+        } else if (statement instanceof Statement.Insert) {
+            return inTransaction(txn -> executeInsert(txn, plan, params));
+        } else if (statement instanceof Statement.Update) {
+            return inTransaction(txn -> executeUpdate(txn, plan, params));
+        } else if (statement instanceof Statement.Delete) {
+            return inTransaction(txn -> executeDelete(txn, plan, params));
+        } else if (statement instanceof Statement.Copy copy) {
+            return executeCopy(copy);
+        } else if (statement instanceof Statement.CreateIndex createIndex) {
+            tableFile.createIndex(createIndex.indexName().toLowerCase(), createIndex.columnName());
+        } else if (statement instanceof Statement.DropIndex dropIndex) {
+            tableFile.dropIndex(dropIndex.indexName().toLowerCase());
+        }
+        return null;
+    }
 
-        if (values.length != tableSchema.getColumns().size()) {
-            throw new RuntimeException(
-                    String.format("Column/value count mismatch: expected %d, got %d",
-                            tableSchema.getColumns().size(), values.length)
-            );
+    /**
+     * Run a writing statement in the open transaction, or in one of its own that commits
+     * when it is done, so a statement changing several rows is all or nothing
+     */
+    private String inTransaction(TransactionWork work) throws IOException {
+        if (transaction != null) {
+            return work.run(transaction);
         }
+        Transaction txn = tableFile.getLogManager().begin();
+        String message;
+        try {
+            message = work.run(txn);
+        } catch (IOException | RuntimeException e) {
+            txn.abort();
+            throw e;
+        }
+        txn.commit();
+        return message;
+    }
 
-        Object[] data = new Object[values.length];
+    private interface TransactionWork {
+        String run(Transaction txn) throws IOException;
+    }
 
-        for (int i = 0; i < values.length; i++) {
-            String val = values[i].trim();
-            data[i] = parseValueToObject(val);
+    private String executeInsert(Transaction txn, QueryPlan plan, Object[] params) throws IOException {
+        List<RowLayout> rows = new ArrayList<>(plan.rows.length);
+        for (QueryPlan.Operand[] values : plan.rows) {
+            Object[] data = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                data[i] = values[i].value(params);
+            }
+            rows.add(new RowLayout(tableSchema, data));
         }
 
-        RowLayout rowLayout = new RowLayout(tableSchema, data);
-        tableFile.insert(rowLayout);
+        if (rows.size() == 1) {
+            tableFile.insert(txn, rows.get(0));
+        } else {
+            tableFile.insertBatch(txn, rows);
+        }
+        return null;
     }
 
-    private void executeSelect(String sql) throws IOException {
-        if (!sql.toUpperCase().contains("*")) {
-            throw new RuntimeException("Only SELECT * supported");
+    private String executeCopy(Statement.Copy copy) throws IOException {
+        Path csvPath = Paths.get(copy.fileName());
+        boolean header = copy.header();
+        List<ColumnDef> columns = tableSchema.getColumns();
+        List<RowLayout> batch = new ArrayList<>(BULK_LOAD_BATCH_ROWS);
+        long count = 0;
+
+        // Rows are committed a batch at a time so a huge file never builds an unbounded transaction
+        try (BufferedReader reader = Files.newBufferedReader(csvPath)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if ((header && lineNumber == 1) || line.isBlank()) continue;
+
+                String[] values = splitValues(line);
+                if (values.length != columns.size()) {
+                    throw new RuntimeException(String.format("Line %d: expected %d values, got %d",
+                            lineNumber, columns.size(), values.length));
+                }
+
+                Object[] data = new Object[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    data[i] = parseValue(columns.get(i), values[i]);
+                }
+                batch.add(new RowLayout(tableSchema, data));
+
+                if (batch.size() == BULK_LOAD_BATCH_ROWS) {
+                    tableFile.insertBatch(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
         }
+        tableFile.insertBatch(batch);
+        count += batch.size();
 
-        // SELECT * FROM users WHERE id = X
-        if (sql.toUpperCase().contains("WHERE")) {
-            executeSelectById(sql);
-            return;
+        return "Copied " + count + " rows";
+    }
+
+    private ResultCursor executeSelect(QueryPlan plan, Object[] params) throws IOException {
+        Comparator<RowLayout> order = plan.order;
+        RowCursor rows;
+        if (plan.join != null) {
+            rows = openJoin(plan.join, params, plan.decodedColumns);
+            // A merge join already returns rows in key order
+            if (plan.join.orderedByKey && rows instanceof MergeJoin) order = null;
+        } else {
+            Range range = chooseRange(plan, params);
+
+            // The primary key index already returns rows in key order, no sort needed
+            int pkIndex = tableSchema.getPrimaryKeyIndex();
+            if (plan.orderedByPrimaryKey && (range == null || range.column == pkIndex)) {
+                order = null;
+                if (range == null) range = new Range(pkIndex);
+            }
+            rows = openCursor(transaction, range, plan.bindFilter(params), plan.decodedColumns);
         }
 
-        List<RowLayout> rows = tableFile.readAll();
-        for (RowLayout row : rows) {
-            System.out.println(row);
+        // Unsorted rows are returned as they are read, the table is never held in memory.
+        // Sorted ones within the sort memory budget, larger results spill sorted runs next to the table.
+        if (order != null) {
+            rows = sorted(rows, plan.schema, plan.decodedColumns, order);
         }
+        return new RowResults(rows, plan.projection, plan.schema.getColumns().size(), plan.limit);
     }
 
-    private void executeUpdate(String sql) throws IOException {
-        Pattern pattern = Pattern.compile(
-                "UPDATE\\s+(\\w+)\\s+SET\\s+(.+)\\s+WHERE\\s+(\\w+)\\s*=\\s*(\\d+)",
-                Pattern.CASE_INSENSITIVE
-        );
+    /**
+     * Hash aggregation over the matching rows, returned group by group
+     */
+    private ResultCursor executeAggregate(QueryPlan plan, Object[] params) throws IOException {
+        Aggregation aggregation = plan.aggregation;
+        Range range = plan.join == null ? chooseRange(plan, params) : null;
+        RowPredicate filter = plan.bindFilter(params);
+
+        List<Object[]> results;
+        if (aggregation.countsOnly() && plan.join == null && range == null) {
+            // Rows are tested on their pages and counted, none is decoded
+            results = new ArrayList<>(1);
+            results.add(aggregation.countResult(tableFile.count(transaction, filter)));
+        } else {
+            Aggregation.Groups groups = aggregation.newGroups();
+            try (RowCursor cursor = plan.join != null
+                    ? openJoin(plan.join, params, plan.decodedColumns)
+                    : openCursor(transaction, range, filter, plan.decodedColumns)) {
+                RowLayout row;
+                while ((row = cursor.next()) != null) {
+                    groups.add(row);
+                }
+            }
+            results = groups.results();
+        }
 
-        Matcher matcher = pattern.matcher(sql);
-        if (!matcher.matches()) {
-            throw new RuntimeException("Invalid UPDATE syntax");
+        if (aggregation.order != null) {
+            results.sort(aggregation.order);
         }
+        List<Object[]> groups = results.subList(0, Math.min(plan.limit, results.size()));
+        return new ResultCursor() {
+            private int position;
+
+            @Override
+            public Object[] next() {
+                if (position == groups.size()) return null;
+                Object[] result = groups.get(position++);
+                Object[] values = new Object[aggregation.output.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = result[aggregation.output[i]];
+                }
+                return values;
+            }
 
-        String setClause = matcher.group(2);
-        int pkValue = Integer.parseInt(matcher.group(4));
+            @Override
+            public void close() {
+                position = groups.size();
+            }
+        };
+    }
 
-        // Load existing row
-        RowLayout oldRow = tableFile.findByPrimaryKey(pkValue);
-        if (oldRow == null) {
-            throw new RuntimeException("Row not found for id=" + pkValue);
+    /**
+     * The selected columns of the first limit rows of a cursor, all columnCount of them for SELECT *
+     */
+    private static class RowResults implements ResultCursor {
+        private final RowCursor rows;
+        private final int[] projection;
+        private final int columnCount;
+        private int remaining;
+
+        RowResults(RowCursor rows, int[] projection, int columnCount, int limit) {
+            this.rows = rows;
+            this.projection = projection;
+            this.columnCount = columnCount;
+            this.remaining = limit;
         }
 
-        // Parse SET assignments
-        Map<String, Object> updates = new HashMap<>();
-        String[] assignments = setClause.split(",");
+        @Override
+        public Object[] next() throws IOException {
+            if (remaining == 0) return null;
+            RowLayout row = rows.next();
+            if (row == null) return null;
+            remaining--;
+            if (projection.length == 0) {
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = row.getValues(i);
+                }
+                return values;
+            }
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row.getValues(projection[i]);
+            }
+            return values;
+        }
+
+        @Override
+        public void close() {
+            remaining = 0;
+            rows.close();
+        }
+    }
 
-        for (String assignment : assignments) {
-            String[] kv = assignment.split("=");
-            if (kv.length != 2) {
-                throw new RuntimeException("Invalid SET clause");
+    private String executeUpdate(Transaction txn, QueryPlan plan, Object[] params) throws IOException {
+        // Matches are collected first, updated rows move and would confuse an open cursor.
+        // Whole rows are decoded, the new version carries over every column not assigned.
+        List<RowLayout> matches = findMatches(txn, plan, params);
+        int updated = 0;
+        for (RowLayout oldRow : matches) {
+            Object[] updatedData = new Object[tableSchema.getColumns().size()];
+            for (int i = 0; i < updatedData.length; i++) {
+                updatedData[i] = oldRow.getValues(i);
+            }
+            for (int i = 0; i < plan.assignedColumns.length; i++) {
+                updatedData[plan.assignedColumns[i]] = plan.assignedValues[i].value(params);
             }
 
-            String column = kv[0].trim();
-            String rawValue = kv[1].trim();
+            // Delegate to storage engine
+            if (tableFile.update(txn, oldRow.getPrimaryKey(), new RowLayout(tableSchema, updatedData))) {
+                updated++;
+            }
+        }
+        return "Updated " + updated + " rows";
+    }
 
-            updates.put(column.toLowerCase(), parseValue(column, rawValue));
+    private String executeDelete(Transaction txn, QueryPlan plan, Object[] params) throws IOException {
+        int deleted = 0;
+        for (RowLayout row : findMatches(txn, plan, params)) {
+            if (tableFile.delete(txn, row.getPrimaryKey())) {
+                deleted++;
+            }
         }
+        return "Deleted " + deleted + " rows";
+    }
 
-        // Build FULL updated row
-        Object[] updatedData = new Object[tableSchema.getColumns().size()];
+    private List<RowLayout> findMatches(Transaction txn, QueryPlan plan, Object[] params) throws IOException {
+        List<RowLayout> matches = new ArrayList<>();
+        try (RowCursor cursor = openCursor(txn, chooseRange(plan, params), plan.bindFilter(params), null)) {
+            RowLayout row;
+            while ((row = cursor.next()) != null) {
+                matches.add(row);
+            }
+        }
+        return matches;
+    }
 
-        for (int i = 0; i < tableSchema.getColumns().size(); i++) {
-            ColumnDef columnDef = tableSchema.getColumns().get(i);
-            String colName = columnDef.getName().toLowerCase();
+    /**
+     * Joined rows of this table and the joined one, with the columns marked in decode
+     * (all of them when null). The join is picked by what the indexes offer:
+     * <ul>
+     * <li>index nested loop when the WHERE clause narrows one table through an index and the
+     * other has an index on its join key, e.g. a primary key: the few rows of the first are
+     * looked up in the second;</li>
+     * <li>merge join when both tables are joined on their primary keys, which their primary key
+     * indexes return in order, or when the result is ordered by the join key: a table not joined
+     * on its primary key is sorted first. A secondary index is not read whole for its order, it
+     * reads each row on its own and is slower than a hash join over table scans;</li>
+     * <li>otherwise a hash join built on the smaller table, the one narrowed by an index or
+     * else the one with fewer pages.</li>
+     * </ul>
+     */
+    private RowCursor openJoin(JoinPlan join, Object[] params, boolean[] decode) throws IOException {
+        SQLTableInterface right = joined;
+        boolean[] leftDecode = join.decode(decode, true);
+        boolean[] rightDecode = join.decode(decode, false);
+        RowPredicate leftFilter = join.left.bindFilter(params);
+        RowPredicate rightFilter = join.right.bindFilter(params);
+        Range leftRange = chooseRange(join.left, params);
+        Range rightRange = right.chooseRange(join.right, params);
+
+        if (leftRange != null && rightRange == null && right.isIndexed(join.rightKey)) {
+            return new IndexJoin(join, openCursor(transaction, leftRange, leftFilter, leftDecode), true,
+                    key -> right.lookup(join.rightKey, key, rightFilter, rightDecode));
+        }
+        if (rightRange != null && leftRange == null && isIndexed(join.leftKey)) {
+            return new IndexJoin(join, right.openCursor(transaction, rightRange, rightFilter, rightDecode), false,
+                    key -> lookup(join.leftKey, key, leftFilter, leftDecode));
+        }
 
-            if (updates.containsKey(colName)) {
-                updatedData[i] = updates.get(colName);
-            } else {
-                updatedData[i] = oldRow.getValues(i);
+        boolean leftInKeyOrder = join.leftKey == tableSchema.getPrimaryKeyIndex()
+                && (leftRange == null || leftRange.column == join.leftKey);
+        boolean rightInKeyOrder = join.rightKey == right.tableSchema.getPrimaryKeyIndex()
+                && (rightRange == null || rightRange.column == join.rightKey);
+        if ((leftInKeyOrder && rightInKeyOrder) || join.orderedByKey) {
+            RowCursor leftRows = leftInKeyOrder
+                    ? openCursor(transaction, keyRange(join.left, params, join.leftKey), leftFilter, leftDecode)
+                    : sorted(openCursor(transaction, leftRange, leftFilter, leftDecode), join.leftSchema,
+                    leftDecode, join.keyOrder(true));
+            RowCursor rightRows;
+            try {
+                rightRows = rightInKeyOrder
+                        ? right.openCursor(transaction, right.keyRange(join.right, params, join.rightKey), rightFilter,
+                        rightDecode)
+                        : sorted(right.openCursor(transaction, rightRange, rightFilter, rightDecode), join.rightSchema,
+                        rightDecode, join.keyOrder(false));
+            } catch (IOException | RuntimeException e) {
+                leftRows.close();
+                throw e;
             }
+            return new MergeJoin(join, leftRows, rightRows);
         }
 
-        int pkIndex = tableSchema.getPrimaryKeyIndex();
-        updatedData[pkIndex] = pkValue;
+        boolean buildLeft = leftRange != null && rightRange == null
+                || (leftRange == null) == (rightRange == null)
+                && tableFile.getBufferPool().pageCount() <= right.tableFile.getBufferPool().pageCount();
+        RowCursor leftRows = openCursor(transaction, leftRange, leftFilter, leftDecode);
+        RowCursor rightRows;
+        try {
+            rightRows = right.openCursor(transaction, rightRange, rightFilter, rightDecode);
+        } catch (IOException | RuntimeException e) {
+            leftRows.close();
+            throw e;
+        }
+        return buildLeft
+                ? new HashJoin(join, true, leftRows, leftDecode, rightRows, rightDecode, spillDirectory())
+                : new HashJoin(join, false, rightRows, rightDecode, leftRows, leftDecode, spillDirectory());
+    }
+
+    /**
+     * Whether rows can be found by a column's value through an index, the primary key's or a secondary one
+     */
+    private boolean isIndexed(int column) {
+        return column == tableSchema.getPrimaryKeyIndex() || tableFile.getIndexOnColumn(column) != null;
+    }
 
-        // Delegate to storage engine
-        tableFile.update(pkValue, new RowLayout(tableSchema, updatedData));
+    /**
+     * The rows with one value in an indexed column that the filter accepts
+     */
+    private RowCursor lookup(int column, Object key, RowPredicate filter, boolean[] decode) throws IOException {
+        Range range = new Range(column);
+        range.low = key;
+        range.high = key;
+        return openCursor(transaction, range, filter, decode);
     }
 
-    private void executeSelectById(String sql) throws IOException {
-        Pattern pattern = Pattern.compile(
-                "SELECT\\s+\\*\\s+FROM\\s+(\\w+)\\s+WHERE\\s+(\\w+)\\s*=\\s*(\\d+)",
-                Pattern.CASE_INSENSITIVE
-        );
+    /**
+     * The rows of a cursor in the given order, sorted within the sort memory budget
+     */
+    private RowCursor sorted(RowCursor rows, TableSchema schema, boolean[] decode, Comparator<RowLayout> order)
+            throws IOException {
+        ExternalSort sort = new ExternalSort(schema, decode, order, spillDirectory());
+        try (rows) {
+            RowLayout row;
+            while ((row = rows.next()) != null) {
+                sort.add(row);
+            }
+            RowCursor sorted = sort.sorted();
+            return new RowCursor() {
+                @Override
+                public RowLayout next() throws IOException {
+                    return sorted.next();
+                }
 
-        Matcher matcher = pattern.matcher(sql);
-        if (!matcher.matches()) {
-            throw new RuntimeException("Invalid SELECT syntax");
+                @Override
+                public void close() {
+                    sorted.close();
+                    sort.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            sort.close();
+            throw e;
         }
+    }
 
-        String columnName = matcher.group(2).toLowerCase();
-        int id = Integer.parseInt(matcher.group(3));
+    /**
+     * Where sorts and joins put the rows they spill, next to the table
+     */
+    private Path spillDirectory() {
+        return tableFile.getFilePath().toAbsolutePath().getParent();
+    }
 
-        // Validate primary key column
-        ColumnDef pkColumn = tableSchema.getColumns()
-                .get(tableSchema.getPrimaryKeyIndex());
+    /**
+     * Full scan when there is no range, otherwise the index on the range's column.
+     * Only rows the filter accepts are decoded and returned, and of those only the
+     * columns marked in decode (null for all). Rows are read as txn sees them.
+     */
+    private RowCursor openCursor(Transaction txn, Range range, RowPredicate filter, boolean[] decode)
+            throws IOException {
+        if (range == null) {
+            return tableFile.scan(txn, filter, decode);
+        }
+        if (range.column == tableSchema.getPrimaryKeyIndex()) {
+            return tableFile.scanPrimaryKeyRange(txn, range.low, range.lowInclusive, range.high, range.highInclusive,
+                    filter, decode);
+        }
+        SecondaryIndex index = tableFile.getIndexOnColumn(range.column);
+        return tableFile.scanIndex(txn, index.getName(), range.low, range.lowInclusive, range.high,
+                range.highInclusive, filter, decode);
+    }
 
-        if (!pkColumn.getName().equalsIgnoreCase(columnName)) {
-            throw new RuntimeException("Only primary-key lookup is supported");
+    /**
+     * The first column the WHERE clause bounds that has an index (the primary key is
+     * listed first), with the tightest range the clause gives it. Null means full scan.
+     * The rows an index returns are still run through the whole WHERE clause.
+     */
+    private Range chooseRange(QueryPlan plan, Object[] params) {
+        for (int column : plan.rangeColumns) {
+            if (isIndexed(column)) return keyRange(plan, params, column);
         }
+        return null;
+    }
 
-        RowLayout row = tableFile.findByPrimaryKey(id);
-        System.out.println(row);
+    /**
+     * The tightest range the WHERE clause gives an indexed column, open when it gives none;
+     * scanning it returns rows in the column's order
+     */
+    private Range keyRange(QueryPlan plan, Object[] params, int column) {
+        Range range = new Range(column);
+        ColumnType type = tableSchema.getColumns().get(column).getType();
+        for (QueryPlan.Bound bound : plan.bounds) {
+            if (bound.column() != column) continue;
+            Object value = bound.value().value(params);
+            switch (bound.operator()) {
+                case EQUALS -> {
+                    range.lowerBound(type, value, true);
+                    range.upperBound(type, value, true);
+                }
+                case LESS -> range.upperBound(type, value, false);
+                case LESS_EQUALS -> range.upperBound(type, value, true);
+                case GREATER -> range.lowerBound(type, value, false);
+                case GREATER_EQUALS -> range.lowerBound(type, value, true);
+                case NOT_EQUALS -> {
+                }
+            }
+        }
+        return range;
     }
 
-    private void executeDelete(String sql) throws IOException {
-        Pattern pattern = Pattern.compile(
-                "DELETE\\s+FROM\\s+\\w+\\s+WHERE\\s+ID\\s*=\\s*(\\d+)",
-                Pattern.CASE_INSENSITIVE
-        );
+    /**
+     * Bounds on one column, null meaning open
+     */
+    private static class Range {
+        private final int column;
+        private Object low, high;
+        private boolean lowInclusive = true, highInclusive = true;
 
-        Matcher matcher = pattern.matcher(sql);
-        if (!matcher.find()) {
-            throw new RuntimeException("Invalid DELETE syntax");
+        Range(int column) {
+            this.column = column;
+        }
+
+        void lowerBound(ColumnType type, Object value, boolean inclusive) {
+            int cmp = low == null ? 1 : KeyCodec.compare(type, value, low);
+            if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                low = value;
+                lowInclusive = inclusive;
+            }
         }
 
-        int id = Integer.parseInt(matcher.group(1));
-        tableFile.delete(id);
+        void upperBound(ColumnType type, Object value, boolean inclusive) {
+            int cmp = high == null ? -1 : KeyCodec.compare(type, value, high);
+            if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                high = value;
+                highInclusive = inclusive;
+            }
+        }
+    }
+
+    /**
+     * A result row as the shell prints it
+     */
+    private static String format(Object[] values) {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) stringBuilder.append(", ");
+            stringBuilder.append(values[i] == null ? "NULL" : values[i]);
+        }
+        return stringBuilder.toString();
     }
 
     /**
@@ -219,55 +642,17 @@ public class SQLTableInterface {
     }
 
     /**
-     * Parse a string value to Object (handles quotes and numbers)
+     * Parse a CSV field based on column definition
      */
-    private Object parseValueToObject(String val) {
-        val = val.trim();
-
-        // Handle quoted strings
-        if ((val.startsWith("'") && val.endsWith("'")) ||
-                (val.startsWith("\"") && val.endsWith("\""))) {
-            return val.substring(1, val.length() - 1);
-        }
-
-        // Try to parse as integer
-        try {
-            return Integer.parseInt(val);
-        } catch (NumberFormatException e) {
-            // Try to parse as double
-            try {
-                return Double.parseDouble(val);
-            } catch (NumberFormatException e2) {
-                // Return as string
-                return val;
-            }
-        }
-    }
-
-    /**
-     * Parse value based on column definition
-     */
-    private Object parseValue(String columnName, String rawValue) {
+    private Object parseValue(ColumnDef column, String rawValue) {
         rawValue = rawValue.trim();
 
-        ColumnDef column = tableSchema.getColumns()
-                .stream()
-                .filter(c -> c.getName().equalsIgnoreCase(columnName))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Unknown column: " + columnName));
-
         // Remove quotes if present
         if ((rawValue.startsWith("'") && rawValue.endsWith("'")) ||
                 (rawValue.startsWith("\"") && rawValue.endsWith("\""))) {
             rawValue = rawValue.substring(1, rawValue.length() - 1);
         }
 
-        return switch (column.getType()) {
-            case INT -> Integer.parseInt(rawValue);
-            case STRING -> rawValue;
-            case BOOLEAN -> Boolean.parseBoolean(rawValue);
-            case FLOAT -> Float.parseFloat(rawValue);
-            case DOUBLE -> Double.parseDouble(rawValue);
-        };
+        return QueryPlan.convert(column, rawValue);
     }
 }
@@ -0,0 +1,110 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.simple_rdms.utils.Constants.PAGE_SIZE;
+
+/**
+ * Rows a query sets aside on disk while it runs: the runs of a sort, the partitions of a join.
+ * <p>
+ * A file is a sequence of true followed by a row, ended by false. Only the decoded columns
+ * of a row are written, each by its type, strings as a length and their UTF-8 bytes;
+ * the others read back as null. Files are read and written in page-sized blocks.
+ */
+final class SpillFile {
+
+    private SpillFile() {
+    }
+
+    /**
+     * A new empty file in directory, the caller deletes it
+     */
+    static Path create(Path directory, String prefix) throws IOException {
+        return Files.createTempFile(directory, prefix, ".run");
+    }
+
+    static DataOutputStream openWrite(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), PAGE_SIZE));
+    }
+
+    static DataInputStream openRead(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), PAGE_SIZE));
+    }
+
+    /**
+     * decode marks the columns the row holds, null for all of them
+     */
+    static void write(DataOutputStream out, TableSchema schema, boolean[] decode, RowLayout row) throws IOException {
+        out.writeBoolean(true);
+        for (int i = 0; i < schema.getColumns().size(); i++) {
+            if (decode != null && !decode[i]) continue;
+            Object value = row.getValues(i);
+            switch (schema.getColumns().get(i).getType()) {
+                case INT -> out.writeInt((Integer) value);
+                case FLOAT -> out.writeFloat((Float) value);
+                case DOUBLE -> out.writeDouble((Double) value);
+                case BOOLEAN -> out.writeBoolean((Boolean) value);
+                case STRING -> {
+                    byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    static void end(DataOutputStream out) throws IOException {
+        out.writeBoolean(false);
+    }
+
+    /**
+     * The next row of a file, null at its end
+     */
+    static RowLayout read(DataInputStream in, TableSchema schema, boolean[] decode) throws IOException {
+        if (!in.readBoolean()) return null;
+        Object[] values = new Object[schema.getColumns().size()];
+        for (int i = 0; i < values.length; i++) {
+            if (decode != null && !decode[i]) continue;
+            values[i] = switch (schema.getColumns().get(i).getType()) {
+                case INT -> in.readInt();
+                case FLOAT -> in.readFloat();
+                case DOUBLE -> in.readDouble();
+                case BOOLEAN -> in.readBoolean();
+                case STRING -> {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    yield new String(bytes, StandardCharsets.UTF_8);
+                }
+            };
+        }
+        return new RowLayout(schema, values);
+    }
+
+    /**
+     * Rough heap size of a row: object headers plus each decoded value
+     */
+    static long estimateSize(TableSchema schema, RowLayout row) {
+        long size = 48;
+        for (int i = 0; i < schema.getColumns().size(); i++) {
+            Object value = row.getValues(i);
+            if (value == null) {
+                size += 8;
+            } else if (value instanceof String string) {
+                size += 48 + string.length();
+            } else {
+                size += 24;
+            }
+        }
+        return size;
+    }
+}
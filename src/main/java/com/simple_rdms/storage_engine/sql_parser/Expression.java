@@ -0,0 +1,89 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+import java.util.List;
+
+/**
+ * WHERE clause tree. Comparisons always have the column on the left,
+ * "5 < id" is parsed as "id > 5".
+ */
+public sealed interface Expression {
+
+    record Comparison(String column, Operator operator, Literal value) implements Expression {
+    }
+
+    /**
+     * low <= column <= high
+     */
+    record Between(String column, Literal low, Literal high) implements Expression {
+    }
+
+    /**
+     * column LIKE pattern, % matching any run of characters and _ one character
+     */
+    record Like(String column, Literal pattern) implements Expression {
+    }
+
+    record In(String column, List<Literal> values) implements Expression {
+    }
+
+    /**
+     * column IS NULL; IS NOT NULL parses as Not(IsNull)
+     */
+    record IsNull(String column) implements Expression {
+    }
+
+    record And(Expression left, Expression right) implements Expression {
+    }
+
+    record Or(Expression left, Expression right) implements Expression {
+    }
+
+    record Not(Expression operand) implements Expression {
+    }
+
+    /**
+     * A constant as written; text is what the executor converts to the column type.
+     * A ? placeholder is a literal with a parameter number (0 for the first ?) and no value.
+     */
+    record Literal(Object value, String text, int parameter) {
+
+        public Literal(Object value, String text) {
+            this(value, text, -1);
+        }
+
+        public static Literal parameter(int parameter) {
+            return new Literal(null, "?", parameter);
+        }
+
+        public boolean isParameter() {
+            return parameter >= 0;
+        }
+    }
+
+    enum Operator {
+        EQUALS("="), NOT_EQUALS("!="), LESS("<"), LESS_EQUALS("<="), GREATER(">"), GREATER_EQUALS(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * Same comparison with the operands swapped: a < b is b > a
+         */
+        public Operator flip() {
+            return switch (this) {
+                case LESS -> GREATER;
+                case LESS_EQUALS -> GREATER_EQUALS;
+                case GREATER -> LESS;
+                case GREATER_EQUALS -> LESS_EQUALS;
+                default -> this;
+            };
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits a statement into tokens in a single pass over its characters
+ */
+public class Lexer {
+    private static final Set<String> KEYWORDS = Set.of(
+            "SELECT", "FROM", "WHERE", "AND", "OR", "NOT", "BETWEEN", "LIKE", "IN", "IS", "NULL", "ORDER", "BY", "ASC", "DESC", "LIMIT",
+            "INSERT", "INTO", "VALUES", "UPDATE", "SET", "DELETE", "COPY", "HEADER",
+            "CREATE", "DROP", "INDEX", "ON", "TRUE", "FALSE", "PREPARE", "EXECUTE", "AS", "GROUP",
+            "BEGIN", "TRANSACTION", "COMMIT", "ROLLBACK", "JOIN", "INNER");
+
+    private final String sql;
+    private int position;
+
+    public Lexer(String sql) {
+        this.sql = sql;
+    }
+
+    public List<Token> tokenize() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = next();
+            tokens.add(token);
+        } while (token.type() != TokenType.EOF);
+        return tokens;
+    }
+
+    private Token next() {
+        while (position < sql.length() && Character.isWhitespace(sql.charAt(position))) {
+            position++;
+        }
+        if (position == sql.length()) {
+            return new Token(TokenType.EOF, "", position);
+        }
+
+        int start = position;
+        char c = sql.charAt(position);
+
+        if (Character.isLetter(c) || c == '_') {
+            // A qualified column such as users.id is one identifier
+            while (position < sql.length()
+                    && (Character.isLetterOrDigit(sql.charAt(position)) || sql.charAt(position) == '_'
+                    || (sql.charAt(position) == '.' && position + 1 < sql.length()
+                    && (Character.isLetter(sql.charAt(position + 1)) || sql.charAt(position + 1) == '_')))) {
+                position++;
+            }
+            String word = sql.substring(start, position);
+            String upper = word.toUpperCase();
+            return KEYWORDS.contains(upper)
+                    ? new Token(TokenType.KEYWORD, upper, start)
+                    : new Token(TokenType.IDENTIFIER, word, start);
+        }
+
+        if (Character.isDigit(c)) {
+            while (position < sql.length()
+                    && (Character.isDigit(sql.charAt(position)) || sql.charAt(position) == '.')) {
+                position++;
+            }
+            return new Token(TokenType.NUMBER, sql.substring(start, position), start);
+        }
+
+        if (c == '\'' || c == '"') {
+            return string(c);
+        }
+
+        position++;
+        return switch (c) {
+            case '?' -> new Token(TokenType.PARAMETER, "?", start);
+            case ',' -> new Token(TokenType.COMMA, ",", start);
+            case '(' -> new Token(TokenType.LEFT_PAREN, "(", start);
+            case ')' -> new Token(TokenType.RIGHT_PAREN, ")", start);
+            case '*' -> new Token(TokenType.STAR, "*", start);
+            case ';' -> new Token(TokenType.SEMICOLON, ";", start);
+            case '-' -> new Token(TokenType.MINUS, "-", start);
+            case '=' -> new Token(TokenType.EQUALS, "=", start);
+            case '<' -> {
+                if (match('=')) yield new Token(TokenType.LESS_EQUALS, "<=", start);
+                if (match('>')) yield new Token(TokenType.NOT_EQUALS, "<>", start);
+                yield new Token(TokenType.LESS, "<", start);
+            }
+            case '>' -> match('=')
+                    ? new Token(TokenType.GREATER_EQUALS, ">=", start)
+                    : new Token(TokenType.GREATER, ">", start);
+            case '!' -> {
+                if (match('=')) yield new Token(TokenType.NOT_EQUALS, "!=", start);
+                throw new RuntimeException("Unexpected character '!' at position " + start);
+            }
+            default -> throw new RuntimeException("Unexpected character '" + c + "' at position " + start);
+        };
+    }
+
+    /**
+     * Quoted string; the quote character is escaped by doubling it: 'O''Brien'
+     */
+    private Token string(char quote) {
+        int start = position++;
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            if (position == sql.length()) {
+                throw new RuntimeException("Unterminated string starting at position " + start);
+            }
+            char c = sql.charAt(position++);
+            if (c == quote) {
+                if (!match(quote)) break;
+            }
+            text.append(c);
+        }
+        return new Token(TokenType.STRING, text.toString(), start);
+    }
+
+    /**
+     * Statement text with case and spacing made uniform, for statements that differ
+     * only in those to share a cache entry. Identifiers are case-insensitive, so they
+     * are lower-cased; a trailing semicolon is dropped.
+     */
+    public static String normalize(List<Token> tokens) {
+        StringBuilder normalized = new StringBuilder();
+        for (Token token : tokens) {
+            if (token.type() == TokenType.EOF || token.type() == TokenType.SEMICOLON) continue;
+            if (!normalized.isEmpty()) normalized.append(' ');
+            switch (token.type()) {
+                case IDENTIFIER -> normalized.append(token.text().toLowerCase());
+                case STRING -> normalized.append('\'').append(token.text().replace("'", "''")).append('\'');
+                default -> normalized.append(token.text());
+            }
+        }
+        return normalized.toString();
+    }
+
+    private boolean match(char expected) {
+        if (position < sql.length() && sql.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+}
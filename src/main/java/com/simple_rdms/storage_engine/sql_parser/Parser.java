@@ -0,0 +1,434 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+import com.simple_rdms.storage_engine.sql_parser.Expression.Literal;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Operator;
+import com.simple_rdms.storage_engine.sql_parser.Statement.Assignment;
+import com.simple_rdms.storage_engine.sql_parser.Statement.Aggregate;
+import com.simple_rdms.storage_engine.sql_parser.Statement.OrderBy;
+import com.simple_rdms.storage_engine.sql_parser.Statement.SelectItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive descent parser, one method per grammar rule:
+ * <pre>
+ * select     := SELECT (* | item {, item}) FROM table [alias] [[INNER] JOIN table [alias] ON column = column]
+ *               [WHERE or] [GROUP BY column {, column}]
+ *               [ORDER BY item [ASC|DESC] {, item [ASC|DESC]}] [LIMIT number]
+ * alias      := [AS] name
+ * item       := column | COUNT ( * ) | (COUNT | SUM | AVG | MIN | MAX) ( column )
+ * insert     := INSERT INTO table VALUES tuple {, tuple}
+ * update     := UPDATE table SET column = literal {, column = literal} [WHERE or]
+ * delete     := DELETE FROM table [WHERE or]
+ * copy       := COPY table FROM string [HEADER]
+ * index      := CREATE INDEX name ON table ( column ) | DROP INDEX name ON table
+ * prepare    := PREPARE name AS statement
+ * execute    := EXECUTE name [( literal {, literal} )]
+ * transaction := BEGIN [TRANSACTION] | COMMIT | ROLLBACK
+ * or         := and {OR and}
+ * and        := not {AND not}
+ * not        := NOT not | ( or ) | comparison
+ * comparison := column op literal | literal op column | column IS [NOT] NULL
+ *             | column [NOT] BETWEEN literal AND literal | column [NOT] LIKE literal
+ *             | column [NOT] IN ( literal {, literal} )
+ * </pre>
+ * A literal is a number, a quoted string, TRUE, FALSE or a ? parameter.
+ * A column may be qualified by its table name or alias: users.id.
+ * Any statement may end with a semicolon.
+ */
+public class Parser {
+    private final List<Token> tokens;
+    private int current;
+    // ? placeholders seen so far, numbering them in order of appearance
+    private int parameters;
+
+    private Parser(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    public static Statement parse(String sql) {
+        return parse(new Lexer(sql).tokenize());
+    }
+
+    public static Statement parse(List<Token> tokens) {
+        Parser parser = new Parser(tokens);
+        Statement statement = parser.statement();
+        parser.match(TokenType.SEMICOLON);
+        parser.expect(TokenType.EOF, "end of statement");
+        return statement;
+    }
+
+    private Statement statement() {
+        Token token = peek();
+        if (token.isKeyword("SELECT")) return select();
+        if (token.isKeyword("INSERT")) return insert();
+        if (token.isKeyword("UPDATE")) return update();
+        if (token.isKeyword("DELETE")) return delete();
+        if (token.isKeyword("COPY")) return copy();
+        if (token.isKeyword("CREATE")) return createIndex();
+        if (token.isKeyword("DROP")) return dropIndex();
+        if (token.isKeyword("PREPARE")) return prepare();
+        if (token.isKeyword("EXECUTE")) return execute();
+        if (token.isKeyword("BEGIN")) {
+            advance();
+            matchKeyword("TRANSACTION");
+            return new Statement.Begin();
+        }
+        if (matchKeyword("COMMIT")) return new Statement.Commit();
+        if (matchKeyword("ROLLBACK")) return new Statement.Rollback();
+        throw error("a statement");
+    }
+
+    private Statement select() {
+        expectKeyword("SELECT");
+        List<SelectItem> items = new ArrayList<>();
+        if (!match(TokenType.STAR)) {
+            do {
+                items.add(selectItem());
+            } while (match(TokenType.COMMA));
+        }
+
+        expectKeyword("FROM");
+        String table = identifier();
+        String alias = alias();
+        Statement.Join join = null;
+        if (matchKeyword("INNER")) {
+            expectKeyword("JOIN");
+            join = join();
+        } else if (matchKeyword("JOIN")) {
+            join = join();
+        }
+        Expression where = matchKeyword("WHERE") ? or() : null;
+
+        List<String> groupBy = new ArrayList<>();
+        if (matchKeyword("GROUP")) {
+            expectKeyword("BY");
+            do {
+                groupBy.add(identifier());
+            } while (match(TokenType.COMMA));
+        }
+
+        List<OrderBy> orderBy = new ArrayList<>();
+        if (matchKeyword("ORDER")) {
+            expectKeyword("BY");
+            do {
+                SelectItem item = selectItem();
+                boolean descending = matchKeyword("DESC");
+                if (!descending) matchKeyword("ASC");
+                orderBy.add(new OrderBy(item, descending));
+            } while (match(TokenType.COMMA));
+        }
+
+        Integer limit = null;
+        if (matchKeyword("LIMIT")) {
+            Token number = expect(TokenType.NUMBER, "a row count");
+            try {
+                limit = Integer.parseInt(number.text());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid LIMIT " + number.text() + " at position " + number.position());
+            }
+        }
+        return new Statement.Select(table, alias, join, items, where, groupBy, orderBy, limit);
+    }
+
+    private Statement.Join join() {
+        String table = identifier();
+        String alias = alias();
+        expectKeyword("ON");
+        String left = identifier();
+        expect(TokenType.EQUALS, "'='");
+        return new Statement.Join(table, alias, left, identifier());
+    }
+
+    /**
+     * The name a table is given after FROM or JOIN, null when it has none
+     */
+    private String alias() {
+        if (matchKeyword("AS")) return identifier();
+        return peek().type() == TokenType.IDENTIFIER ? advance().text() : null;
+    }
+
+    private SelectItem selectItem() {
+        Token name = expect(TokenType.IDENTIFIER, "a name");
+        if (!match(TokenType.LEFT_PAREN)) {
+            return new SelectItem(name.text(), null);
+        }
+
+        Aggregate function;
+        try {
+            function = Aggregate.valueOf(name.text().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown function " + name.text() + " at position " + name.position());
+        }
+        String column = null;
+        if (function != Aggregate.COUNT || !match(TokenType.STAR)) {
+            column = identifier();
+        }
+        expect(TokenType.RIGHT_PAREN, "')'");
+        return new SelectItem(column, function);
+    }
+
+    private Statement insert() {
+        expectKeyword("INSERT");
+        expectKeyword("INTO");
+        String table = identifier();
+        expectKeyword("VALUES");
+
+        List<List<Literal>> rows = new ArrayList<>();
+        do {
+            expect(TokenType.LEFT_PAREN, "'('");
+            List<Literal> values = new ArrayList<>();
+            do {
+                values.add(literal());
+            } while (match(TokenType.COMMA));
+            expect(TokenType.RIGHT_PAREN, "')'");
+            rows.add(values);
+        } while (match(TokenType.COMMA));
+        return new Statement.Insert(table, rows);
+    }
+
+    private Statement update() {
+        expectKeyword("UPDATE");
+        String table = identifier();
+        expectKeyword("SET");
+
+        List<Assignment> assignments = new ArrayList<>();
+        do {
+            String column = identifier();
+            expect(TokenType.EQUALS, "'='");
+            assignments.add(new Assignment(column, literal()));
+        } while (match(TokenType.COMMA));
+
+        Expression where = matchKeyword("WHERE") ? or() : null;
+        return new Statement.Update(table, assignments, where);
+    }
+
+    private Statement delete() {
+        expectKeyword("DELETE");
+        expectKeyword("FROM");
+        String table = identifier();
+        Expression where = matchKeyword("WHERE") ? or() : null;
+        return new Statement.Delete(table, where);
+    }
+
+    private Statement copy() {
+        expectKeyword("COPY");
+        String table = identifier();
+        expectKeyword("FROM");
+        String fileName = expect(TokenType.STRING, "a file name").text();
+        return new Statement.Copy(table, fileName, matchKeyword("HEADER"));
+    }
+
+    private Statement createIndex() {
+        expectKeyword("CREATE");
+        expectKeyword("INDEX");
+        String index = identifier();
+        expectKeyword("ON");
+        String table = identifier();
+        expect(TokenType.LEFT_PAREN, "'('");
+        String column = identifier();
+        expect(TokenType.RIGHT_PAREN, "')'");
+        return new Statement.CreateIndex(index, table, column);
+    }
+
+    private Statement dropIndex() {
+        expectKeyword("DROP");
+        expectKeyword("INDEX");
+        String index = identifier();
+        expectKeyword("ON");
+        return new Statement.DropIndex(index, identifier());
+    }
+
+    private Statement prepare() {
+        expectKeyword("PREPARE");
+        String name = identifier();
+        expectKeyword("AS");
+        int start = current;
+        if (peek().isKeyword("PREPARE") || peek().isKeyword("EXECUTE") || peek().isKeyword("BEGIN")
+                || peek().isKeyword("COMMIT") || peek().isKeyword("ROLLBACK")) {
+            throw error("a statement");
+        }
+        Statement statement = statement();
+        return new Statement.Prepare(name, statement, Lexer.normalize(tokens.subList(start, current)));
+    }
+
+    private Statement execute() {
+        expectKeyword("EXECUTE");
+        String name = identifier();
+        List<Literal> arguments = new ArrayList<>();
+        if (match(TokenType.LEFT_PAREN)) {
+            if (!match(TokenType.RIGHT_PAREN)) {
+                do {
+                    arguments.add(literal());
+                } while (match(TokenType.COMMA));
+                expect(TokenType.RIGHT_PAREN, "')'");
+            }
+        }
+        for (Literal argument : arguments) {
+            if (argument.isParameter()) throw new RuntimeException("EXECUTE arguments cannot be parameters");
+        }
+        return new Statement.Execute(name, arguments);
+    }
+
+    private Expression or() {
+        Expression left = and();
+        while (matchKeyword("OR")) {
+            left = new Expression.Or(left, and());
+        }
+        return left;
+    }
+
+    private Expression and() {
+        Expression left = not();
+        while (matchKeyword("AND")) {
+            left = new Expression.And(left, not());
+        }
+        return left;
+    }
+
+    private Expression not() {
+        if (matchKeyword("NOT")) {
+            return new Expression.Not(not());
+        }
+        if (match(TokenType.LEFT_PAREN)) {
+            Expression inner = or();
+            expect(TokenType.RIGHT_PAREN, "')'");
+            return inner;
+        }
+        return comparison();
+    }
+
+    private Expression comparison() {
+        if (peek().type() != TokenType.IDENTIFIER) {
+            // Constant on the left: 5 < id
+            Literal value = literal();
+            Operator operator = operator();
+            return new Expression.Comparison(identifier(), operator.flip(), value);
+        }
+
+        String column = identifier();
+        if (matchKeyword("IS")) {
+            boolean negated = matchKeyword("NOT");
+            expectKeyword("NULL");
+            Expression isNull = new Expression.IsNull(column);
+            return negated ? new Expression.Not(isNull) : isNull;
+        }
+
+        boolean negated = matchKeyword("NOT");
+        Expression expression;
+        if (matchKeyword("BETWEEN")) {
+            Literal low = literal();
+            expectKeyword("AND");
+            expression = new Expression.Between(column, low, literal());
+        } else if (matchKeyword("LIKE")) {
+            expression = new Expression.Like(column, literal());
+        } else if (matchKeyword("IN")) {
+            expect(TokenType.LEFT_PAREN, "'('");
+            List<Literal> values = new ArrayList<>();
+            do {
+                values.add(literal());
+            } while (match(TokenType.COMMA));
+            expect(TokenType.RIGHT_PAREN, "')'");
+            expression = new Expression.In(column, values);
+        } else if (negated) {
+            throw error("BETWEEN, LIKE or IN");
+        } else {
+            Operator operator = operator();
+            return new Expression.Comparison(column, operator, literal());
+        }
+        return negated ? new Expression.Not(expression) : expression;
+    }
+
+    private Operator operator() {
+        Operator operator = switch (peek().type()) {
+            case EQUALS -> Operator.EQUALS;
+            case NOT_EQUALS -> Operator.NOT_EQUALS;
+            case LESS -> Operator.LESS;
+            case LESS_EQUALS -> Operator.LESS_EQUALS;
+            case GREATER -> Operator.GREATER;
+            case GREATER_EQUALS -> Operator.GREATER_EQUALS;
+            default -> throw error("a comparison operator");
+        };
+        advance();
+        return operator;
+    }
+
+    private Literal literal() {
+        Token token = peek();
+        if (token.type() == TokenType.STRING) {
+            advance();
+            return new Literal(token.text(), token.text());
+        }
+        if (token.type() == TokenType.NUMBER) {
+            advance();
+            return number(token.text());
+        }
+        if (match(TokenType.MINUS)) {
+            return number("-" + expect(TokenType.NUMBER, "a number").text());
+        }
+        if (match(TokenType.PARAMETER)) {
+            return Literal.parameter(parameters++);
+        }
+        if (token.isKeyword("TRUE") || token.isKeyword("FALSE")) {
+            advance();
+            return new Literal(token.isKeyword("TRUE"), token.text().toLowerCase());
+        }
+        throw error("a value");
+    }
+
+    private Literal number(String text) {
+        try {
+            return text.contains(".")
+                    ? new Literal(Double.parseDouble(text), text)
+                    : new Literal(Integer.parseInt(text), text);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid number " + text + " at position " + previous().position());
+        }
+    }
+
+    private String identifier() {
+        return expect(TokenType.IDENTIFIER, "a name").text();
+    }
+
+    private Token peek() {
+        return tokens.get(current);
+    }
+
+    private Token previous() {
+        return tokens.get(current - 1);
+    }
+
+    private Token advance() {
+        Token token = tokens.get(current);
+        if (token.type() != TokenType.EOF) current++;
+        return token;
+    }
+
+    private boolean match(TokenType type) {
+        if (peek().type() != type) return false;
+        advance();
+        return true;
+    }
+
+    private boolean matchKeyword(String keyword) {
+        if (!peek().isKeyword(keyword)) return false;
+        advance();
+        return true;
+    }
+
+    private Token expect(TokenType type, String description) {
+        if (peek().type() != type) throw error(description);
+        return advance();
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!matchKeyword(keyword)) throw error(keyword);
+    }
+
+    private RuntimeException error(String expected) {
+        Token token = peek();
+        return new RuntimeException("Syntax error at position " + token.position()
+                + ": expected " + expected + " but found " + token);
+    }
+}
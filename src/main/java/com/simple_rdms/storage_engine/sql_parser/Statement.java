@@ -0,0 +1,120 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+import com.simple_rdms.storage_engine.sql_parser.Expression.Literal;
+
+import java.util.List;
+
+/**
+ * Parsed SQL statement. A null where means every row.
+ */
+public sealed interface Statement {
+
+    /**
+     * Table the statement reads or writes, null for EXECUTE which names a prepared statement instead
+     * and for the transaction statements
+     */
+    String tableName();
+
+    /**
+     * Empty items means SELECT *, empty groupBy means no GROUP BY, a null limit means no limit.
+     * A null alias means the table is referred to by its name, a null join means one table.
+     */
+    record Select(String tableName, String alias, Join join, List<SelectItem> items, Expression where,
+                  List<String> groupBy, List<OrderBy> orderBy, Integer limit) implements Statement {
+    }
+
+    /**
+     * JOIN tableName [alias] ON leftColumn = rightColumn, the columns as written in the ON clause
+     */
+    record Join(String tableName, String alias, String leftColumn, String rightColumn) {
+    }
+
+    /**
+     * A column, or an aggregate of a column when aggregate is set; COUNT(*) has a null column
+     */
+    record SelectItem(String column, Aggregate aggregate) {
+
+        @Override
+        public String toString() {
+            if (aggregate == null) return column;
+            return aggregate + "(" + (column == null ? "*" : column) + ")";
+        }
+    }
+
+    enum Aggregate {
+        COUNT, SUM, AVG, MIN, MAX
+    }
+
+    record OrderBy(SelectItem item, boolean descending) {
+    }
+
+    record Insert(String tableName, List<List<Literal>> rows) implements Statement {
+    }
+
+    record Update(String tableName, List<Assignment> assignments, Expression where) implements Statement {
+    }
+
+    record Assignment(String column, Literal value) {
+    }
+
+    record Delete(String tableName, Expression where) implements Statement {
+    }
+
+    record Copy(String tableName, String fileName, boolean header) implements Statement {
+    }
+
+    record CreateIndex(String indexName, String tableName, String columnName) implements Statement {
+    }
+
+    record DropIndex(String indexName, String tableName) implements Statement {
+    }
+
+    /**
+     * PREPARE name AS statement; sql is the statement's normalized text
+     */
+    record Prepare(String name, Statement statement, String sql) implements Statement {
+
+        @Override
+        public String tableName() {
+            return statement.tableName();
+        }
+    }
+
+    /**
+     * EXECUTE name(arguments), one argument per ? of the prepared statement
+     */
+    record Execute(String name, List<Literal> arguments) implements Statement {
+
+        @Override
+        public String tableName() {
+            return null;
+        }
+    }
+
+    /**
+     * BEGIN [TRANSACTION]: the following statements run in one transaction until COMMIT or ROLLBACK
+     */
+    record Begin() implements Statement {
+
+        @Override
+        public String tableName() {
+            return null;
+        }
+    }
+
+    record Commit() implements Statement {
+
+        @Override
+        public String tableName() {
+            return null;
+        }
+    }
+
+    record Rollback() implements Statement {
+
+        @Override
+        public String tableName() {
+            return null;
+        }
+    }
+}
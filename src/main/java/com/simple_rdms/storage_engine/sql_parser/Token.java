@@ -0,0 +1,17 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+/**
+ * One lexeme of a statement. Keywords are upper-cased, string literals hold their
+ * unquoted contents, position is the offset of the first character in the statement.
+ */
+public record Token(TokenType type, String text, int position) {
+
+    public boolean isKeyword(String keyword) {
+        return type == TokenType.KEYWORD && text.equals(keyword);
+    }
+
+    @Override
+    public String toString() {
+        return type == TokenType.EOF ? "end of statement" : "'" + text + "'";
+    }
+}
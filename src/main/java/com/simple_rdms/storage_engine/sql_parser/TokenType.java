@@ -0,0 +1,8 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+public enum TokenType {
+    KEYWORD, IDENTIFIER, NUMBER, STRING,
+    PARAMETER, COMMA, LEFT_PAREN, RIGHT_PAREN, STAR, SEMICOLON, MINUS,
+    EQUALS, NOT_EQUALS, LESS, LESS_EQUALS, GREATER, GREATER_EQUALS,
+    EOF
+}
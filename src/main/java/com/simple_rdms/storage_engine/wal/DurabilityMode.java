@@ -0,0 +1,10 @@
+package com.simple_rdms.storage_engine.wal;
+
+/*
+How long a commit waits for its log records to reach the disk
+ */
+public enum DurabilityMode {
+    SYNC,  // fsync the log for every commit before returning
+    GROUP, // commits arriving together share one fsync
+    ASYNC  // return at once, a background thread fsyncs every few milliseconds
+}
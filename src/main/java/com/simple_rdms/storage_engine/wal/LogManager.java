@@ -0,0 +1,658 @@
+package com.simple_rdms.storage_engine.wal;
+
+import com.simple_rdms.storage_engine.disk_manager.BufferPool;
+import com.simple_rdms.storage_engine.disk_manager.DiskManager;
+import com.simple_rdms.storage_engine.disk_manager.FileDiskManager;
+import com.simple_rdms.storage_engine.page.Page;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.simple_rdms.utils.Constants.*;
+
+/**
+ * Sequential write-ahead log shared by every table of one database directory.
+ * <p>
+ * Page changes are appended here and a page may only be written to its file once
+ * the log is on disk up to the page's LSN, so tables are written lazily and a crash
+ * is repaired from the log. Commits wait for an fsync according to the durability mode;
+ * in GROUP mode one thread forces the log for everyone who committed meanwhile.
+ * <p>
+ * File layout: [magic:4][baseLsn:8][nextTxnId:8] then records. A record's LSN is
+ * baseLsn plus its byte offset, so LSNs keep growing when the log is truncated.
+ */
+public class LogManager {
+    public static final String LOG_FILE_NAME = "wal.log";
+    private static final int MAGIC = 0x57414C31; // "WAL1"
+    private static final int HEADER_SIZE = 20;
+
+    // One log per database directory, shared by its open tables
+    private static final Map<Path, LogManager> openLogs = new HashMap<>();
+    private static final ReentrantLock openLogsLock = new ReentrantLock();
+    private static volatile DurabilityMode defaultDurabilityMode = DurabilityMode.GROUP;
+
+    // Guards appends, the transaction table and checkpoints. Locks rather than monitors, so
+    // virtual threads waiting behind a write or a force free their carrier meanwhile.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Path directory;
+    private final Path logPath;
+    // Replaced by truncate, which waits for a running force and keeps new ones out meanwhile
+    private volatile FileChannel channel;
+    private long baseLsn;
+    private long nextTxnId;
+    private int references;
+
+    // LSN just past the last appended record
+    private volatile long endLsn;
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Signalled when a force finishes
+    private final Condition flushDone = flushLock.newCondition();
+    private long flushedLsn;
+    private boolean flushing;
+    private long forceCount;
+    private long commitCount;
+    // The log is checkpointed when a commit finds it grown past this
+    private volatile long nextCheckpointLsn;
+    private long checkpointCount;
+
+    private volatile DurabilityMode durabilityMode;
+    private ScheduledExecutorService asyncFlusher;
+    private final Map<Long, Transaction> activeTransactions = new ConcurrentHashMap<>();
+    // Snapshots statements are reading from, they hold back vacuum
+    private final Set<Snapshot> snapshots = ConcurrentHashMap.newKeySet();
+    private final Set<BufferPool> bufferPools = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private LogManager(Path directory) throws IOException {
+        this.directory = directory;
+        this.logPath = directory.resolve(LOG_FILE_NAME);
+        Files.createDirectories(directory);
+
+        recover();
+        setDurabilityMode(defaultDurabilityMode);
+    }
+
+    /**
+     * Get the log of a database directory, recovering it on first open.
+     * Every open must be paired with release.
+     */
+    public static LogManager open(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        openLogsLock.lock();
+        try {
+            LogManager log = openLogs.get(key);
+            if (log == null) {
+                log = new LogManager(key);
+                openLogs.put(key, log);
+            }
+            log.references++;
+            return log;
+        } finally {
+            openLogsLock.unlock();
+        }
+    }
+
+    public void release() throws IOException {
+        openLogsLock.lock();
+        try {
+            if (--references > 0) return;
+            openLogs.remove(directory);
+        } finally {
+            openLogsLock.unlock();
+        }
+        close();
+    }
+
+    /**
+     * Change the durability of every open log and of logs opened later
+     */
+    public static void setDefaultDurabilityMode(DurabilityMode mode) {
+        defaultDurabilityMode = mode;
+        openLogsLock.lock();
+        try {
+            for (LogManager log : openLogs.values()) {
+                log.setDurabilityMode(mode);
+            }
+        } finally {
+            openLogsLock.unlock();
+        }
+    }
+
+    public static DurabilityMode getDefaultDurabilityMode() {
+        return defaultDurabilityMode;
+    }
+
+    public void setDurabilityMode(DurabilityMode mode) {
+        lock.lock();
+        try {
+            this.durabilityMode = mode;
+
+            if (mode == DurabilityMode.ASYNC && asyncFlusher == null) {
+                asyncFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "wal-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                asyncFlusher.scheduleWithFixedDelay(() -> {
+                    try {
+                        flush(endLsn - 1);
+                    } catch (IOException e) {
+                        System.err.println("WAL background flush failed: " + e.getMessage());
+                    }
+                }, WAL_ASYNC_FLUSH_MILLIS, WAL_ASYNC_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            } else if (mode != DurabilityMode.ASYNC && asyncFlusher != null) {
+                asyncFlusher.shutdown();
+                asyncFlusher = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    public Transaction begin() {
+        lock.lock();
+        try {
+            Transaction txn = new Transaction(nextTxnId++, this);
+            activeTransactions.put(txn.getId(), txn);
+            return txn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Snapshot of the transactions committed so far, txn (may be null) sees its own changes.
+     * Must be released when the statement is done.
+     */
+    public Snapshot snapshot(Transaction txn) {
+        lock.lock();
+        try {
+            long[] running = new long[activeTransactions.size()];
+            int count = 0;
+            for (Long id : activeTransactions.keySet()) {
+                if (count < running.length) running[count++] = id;
+            }
+            running = Arrays.copyOf(running, count);
+            Arrays.sort(running);
+
+            Snapshot snapshot = new Snapshot(this, nextTxnId, running, txn == null ? 0 : txn.getId());
+            snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void releaseSnapshot(Snapshot snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    /**
+     * Transactions below this id are finished and every open snapshot sees them.
+     * A row version deleted by one of them is invisible to every statement now and later.
+     */
+    public long oldestVisibleTxn() {
+        lock.lock();
+        try {
+            long oldest = nextTxnId;
+            for (Long id : activeTransactions.keySet()) {
+                oldest = Math.min(oldest, id);
+            }
+            for (Snapshot snapshot : snapshots) {
+                oldest = Math.min(oldest, snapshot.getXmin());
+            }
+            return oldest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a transaction has begun and not yet committed or aborted
+     */
+    public boolean isActive(long txnId) {
+        return activeTransactions.containsKey(txnId);
+    }
+
+    /**
+     * Buffer pools whose pages are logged here; checkpoints flush them.
+     * Called by the pool's owner once the pool is built.
+     */
+    public void register(BufferPool pool) {
+        lock.lock();
+        try {
+            bufferPools.add(pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unregister(BufferPool pool) {
+        lock.lock();
+        try {
+            bufferPools.remove(pool);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a record to the log (not yet forced) and return its LSN
+     */
+    public long append(LogRecord record) throws IOException {
+        lock.lock();
+        try {
+            ByteBuffer bytes = record.encode();
+            long lsn = endLsn;
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            endLsn = lsn + bytes.limit();
+            // Checkpoints keep the log from here on until the transaction finishes
+            Transaction txn = activeTransactions.get(record.getTxnId());
+            if (txn != null && txn.firstLsn < 0) {
+                txn.firstLsn = lsn;
+            }
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void commit(Transaction txn) throws IOException {
+        // Nothing to make durable, e.g. a transaction that only read
+        if (!txn.hasChanges()) {
+            lock.lock();
+            try {
+                activeTransactions.remove(txn.getId());
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        long lsn = append(LogRecord.commit(txn.getId()));
+
+        // Snapshots see the changes once the transaction leaves the active set, so that waits
+        // for the commit record to be on disk. ASYNC trades this for latency: a crash can lose
+        // a commit other statements already read.
+        try {
+            switch (durabilityMode) {
+                case SYNC -> flush(lsn);
+                case GROUP -> {
+                    // Let concurrent writers join this fsync before leading it
+                    if (activeTransactions.size() > 1) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(WAL_GROUP_COMMIT_WAIT_MICROS));
+                    }
+                    flush(lsn);
+                }
+                case ASYNC -> {
+                    // Background flusher picks it up
+                }
+            }
+        } finally {
+            lock.lock();
+            try {
+                activeTransactions.remove(txn.getId()); // Not while a snapshot is being taken
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        lock.lock();
+        try {
+            commitCount++;
+        } finally {
+            lock.unlock();
+        }
+        if (endLsn >= nextCheckpointLsn) {
+            checkpointIfDue();
+        }
+    }
+
+    void abort(Transaction txn) throws IOException {
+        append(LogRecord.abort(txn.getId()));
+        lock.lock();
+        try {
+            activeTransactions.remove(txn.getId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make sure the record at lsn is on disk.
+     * The first caller forces everything appended so far; callers arriving while it
+     * runs wait and usually find their record already covered.
+     */
+    public void flush(long lsn) throws IOException {
+        flushLock.lock();
+        try {
+            while (true) {
+                if (flushedLsn > lsn) return;
+                if (!flushing) break;
+                try {
+                    flushDone.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for log flush", e);
+                }
+            }
+            flushing = true;
+        } finally {
+            flushLock.unlock();
+        }
+
+        long target = endLsn;
+        try {
+            channel.force(false);
+        } finally {
+            flushLock.lock();
+            try {
+                flushing = false;
+                flushDone.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+
+        flushLock.lock();
+        try {
+            flushedLsn = Math.max(flushedLsn, target);
+            forceCount++;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Fuzzy checkpoint: write the dirty pages nobody has pinned and drop the log records
+     * a restart no longer needs. Records from the first one of a running transaction on,
+     * or from the first change of a pinned page that is not on disk yet, are kept.
+     * Returns true when the log was emptied, so no record refers to any page.
+     */
+    public boolean checkpoint() throws IOException {
+        return checkpoint(null, 0);
+    }
+
+    /**
+     * Checkpoint, then whether no record left in the log changes page fromPage or a later
+     * one of the file, e.g. before those pages are cut off or the file is replaced.
+     * A null file name asks for an empty log.
+     */
+    public boolean checkpoint(String fileName, int fromPage) throws IOException {
+        lock.lock();
+        try {
+            flush(endLsn - 1);
+            long keepFrom = endLsn;
+            for (BufferPool pool : bufferPools) {
+                keepFrom = Math.min(keepFrom, pool.flushUnpinned());
+                pool.sync();
+            }
+            for (Transaction txn : activeTransactions.values()) {
+                if (txn.firstLsn >= 0) {
+                    keepFrom = Math.min(keepFrom, txn.firstLsn);
+                }
+            }
+            truncate(keepFrom);
+            checkpointCount++;
+
+            if (keepFrom == endLsn) return true;
+            return fileName != null && !refersTo(fileName, fromPage);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Commits checkpoint once the log grew by WAL_CHECKPOINT_BYTES since the last one.
+    // A long transaction keeps its records, so the log size alone would trigger on every commit.
+    private void checkpointIfDue() throws IOException {
+        lock.lock();
+        try {
+            if (endLsn >= nextCheckpointLsn) {
+                checkpoint();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the log with one holding only the records from keepFrom on, at the same LSNs.
+     * Written to a temporary file and renamed so a crash leaves either log intact.
+     */
+    private void truncate(long keepFrom) throws IOException {
+        long newBase = keepFrom - HEADER_SIZE;
+        Path tempPath = directory.resolve(LOG_FILE_NAME + ".tmp");
+        try (FileChannel temp = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            temp.write(header(newBase, nextTxnId));
+            long position = keepFrom - baseLsn;
+            while (position < endLsn - baseLsn) {
+                position += channel.transferTo(position, endLsn - baseLsn - position, temp);
+            }
+            temp.force(true);
+        }
+
+        // Appends are held off by the lock, forces by claiming the flush
+        flushLock.lock();
+        try {
+            while (flushing) {
+                try {
+                    flushDone.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for log flush", e);
+                }
+            }
+            flushing = true;
+        } finally {
+            flushLock.unlock();
+        }
+        try {
+            if (channel != null) channel.close();
+            Files.move(tempPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            channel.position(endLsn - newBase);
+
+            baseLsn = newBase;
+            nextCheckpointLsn = endLsn + WAL_CHECKPOINT_BYTES;
+            flushLock.lock();
+            try {
+                flushedLsn = endLsn;
+            } finally {
+                flushLock.unlock();
+            }
+        } finally {
+            flushLock.lock();
+            try {
+                flushing = false;
+                flushDone.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    // Whether a record in the log changes page fromPage or a later one of the file
+    private boolean refersTo(String fileName, int fromPage) throws IOException {
+        ByteBuffer log = ByteBuffer.allocate((int) (endLsn - baseLsn - HEADER_SIZE));
+        while (log.hasRemaining()) {
+            if (channel.read(log, HEADER_SIZE + log.position()) < 0) break;
+        }
+        log.flip();
+        while (true) {
+            LogRecord record = LogRecord.decode(log, baseLsn + HEADER_SIZE + log.position());
+            if (record == null) return false;
+            if (record.isPageChange() && record.getFileName().equals(fileName) && record.getPageId() >= fromPage) {
+                return true;
+            }
+        }
+    }
+
+    private static ByteBuffer header(long baseLsn, long nextTxnId) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(baseLsn).putLong(nextTxnId);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * ARIES style restart: redo every logged change the pages are missing, in log order,
+     * then undo changes of transactions that neither committed nor aborted, newest first.
+     * The repaired pages are written and synced and the log is truncated.
+     */
+    private void recover() throws IOException {
+        baseLsn = 0;
+        nextTxnId = 1;
+        endLsn = HEADER_SIZE;
+
+        if (!Files.exists(logPath) || Files.size(logPath) < HEADER_SIZE) {
+            truncate(endLsn);
+            return;
+        }
+
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logPath));
+        if (log.getInt(0) != MAGIC) {
+            throw new IOException("Not a write-ahead log: " + logPath);
+        }
+        baseLsn = log.getLong(4);
+        nextTxnId = log.getLong(12);
+
+        // Analysis: read the intact prefix and find transactions that finished
+        List<LogRecord> records = new ArrayList<>();
+        Set<Long> finished = new HashSet<>();
+        log.position(HEADER_SIZE);
+        while (true) {
+            long lsn = baseLsn + log.position();
+            LogRecord record = LogRecord.decode(log, lsn);
+            if (record == null) break;
+            records.add(record);
+            nextTxnId = Math.max(nextTxnId, record.getTxnId() + 1);
+            if (record.getType() == LogRecord.COMMIT || record.getType() == LogRecord.ABORT) {
+                finished.add(record.getTxnId());
+            }
+        }
+        endLsn = baseLsn + log.position();
+
+        Map<String, DiskManager> files = new HashMap<>();
+        Map<String, Page> pages = new LinkedHashMap<>();
+        int redone = 0, undone = 0;
+
+        try {
+            // Redo: repeat history, including changes of losers and compensations
+            for (LogRecord record : records) {
+                if (!record.isPageChange()) continue;
+                Page page = recoveryPage(files, pages, record);
+                if (page == null || page.getLsn() >= record.getLsn()) continue;
+
+                System.arraycopy(record.getAfter(), 0, page.data(), record.getOffset(), record.getAfter().length);
+                page.setLsn(record.getLsn());
+                redone++;
+            }
+
+            // Undo: roll back losers, putting back the page LSN each change replaced
+            for (int i = records.size() - 1; i >= 0; i--) {
+                LogRecord record = records.get(i);
+                if (record.getType() != LogRecord.UPDATE || finished.contains(record.getTxnId())) continue;
+                Page page = recoveryPage(files, pages, record);
+                if (page == null) continue;
+
+                System.arraycopy(record.getBefore(), 0, page.data(), record.getOffset(), record.getBefore().length);
+                page.setLsn(record.getPrevLsn());
+                undone++;
+            }
+
+            for (Map.Entry<String, Page> entry : pages.entrySet()) {
+                String[] key = entry.getKey().split("#");
+                files.get(key[0]).writePage(Integer.parseInt(key[1]), entry.getValue());
+            }
+            for (DiskManager file : files.values()) {
+                file.sync();
+            }
+        } finally {
+            for (DiskManager file : files.values()) {
+                file.close();
+            }
+        }
+
+        if (redone > 0 || undone > 0) {
+            System.out.printf("Recovered %s: redo %d, undo %d changes%n", directory.getFileName(), redone, undone);
+        }
+        truncate(endLsn);
+    }
+
+    private Page recoveryPage(Map<String, DiskManager> files, Map<String, Page> pages,
+                              LogRecord record) throws IOException {
+        String key = record.getFileName() + "#" + record.getPageId();
+        Page page = pages.get(key);
+        if (page != null) return page;
+
+        Path filePath = directory.resolve(record.getFileName());
+        if (!Files.exists(filePath)) return null; // File was dropped after the change
+
+        DiskManager file = files.get(record.getFileName());
+        if (file == null) {
+            file = new FileDiskManager(filePath);
+            files.put(record.getFileName(), file);
+        }
+        // Pages past the end of the file were allocated but never written
+        page = record.getPageId() < file.pageCount() ? file.readPage(record.getPageId()) : new Page();
+        pages.put(key, page);
+        return page;
+    }
+
+    private void close() throws IOException {
+        lock.lock();
+        try {
+            if (asyncFlusher != null) {
+                asyncFlusher.shutdown();
+                asyncFlusher = null;
+            }
+            checkpoint();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * LSN the next record will get; a page changed from now on only has records from here
+     */
+    public long getEndLsn() {
+        return endLsn;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String toString() {
+        flushLock.lock();
+        try {
+            return String.format("Mode: %s, Log size: %d bytes, Commits: %d, Fsyncs: %d, Checkpoints: %d, "
+                            + "Active transactions: %d, Snapshots: %d",
+                    durabilityMode, endLsn - baseLsn, commitCount, forceCount, checkpointCount,
+                    activeTransactions.size(), snapshots.size());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
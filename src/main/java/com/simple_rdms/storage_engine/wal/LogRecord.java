@@ -0,0 +1,174 @@
+package com.simple_rdms.storage_engine.wal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * One entry of the write-ahead log.
+ * <p>
+ * [length:4][crc:4][type:1][txnId:8] followed for page changes by
+ * [prevLsn:8][fileNameLength:2][fileName][pageId:4][offset:2][length:2][before bytes][after bytes]
+ * A change is physical: the byte range of one page before and after the write.
+ * Compensation records only carry the bytes they restored.
+ */
+public class LogRecord {
+    public static final byte UPDATE = 1;
+    public static final byte COMPENSATION = 2;
+    public static final byte COMMIT = 3;
+    public static final byte ABORT = 4;
+
+    private static final int FIXED_SIZE = 4 + 4 + 1 + 8;
+
+    private final byte type;
+    private final long txnId;
+    private final long prevLsn;
+    private final String fileName;
+    private final int pageId;
+    private final int offset;
+    private final byte[] before;
+    private final byte[] after;
+    private long lsn;
+
+    private LogRecord(byte type, long txnId, long prevLsn, String fileName, int pageId,
+                      int offset, byte[] before, byte[] after) {
+        this.type = type;
+        this.txnId = txnId;
+        this.prevLsn = prevLsn;
+        this.fileName = fileName;
+        this.pageId = pageId;
+        this.offset = offset;
+        this.before = before;
+        this.after = after;
+    }
+
+    public static LogRecord update(long txnId, String fileName, int pageId, long prevLsn,
+                                   int offset, byte[] before, byte[] after) {
+        return new LogRecord(UPDATE, txnId, prevLsn, fileName, pageId, offset, before, after);
+    }
+
+    public static LogRecord compensation(long txnId, String fileName, int pageId, int offset, byte[] restored) {
+        return new LogRecord(COMPENSATION, txnId, 0, fileName, pageId, offset, new byte[0], restored);
+    }
+
+    public static LogRecord commit(long txnId) {
+        return new LogRecord(COMMIT, txnId, 0, null, 0, 0, null, null);
+    }
+
+    public static LogRecord abort(long txnId) {
+        return new LogRecord(ABORT, txnId, 0, null, 0, 0, null, null);
+    }
+
+    public boolean isPageChange() {
+        return type == UPDATE || type == COMPENSATION;
+    }
+
+    public ByteBuffer encode() {
+        byte[] name = isPageChange() ? fileName.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int size = FIXED_SIZE;
+        if (isPageChange()) {
+            size += 8 + 2 + name.length + 4 + 2 + 2 + before.length + after.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size);
+        buffer.putInt(0); // crc, filled below
+        buffer.put(type);
+        buffer.putLong(txnId);
+        if (isPageChange()) {
+            buffer.putLong(prevLsn);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            buffer.putInt(pageId);
+            buffer.putShort((short) offset);
+            buffer.putShort((short) after.length);
+            buffer.put(before);
+            buffer.put(after);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, size - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a record from the buffer, returns null for a torn or corrupt tail
+     */
+    public static LogRecord decode(ByteBuffer buffer, long lsn) {
+        if (buffer.remaining() < FIXED_SIZE) return null;
+
+        int start = buffer.position();
+        int size = buffer.getInt(start);
+        if (size < FIXED_SIZE || size > buffer.remaining()) return null;
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 8).limit(start + size);
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) return null;
+
+        buffer.position(start + 8);
+        byte type = buffer.get();
+        long txnId = buffer.getLong();
+        LogRecord record;
+
+        if (type == UPDATE || type == COMPENSATION) {
+            long prevLsn = buffer.getLong();
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            int pageId = buffer.getInt();
+            int offset = Short.toUnsignedInt(buffer.getShort());
+            int length = Short.toUnsignedInt(buffer.getShort());
+            byte[] before = new byte[type == UPDATE ? length : 0];
+            buffer.get(before);
+            byte[] after = new byte[length];
+            buffer.get(after);
+            record = new LogRecord(type, txnId, prevLsn, new String(name, StandardCharsets.UTF_8),
+                    pageId, offset, before, after);
+        } else {
+            record = new LogRecord(type, txnId, 0, null, 0, 0, null, null);
+        }
+
+        buffer.position(start + size);
+        record.lsn = lsn;
+        return record;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getTxnId() {
+        return txnId;
+    }
+
+    public long getPrevLsn() {
+        return prevLsn;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getPageId() {
+        return pageId;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public byte[] getBefore() {
+        return before;
+    }
+
+    public byte[] getAfter() {
+        return after;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+}
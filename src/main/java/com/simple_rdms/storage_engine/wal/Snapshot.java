@@ -0,0 +1,55 @@
+package com.simple_rdms.storage_engine.wal;
+
+import java.util.Arrays;
+
+/**
+ * The set of transactions whose changes one statement reads.
+ * <p>
+ * A transaction is visible when it committed before the snapshot was taken: its id is
+ * below the horizon (the next id handed out at that moment) and it was not running then.
+ * Aborted transactions never show up, their changes are undone before they finish.
+ * The transaction owning the snapshot, if any, always sees its own changes.
+ * <p>
+ * A snapshot keeps the versions it can see from being vacuumed until it is released.
+ */
+public class Snapshot {
+    private final LogManager logManager;
+    private final long horizon;
+    // Ids running when the snapshot was taken, sorted
+    private final long[] running;
+    // Every id below it is finished for this snapshot
+    private final long xmin;
+    private final long ownTxnId;
+
+    Snapshot(LogManager logManager, long horizon, long[] running, long ownTxnId) {
+        this.logManager = logManager;
+        this.horizon = horizon;
+        this.running = running;
+        this.xmin = running.length > 0 ? Math.min(running[0], horizon) : horizon;
+        this.ownTxnId = ownTxnId;
+    }
+
+    /**
+     * Whether a row version written by xmin and deleted by xmax (0 for none) is visible
+     */
+    public boolean sees(long xmin, long xmax) {
+        return isVisible(xmin) && (xmax == 0 || !isVisible(xmax));
+    }
+
+    /**
+     * Whether the changes of a transaction are visible
+     */
+    public boolean isVisible(long txnId) {
+        if (txnId == ownTxnId) return true;
+        if (txnId >= horizon) return false;
+        return txnId < xmin || Arrays.binarySearch(running, txnId) < 0;
+    }
+
+    long getXmin() {
+        return xmin;
+    }
+
+    public void release() {
+        logManager.releaseSnapshot(this);
+    }
+}
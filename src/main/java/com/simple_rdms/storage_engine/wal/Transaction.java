@@ -0,0 +1,270 @@
+package com.simple_rdms.storage_engine.wal;
+
+import com.simple_rdms.storage_engine.disk_manager.BufferPool;
+import com.simple_rdms.storage_engine.page.Page;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A unit of work whose page changes are logged before they can reach disk.
+ * <p>
+ * Pages are changed between fetchForWrite and releaseWrite: the first keeps a copy
+ * of the page, the second logs the changed byte ranges and stamps the page with the
+ * record's LSN. Logged pages can be evicted at any time; abort puts the old bytes back.
+ * <p>
+ * A transaction may span several statements and tables. Log records are only forced
+ * at commit, so its changes cost one log flush however many statements made them.
+ */
+public class Transaction {
+    // Changed runs closer than this are logged as one range, see changeEnd
+    private static final int MERGE_GAP = 16;
+
+    private final long id;
+    private final LogManager logManager;
+    // Pages fetched for write and not released yet, with their image before the change
+    private final Map<PageKey, PendingWrite> pending = new HashMap<>();
+    // Logged changes, newest last
+    private final List<UndoEntry> undoLog = new ArrayList<>();
+    // Released when the transaction finishes, in the order they were taken
+    private final List<TransactionLock> locks = new ArrayList<>();
+    private volatile boolean finished;
+    // LSN of its first log record, -1 while it has none; set by LogManager.append under its lock
+    long firstLsn = -1;
+
+    Transaction(long id, LogManager logManager) {
+        this.id = id;
+        this.logManager = logManager;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public LogManager getLogManager() {
+        return logManager;
+    }
+
+    /**
+     * Keep a lock until this transaction commits or aborts
+     */
+    public void hold(TransactionLock lock) {
+        checkActive();
+        locks.add(lock);
+    }
+
+    /**
+     * Whether any change was logged; a transaction without changes commits without touching the log
+     */
+    boolean hasChanges() {
+        return !undoLog.isEmpty();
+    }
+
+    /**
+     * Pin a page that is about to be modified
+     */
+    public Page fetchForWrite(BufferPool pool, int pageId) throws IOException {
+        checkActive();
+        Page page = pool.fetchPageForWrite(pageId);
+        track(pool, pageId, page);
+        return page;
+    }
+
+    /**
+     * Append a page to the pool's file, the page id is pool.pageCount() - 1
+     */
+    public Page newPage(BufferPool pool) throws IOException {
+        checkActive();
+        Page page = pool.newPage();
+        track(pool, pool.pageCount() - 1, page);
+        return page;
+    }
+
+    private void track(BufferPool pool, int pageId, Page page) {
+        PageKey key = new PageKey(pool, pageId);
+        PendingWrite write = pending.get(key);
+        if (write == null) {
+            pending.put(key, new PendingWrite(page, page.data().clone()));
+        } else {
+            write.pins++;
+        }
+    }
+
+    /**
+     * Log what changed since fetchForWrite and unpin the page
+     */
+    public void releaseWrite(BufferPool pool, int pageId) throws IOException {
+        PageKey key = new PageKey(pool, pageId);
+        PendingWrite write = pending.get(key);
+        if (write == null) {
+            throw new IllegalStateException("Page was not fetched for write: " + pageId);
+        }
+        if (--write.pins > 0) {
+            pool.unpinPage(pageId, false);
+            return;
+        }
+        pending.remove(key);
+
+        byte[] before = write.before;
+        byte[] after = write.page.data();
+
+        // Each run of changed bytes is logged as a range of its own, the LSN header is excluded,
+        // so an insert into a slotted page logs its slot and its record, not the bytes between
+        boolean logged = false;
+        int from = Page.LSN_SIZE;
+        while (true) {
+            while (from < after.length && before[from] == after[from]) from++;
+            if (from == after.length) break;
+            int to = changeEnd(before, after, from);
+
+            byte[] beforeRange = Arrays.copyOfRange(before, from, to);
+            byte[] afterRange = Arrays.copyOfRange(after, from, to);
+            long lsn = logManager.append(LogRecord.update(id, pool.getFileName(), pageId,
+                    write.page.getLsn(), from, beforeRange, afterRange));
+            write.page.setLsn(lsn);
+            undoLog.add(new UndoEntry(pool, pageId, from, beforeRange));
+            logged = true;
+            from = to;
+        }
+        pool.unpinPage(pageId, logged);
+    }
+
+    /**
+     * End of the changed range starting at from. Runs of equal bytes shorter than
+     * MERGE_GAP are taken in, logging them twice costs less than another record.
+     */
+    private static int changeEnd(byte[] before, byte[] after, int from) {
+        int to = from + 1;
+        for (int i = to; i < after.length && i - to < MERGE_GAP; i++) {
+            if (before[i] != after[i]) to = i + 1;
+        }
+        return to;
+    }
+
+    public void commit() throws IOException {
+        checkActive();
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Commit with " + pending.size() + " pages still fetched for write");
+        }
+        finished = true;
+        try {
+            logManager.commit(this);
+        } finally {
+            releaseLocks();
+        }
+    }
+
+    /**
+     * Undo every change of this transaction, newest first, logging each undo
+     * as a compensation record so recovery never has to undo it again.
+     */
+    public void abort() throws IOException {
+        if (finished) return;
+        finished = true;
+
+        for (TransactionLock lock : locks) {
+            lock.beforeUndo();
+        }
+        try {
+            undo();
+        } finally {
+            for (TransactionLock lock : locks) {
+                lock.afterUndo();
+            }
+            try {
+                logManager.abort(this);
+            } finally {
+                releaseLocks();
+            }
+        }
+    }
+
+    private void undo() throws IOException {
+        // Changes that were never logged only need their bytes put back
+        for (Map.Entry<PageKey, PendingWrite> entry : pending.entrySet()) {
+            PendingWrite write = entry.getValue();
+            System.arraycopy(write.before, 0, write.page.data(), 0, write.before.length);
+            for (int i = 0; i < write.pins; i++) {
+                entry.getKey().pool.unpinPage(entry.getKey().pageId, false);
+            }
+        }
+        pending.clear();
+
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            UndoEntry undo = undoLog.get(i);
+            Page page = undo.pool.fetchPageForWrite(undo.pageId);
+            System.arraycopy(undo.before, 0, page.data(), undo.offset, undo.before.length);
+            long lsn = logManager.append(LogRecord.compensation(id, undo.pool.getFileName(),
+                    undo.pageId, undo.offset, undo.before));
+            page.setLsn(lsn);
+            undo.pool.unpinPage(undo.pageId, true);
+        }
+        undoLog.clear();
+    }
+
+    private void releaseLocks() {
+        for (TransactionLock lock : locks) {
+            lock.release();
+        }
+        locks.clear();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void checkActive() {
+        if (finished) {
+            throw new IllegalStateException("Transaction " + id + " already finished");
+        }
+    }
+
+    private static class PageKey {
+        final BufferPool pool;
+        final int pageId;
+
+        PageKey(BufferPool pool, int pageId) {
+            this.pool = pool;
+            this.pageId = pageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PageKey other && other.pool == pool && other.pageId == pageId;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(pool) * 31 + pageId;
+        }
+    }
+
+    private static class PendingWrite {
+        final Page page;
+        final byte[] before;
+        int pins = 1;
+
+        PendingWrite(Page page, byte[] before) {
+            this.page = page;
+            this.before = before;
+        }
+    }
+
+    private static class UndoEntry {
+        final BufferPool pool;
+        final int pageId;
+        final int offset;
+        final byte[] before;
+
+        UndoEntry(BufferPool pool, int pageId, int offset, byte[] before) {
+            this.pool = pool;
+            this.pageId = pageId;
+            this.offset = offset;
+            this.before = before;
+        }
+    }
+}
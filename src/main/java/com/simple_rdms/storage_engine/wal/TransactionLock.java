@@ -0,0 +1,20 @@
+package com.simple_rdms.storage_engine.wal;
+
+/**
+ * Something a transaction holds from its first change until it commits or aborts,
+ * e.g. the right to write to a table
+ */
+public interface TransactionLock {
+
+    /**
+     * Called before an abort puts back old page bytes, so nobody reads the pages meanwhile
+     */
+    void beforeUndo();
+
+    void afterUndo();
+
+    /**
+     * Called once the transaction finished
+     */
+    void release();
+}
@@ -0,0 +1,49 @@
+package com.simple_rdms.storage_engine.wire;
+
+/**
+ * Message types of the binary protocol WireServer speaks.
+ * <p>
+ * Every message is a frame: a 4-byte length of what follows, a 1-byte type and the payload.
+ * Integers are big-endian, a string is a 4-byte length and its UTF-8 bytes, and a type is
+ * the ordinal of a ColumnType. Values are encoded as RowLayout.serialize encodes a row.
+ * <p>
+ * The client sends one message at a time and reads its answer:
+ * <ul>
+ * <li>USE database: the database later statements are prepared in. Answered with OK.</li>
+ * <li>PREPARE id sql: plan a statement with ? parameters under a number the client picks,
+ * replacing the one prepared with it before. Answered with PREPARED: the id, a 2-byte
+ * parameter count and the type of each parameter.</li>
+ * <li>BIND id: a 2-byte argument count, the type of each argument, then the arguments as one
+ * row. Answered with OK.</li>
+ * <li>EXECUTE id: run the statement with its bound arguments. A SELECT opens a cursor and is
+ * answered with ROW_DESCRIPTION: a 2-byte column count, then each column's name and type.
+ * Other statements are answered with COMPLETE.</li>
+ * <li>FETCH id count: answered with up to count DATA_ROWs, then SUSPENDED while the cursor
+ * may have more rows or COMPLETE once it has none.</li>
+ * <li>CLOSE id: close its cursor and forget the statement. Answered with OK.</li>
+ * </ul>
+ * A DATA_ROW is a null bitmap, one bit per column from the lowest bit of the first byte,
+ * followed by the values that are not null as one row. Any message may be answered with
+ * ERROR, a string; the connection stays open.
+ */
+public final class WireProtocol {
+    // Client messages
+    public static final byte USE = 'U';
+    public static final byte PREPARE = 'P';
+    public static final byte BIND = 'B';
+    public static final byte EXECUTE = 'E';
+    public static final byte FETCH = 'F';
+    public static final byte CLOSE = 'C';
+
+    // Server messages
+    public static final byte OK = 'k';
+    public static final byte PREPARED = 'p';
+    public static final byte ROW_DESCRIPTION = 't';
+    public static final byte DATA_ROW = 'd';
+    public static final byte SUSPENDED = 's';
+    public static final byte COMPLETE = 'c';
+    public static final byte ERROR = 'e';
+
+    private WireProtocol() {
+    }
+}
@@ -0,0 +1,127 @@
+package com.simple_rdms.storage_engine.wire;
+
+import com.simple_rdms.storage_engine.command.SQLExecutor;
+import com.simple_rdms.storage_engine.database_manager.DatabaseManager;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.simple_rdms.utils.Constants.WIRE_PORT;
+
+/**
+ * TCP listener for the binary protocol described in WireProtocol, on the loopback address.
+ * <p>
+ * Each connection runs on a virtual thread of its own, so a client waiting on a slow query or
+ * a table lock costs no platform thread and thousands of connections can be open at once.
+ * The buffer pools and the log guard their I/O with ReentrantLocks, not monitors: a session
+ * waiting for another one's page write or log force leaves its carrier to other sessions.
+ * The file read or write itself holds its carrier, the JDK adds a carrier while it blocks.
+ */
+@Service
+public class WireServer {
+
+    private final DatabaseManager databaseManager;
+    private final SQLExecutor sqlExecutor;
+    // Open connections, closed when the server stops
+    private final Set<WireSession> sessions = ConcurrentHashMap.newKeySet();
+    // Null while the server is not listening
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+
+    public WireServer(DatabaseManager databaseManager, SQLExecutor sqlExecutor) {
+        this.databaseManager = databaseManager;
+        this.sqlExecutor = sqlExecutor;
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            listen(WIRE_PORT);
+        } catch (IOException e) {
+            // The shell and HTTP keep working without it
+            System.out.println("[wire] Could not listen on port " + WIRE_PORT + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accept connections on a port of the loopback address, 0 for any free one
+     */
+    public synchronized void listen(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Already listening on port " + serverSocket.getLocalPort());
+        }
+        ServerSocket listener = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        serverSocket = listener;
+        connections = executor;
+        Thread.ofVirtual().name("wire-listener").start(() -> accept(listener, executor));
+    }
+
+    /**
+     * Port the server listens on, -1 when it does not
+     */
+    public synchronized int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    private void accept(ServerSocket listener, ExecutorService executor) {
+        while (!listener.isClosed()) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+                // Answers are flushed whole, small ones should not wait for more
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                if (!listener.isClosed()) {
+                    System.out.println("[wire] " + e.getMessage());
+                }
+                continue;
+            }
+            WireSession session = new WireSession(socket, databaseManager, sqlExecutor);
+            sessions.add(session);
+            // Accepted while the server stopped, after it hung up on the others
+            if (listener.isClosed()) session.close();
+            try {
+                executor.execute(() -> {
+                    try {
+                        session.run();
+                    } finally {
+                        sessions.remove(session);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                sessions.remove(session);
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting, hang up on every client and wait for their sessions to close their cursors
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (serverSocket == null) return;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Not accepting either way
+        }
+        for (WireSession session : sessions) {
+            session.close();
+        }
+        connections.close();
+        serverSocket = null;
+        connections = null;
+    }
+}
@@ -0,0 +1,398 @@
+package com.simple_rdms.storage_engine.wire;
+
+import com.simple_rdms.storage_engine.command.SQLExecutor;
+import com.simple_rdms.storage_engine.database_manager.DatabaseManager;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import com.simple_rdms.storage_engine.sql_interface.QueryPlan;
+import com.simple_rdms.storage_engine.sql_interface.ResultCursor;
+import com.simple_rdms.storage_engine.sql_interface.SQLTableInterface;
+import com.simple_rdms.storage_engine.sql_parser.Lexer;
+import com.simple_rdms.storage_engine.sql_parser.Parser;
+import com.simple_rdms.storage_engine.sql_parser.Statement;
+import com.simple_rdms.storage_engine.sql_parser.Token;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.simple_rdms.storage_engine.wire.WireProtocol.BIND;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.CLOSE;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.COMPLETE;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.DATA_ROW;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.ERROR;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.EXECUTE;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.FETCH;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.OK;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.PREPARE;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.PREPARED;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.ROW_DESCRIPTION;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.SUSPENDED;
+import static com.simple_rdms.storage_engine.wire.WireProtocol.USE;
+import static com.simple_rdms.utils.Constants.WIRE_MAX_FRAME_BYTES;
+
+/**
+ * One client connection: its current database and its prepared statements, each with the
+ * arguments bound to it and the cursor its last EXECUTE opened. Runs on a thread of its own,
+ * reading a message and answering it until the client hangs up; every statement is a
+ * transaction of its own.
+ */
+class WireSession implements Runnable {
+    private static final ColumnType[] TYPES = ColumnType.values();
+
+    private final Socket socket;
+    private final DatabaseManager databaseManager;
+    private final SQLExecutor sqlExecutor;
+    // Database USE picked, null until then
+    private String database;
+    private final Map<Integer, Prepared> statements = new HashMap<>();
+    // Frame being written, its length filled in when it is sent
+    private ByteBuffer frame = ByteBuffer.allocate(8192);
+    private OutputStream output;
+
+    WireSession(Socket socket, DatabaseManager databaseManager, SQLExecutor sqlExecutor) {
+        this.socket = socket;
+        this.databaseManager = databaseManager;
+        this.sqlExecutor = sqlExecutor;
+    }
+
+    /**
+     * A statement prepared in a database, planned once. Tables are looked up on every
+     * EXECUTE, so a table reopened in another I/O mode meanwhile is picked up.
+     */
+    private static class Prepared {
+        final String database;
+        final Statement statement;
+        final QueryPlan plan;
+        Object[] arguments = new Object[0];
+        // Open cursor of a SELECT and the row layout its rows are sent in, null when none is open
+        ResultCursor cursor;
+        TableSchema rowSchema;
+        long rowCount;
+
+        Prepared(String database, Statement statement, QueryPlan plan) {
+            this.database = database;
+            this.statement = statement;
+            this.plan = plan;
+        }
+
+        void closeCursor() {
+            if (cursor != null) {
+                cursor.close();
+                cursor = null;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try (socket) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < 1 || length > WIRE_MAX_FRAME_BYTES) {
+                    // The stream cannot be trusted past a bad length, the connection ends here
+                    sendError("Frame length " + length + " outside 1 to " + WIRE_MAX_FRAME_BYTES + " bytes");
+                    output.flush();
+                    return;
+                }
+                byte[] message = new byte[length];
+                input.readFully(message);
+
+                // A failed statement is answered, the client can go on with the next one
+                try {
+                    handle(ByteBuffer.wrap(message));
+                } catch (IOException | RuntimeException e) {
+                    sendError(e.getMessage() != null ? e.getMessage() : e.toString());
+                }
+                output.flush();
+            }
+        } catch (IOException e) {
+            // Client went away, or the server is stopping
+        } finally {
+            for (Prepared prepared : statements.values()) {
+                prepared.closeCursor();
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * Hang up on the client, from another thread; run() then closes the cursors
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    private void handle(ByteBuffer message) throws IOException {
+        byte type = message.get();
+        switch (type) {
+            case USE -> use(readString(message));
+            case PREPARE -> prepare(message.getInt(), readString(message));
+            case BIND -> bind(message.getInt(), message);
+            case EXECUTE -> execute(message.getInt());
+            case FETCH -> fetch(message.getInt(), message.getInt());
+            case CLOSE -> close(message.getInt());
+            default -> throw new RuntimeException("Unknown message type " + type);
+        }
+    }
+
+    private void use(String name) throws IOException {
+        databaseManager.getDatabasePath(name);
+        database = name;
+        begin(OK);
+        send();
+    }
+
+    private void prepare(int id, String sql) throws IOException {
+        if (database == null) {
+            throw new RuntimeException("No database selected, send USE first");
+        }
+
+        // A cached plan skips parsing, the table name comes from its statement
+        List<Token> tokens = new Lexer(sql).tokenize();
+        String key = Lexer.normalize(tokens);
+        QueryPlan cached = sqlExecutor.cachedPlan(database, key);
+        Statement statement = cached != null ? cached.getStatement() : Parser.parse(tokens);
+        if (statement instanceof Statement.Begin || statement instanceof Statement.Commit
+                || statement instanceof Statement.Rollback || statement instanceof Statement.Prepare
+                || statement instanceof Statement.Execute) {
+            throw new RuntimeException("Send the statement to PREPARE with ? parameters, "
+                    + "BEGIN, COMMIT, ROLLBACK, PREPARE and EXECUTE are shell statements");
+        }
+        if (statement instanceof Statement.Copy) {
+            // The file would be read with the server's permissions on behalf of a remote client
+            throw new RuntimeException("COPY reads a file on the server and is only available in the shell");
+        }
+        SQLTableInterface sqlInterface = sqlExecutor.open(database, statement, null);
+        QueryPlan plan = cached != null ? cached : sqlExecutor.plan(database, key, statement, sqlInterface);
+
+        Prepared old = statements.put(id, new Prepared(database, statement, plan));
+        if (old != null) old.closeCursor();
+
+        List<ColumnType> types = plan.getParameterTypes();
+        begin(PREPARED);
+        ensure(6 + types.size());
+        frame.putInt(id);
+        frame.putShort((short) types.size());
+        for (ColumnType parameterType : types) {
+            frame.put((byte) parameterType.ordinal());
+        }
+        send();
+    }
+
+    private void bind(int id, ByteBuffer message) throws IOException {
+        Prepared prepared = prepared(id);
+        int count = message.getShort();
+        List<ColumnDef> columns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            columns.add(new ColumnDef("$" + (i + 1), type(message.get())));
+        }
+        RowLayout row = RowLayout.deserialize(message, new TableSchema("arguments", columns, 0));
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = row.getValues(i);
+        }
+
+        // Checked now, so a wrong argument is reported here and not on EXECUTE
+        prepared.plan.bind(arguments);
+        prepared.arguments = arguments;
+        begin(OK);
+        send();
+    }
+
+    private void execute(int id) throws IOException {
+        Prepared prepared = prepared(id);
+        prepared.closeCursor();
+        SQLTableInterface sqlInterface = sqlExecutor.open(prepared.database, prepared.statement, null);
+
+        if (!(prepared.statement instanceof Statement.Select)) {
+            String message = sqlInterface.update(prepared.plan, prepared.arguments);
+            sendComplete(message != null ? message : "OK");
+            return;
+        }
+
+        List<String> labels = prepared.plan.getColumnLabels();
+        List<ColumnType> types = prepared.plan.getColumnTypes();
+        List<ColumnDef> columns = new ArrayList<>(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+            columns.add(new ColumnDef(labels.get(i), types.get(i)));
+        }
+        prepared.cursor = sqlInterface.query(prepared.plan, prepared.arguments);
+        prepared.rowSchema = new TableSchema("result", columns, 0);
+        prepared.rowCount = 0;
+
+        begin(ROW_DESCRIPTION);
+        ensure(2);
+        frame.putShort((short) columns.size());
+        for (ColumnDef column : columns) {
+            putString(column.getName());
+            ensure(1);
+            frame.put((byte) column.getType().ordinal());
+        }
+        send();
+    }
+
+    /**
+     * Send up to count rows of the open cursor; rows are read from the table only as they are fetched
+     */
+    private void fetch(int id, int count) throws IOException {
+        Prepared prepared = prepared(id);
+        if (prepared.cursor == null) {
+            throw new RuntimeException("Statement " + id + " has no open cursor, EXECUTE it first");
+        }
+        if (count < 1) {
+            throw new RuntimeException("FETCH needs a row count of at least 1");
+        }
+        for (int i = 0; i < count; i++) {
+            Object[] values = prepared.cursor.next();
+            if (values == null) {
+                prepared.closeCursor();
+                sendComplete("SELECT " + prepared.rowCount);
+                return;
+            }
+            sendRow(prepared.rowSchema, values);
+            prepared.rowCount++;
+        }
+        begin(SUSPENDED);
+        send();
+    }
+
+    private void close(int id) throws IOException {
+        Prepared prepared = statements.remove(id);
+        if (prepared != null) prepared.closeCursor();
+        begin(OK);
+        send();
+    }
+
+    private Prepared prepared(int id) {
+        Prepared prepared = statements.get(id);
+        if (prepared == null) {
+            throw new RuntimeException("Statement " + id + " is not prepared");
+        }
+        return prepared;
+    }
+
+    private static ColumnType type(byte ordinal) {
+        if (ordinal < 0 || ordinal >= TYPES.length) {
+            throw new RuntimeException("Unknown column type " + ordinal);
+        }
+        return TYPES[ordinal];
+    }
+
+    /**
+     * A result row: the null bitmap, then the other values as RowLayout encodes them.
+     * Counts and integer sums are longs while being added up and go out as DOUBLE,
+     * which holds them exactly up to 2^53; an INT would overflow past 2^31 - 1.
+     */
+    private void sendRow(TableSchema rowSchema, Object[] values) throws IOException {
+        int bitmapBytes = (values.length + 7) / 8;
+        begin(DATA_ROW);
+        ensure(bitmapBytes);
+        int bitmap = frame.position();
+        // The frame buffer is reused, the bits of an earlier row must not stay set
+        for (int i = 0; i < bitmapBytes; i++) {
+            frame.put((byte) 0);
+        }
+
+        RowLayout row;
+        boolean plain = true;
+        for (Object value : values) {
+            if (value == null || value instanceof Long) {
+                plain = false;
+                break;
+            }
+        }
+        if (plain) {
+            // Every row of a plain SELECT: the values are encoded as they are
+            row = new RowLayout(rowSchema, values);
+        } else {
+            List<ColumnDef> columns = new ArrayList<>(values.length);
+            List<Object> present = new ArrayList<>(values.length);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    frame.put(bitmap + i / 8, (byte) (frame.get(bitmap + i / 8) | 1 << (i % 8)));
+                    continue;
+                }
+                columns.add(rowSchema.getColumns().get(i));
+                present.add(values[i] instanceof Long value ? value.doubleValue() : values[i]);
+            }
+            row = new RowLayout(new TableSchema("result", columns, 0), present.toArray());
+        }
+        ensure(row.encodedSize());
+        frame.position(row.writeTo(frame, frame.position()));
+        send();
+    }
+
+    private void sendComplete(String message) throws IOException {
+        begin(COMPLETE);
+        putString(message);
+        send();
+    }
+
+    private void sendError(String message) throws IOException {
+        begin(ERROR);
+        putString(message);
+        send();
+    }
+
+    /**
+     * Start a frame, its length is left for send to fill in
+     */
+    private void begin(byte type) {
+        frame.clear();
+        frame.position(4);
+        frame.put(type);
+    }
+
+    private void ensure(int bytes) {
+        if (frame.remaining() >= bytes) return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(frame.capacity() * 2, frame.position() + bytes));
+        larger.put(frame.array(), 0, frame.position());
+        frame = larger;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + bytes.length);
+        frame.putInt(bytes.length);
+        frame.put(bytes);
+    }
+
+    private void send() throws IOException {
+        frame.putInt(0, frame.position() - 4);
+        output.write(frame.array(), 0, frame.position());
+    }
+
+    private static String readString(ByteBuffer message) {
+        int length = message.getInt();
+        if (length < 0 || length > message.remaining()) {
+            throw new RuntimeException("String length " + length + " runs past the end of the message");
+        }
+        String value = new String(message.array(), message.position(), length, StandardCharsets.UTF_8);
+        message.position(message.position() + length);
+        return value;
+    }
+}
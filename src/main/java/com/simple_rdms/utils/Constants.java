@@ -2,4 +2,46 @@ package com.simple_rdms.utils;
 
 public class Constants {
     public static final int PAGE_SIZE = 4096;
+    // Number of page frames each table keeps in memory (64 * 4KB = 256KB per table)
+    public static final int BUFFER_POOL_FRAMES = 64;
+
+    // Parsed and planned statements kept in the one cache the shell, HTTP and wire sessions share,
+    // least recently used are dropped first
+    public static final int PLAN_CACHE_SIZE = 256;
+
+    // Rows COPY commits per transaction, bounds the undo state a bulk load keeps in memory
+    public static final int BULK_LOAD_BATCH_ROWS = 50_000;
+
+    // Autovacuum: how often tables are checked, and how many deleted rows make a table worth vacuuming
+    public static final long AUTOVACUUM_INTERVAL_SECONDS = 30;
+    public static final int AUTOVACUUM_MIN_DEAD_ROWS = 1000;
+    // How long a write waits for another transaction writing to the same table before it fails
+    public static final long TABLE_LOCK_TIMEOUT_SECONDS = 10;
+
+    // Full scans: default number of threads, the fewest pages worth splitting, and pages per fork/join task
+    public static final int SCAN_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    public static final int PARALLEL_SCAN_MIN_PAGES = 64;
+    public static final int SCAN_TASK_PAGES = 16;
+
+    // ORDER BY: memory a sort keeps rows in before spilling a sorted run to disk, and runs merged at once
+    public static final long SORT_MEMORY_BYTES = 64L * 1024 * 1024;
+    public static final int SORT_MERGE_FAN_IN = 64;
+
+    // JOIN: memory a hash join keeps build rows in before partitioning both tables on disk,
+    // the number of partitions, and how often a partition too large is split again
+    public static final long JOIN_MEMORY_BYTES = 64L * 1024 * 1024;
+    public static final int JOIN_PARTITIONS = 32;
+    public static final int JOIN_MAX_PARTITION_DEPTH = 3;
+
+    // Binary protocol server: the port it listens on, loopback only, and the largest frame a client may send
+    public static final int WIRE_PORT = 7433;
+    public static final int WIRE_MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    // Rows vacuum checks for dead versions per transaction, writers wait for one batch at most
+    public static final int VACUUM_BATCH_ROWS = 1000;
+
+    // Write-ahead log
+    public static final long WAL_CHECKPOINT_BYTES = 16L * 1024 * 1024; // Truncate the log once it grows past this
+    public static final long WAL_GROUP_COMMIT_WAIT_MICROS = 200; // How long a group commit leader waits for followers
+    public static final long WAL_ASYNC_FLUSH_MILLIS = 10; // fsync interval in ASYNC durability mode
 }
@@ -0,0 +1,114 @@
+package com.simple_rdms.storage_engine.command;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simple_rdms.storage_engine.database_manager.DatabaseManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * POST /sql against a database in a temporary data folder, answered line by line as NDJSON
+ */
+class SQLControllerTest {
+    private final ObjectMapper json = new ObjectMapper();
+    private final String database = "ndjson_test";
+    private final TableFileFactory tableFileFactory = new TableFileFactory();
+    private WebTestClient client;
+
+    @TempDir
+    Path dataDir;
+
+    @BeforeEach
+    void open() throws IOException {
+        DatabaseManager databaseManager = new DatabaseManager(dataDir);
+        SQLExecutor sqlExecutor = new SQLExecutor(tableFileFactory);
+        SQLCommands commands = new SQLCommands(databaseManager, tableFileFactory, sqlExecutor);
+        databaseManager.createDatabase(database);
+        databaseManager.useDatabase(database);
+        commands.createTable("t", "id:INT", "v:STRING");
+        StringBuilder insert = new StringBuilder("INSERT INTO t VALUES (0, 'v0')");
+        for (int i = 1; i < 500; i++) {
+            insert.append(", (").append(i).append(", 'v").append(i).append("')");
+        }
+        commands.executeSQL(insert.toString());
+        client = WebTestClient.bindToController(new SQLController(databaseManager, sqlExecutor)).build();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        tableFileFactory.closeAll();
+    }
+
+    @Test
+    void selectStreamsColumnsThenOneLinePerRow() throws IOException {
+        List<JsonNode> lines = post("SELECT id, v FROM t WHERE id >= ?", 100);
+        JsonNode columns = lines.get(0).get("columns");
+        assertEquals(2, columns.size());
+        assertEquals("id", columns.get(0).asText());
+        assertEquals("v", columns.get(1).asText());
+        assertEquals(401, lines.size());
+        for (int i = 1; i < lines.size(); i++) {
+            JsonNode row = lines.get(i);
+            int id = row.get(0).asInt();
+            assertTrue(id >= 100);
+            assertEquals("v" + id, row.get(1).asText());
+        }
+    }
+
+    @Test
+    void changesAnswerWithAMessage() throws IOException {
+        List<JsonNode> lines = post("UPDATE t SET v = 'z' WHERE id = ?", 3);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).has("message"));
+        assertEquals("z", post("SELECT v FROM t WHERE id = 3").get(1).get(0).asText());
+    }
+
+    @Test
+    void rejectedRequestsAreBadRequests() {
+        for (String sql : List.of("SELEC id FROM t", "BEGIN", "COPY t FROM 'users.csv'", "SELECT nope FROM t")) {
+            String body = client.post().uri("/sql")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(new SQLController.SQLRequest(database, sql, null))
+                    .exchange()
+                    .expectStatus().isBadRequest()
+                    .expectBody(String.class)
+                    .returnResult()
+                    .getResponseBody();
+            assertTrue(body != null && body.contains("\"error\""), sql + ": " + body);
+        }
+        client.post().uri("/sql")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new SQLController.SQLRequest("../" + database, "SELECT * FROM t", null))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    private List<JsonNode> post(String sql, Object... arguments) throws IOException {
+        String body = client.post().uri("/sql")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new SQLController.SQLRequest(database, sql, List.of(arguments)))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.isBlank()) lines.add(json.readTree(line));
+        }
+        return lines;
+    }
+}
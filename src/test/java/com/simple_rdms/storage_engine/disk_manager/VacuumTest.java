@@ -0,0 +1,114 @@
+package com.simple_rdms.storage_engine.disk_manager;
+
+import com.simple_rdms.storage_engine.command.TableFileFactory;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.page.TableStats;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VacuumTest {
+    private static final TableSchema SCHEMA = new TableSchema("events",
+            List.of(new ColumnDef("id", ColumnType.INT), new ColumnDef("kind", ColumnType.STRING),
+                    new ColumnDef("payload", ColumnType.STRING)), 0);
+    private static final int ROWS = 5000;
+
+    @TempDir
+    Path directory;
+    private TableFile table;
+
+    @BeforeEach
+    void open() throws IOException {
+        table = new TableFile(SCHEMA, directory.resolve("events.tbl"), 32);
+        List<RowLayout> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new RowLayout(SCHEMA, i, "kind" + i % 10, "x".repeat(40)));
+        }
+        table.insertBatch(rows);
+        table.createIndex("kind_idx", "kind");
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        table.close();
+    }
+
+    @Test
+    void vacuumReclaimsDeletedRowsAndKeepsTheRest() throws IOException {
+        int pagesBefore = table.getStats().pages;
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 4 != 0) table.delete(i);
+        }
+        table.update(8, new RowLayout(SCHEMA, 8, "updated", "y"));
+        assertEquals(ROWS / 4 * 3 + 1, table.getDeletesSinceVacuum());
+
+        int cut = table.vacuum();
+        TableStats stats = table.getStats();
+        assertTrue(cut > 0, "emptied pages at the end are cut off");
+        assertEquals(pagesBefore - cut, stats.pages);
+        assertEquals(0, stats.deletedRows);
+        assertEquals(ROWS / 4, stats.activeRows);
+        assertEquals(0, table.getDeletesSinceVacuum());
+
+        // Moved rows are found through the primary key and the secondary index
+        for (int i = 0; i < ROWS; i++) {
+            RowLayout row = table.findByPrimaryKey(i);
+            if (i % 4 == 0) {
+                assertNotNull(row, "row " + i);
+            } else {
+                assertNull(row, "row " + i);
+            }
+        }
+        assertEquals("updated", table.findByPrimaryKey(8).getValues(1));
+        assertEquals(ROWS / 20, table.findByIndex("kind_idx", "kind4", true, "kind4", true).size());
+        assertEquals(ROWS / 4, table.readAll().size());
+    }
+
+    @Test
+    void vacuumKeepsVersionsAnOpenScanCanSee() throws IOException {
+        Set<Object> seen = new HashSet<>();
+        try (RowCursor cursor = table.scan(null, null, null)) {
+            seen.add(cursor.next().getValues(0));
+            for (int i = 0; i < ROWS; i++) {
+                table.delete(i);
+            }
+            table.vacuum();
+            RowLayout row;
+            while ((row = cursor.next()) != null) {
+                seen.add(row.getValues(0));
+            }
+        }
+        assertEquals(ROWS, seen.size());
+        assertEquals(0, table.count(null, null));
+
+        table.vacuum();
+        assertEquals(0, table.getStats().totalRows);
+    }
+
+    @Test
+    void autovacuumIsOffUntilTurnedOn() throws IOException {
+        TableFileFactory factory = new TableFileFactory();
+        assertFalse(factory.isAutovacuum());
+        factory.setAutovacuum(true);
+        assertTrue(factory.isAutovacuum());
+        factory.closeAll();
+        assertFalse(factory.isAutovacuum());
+    }
+}
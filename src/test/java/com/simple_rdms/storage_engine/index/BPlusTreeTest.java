@@ -0,0 +1,251 @@
+package com.simple_rdms.storage_engine.index;
+
+import com.simple_rdms.storage_engine.disk_manager.DiskManager;
+import com.simple_rdms.storage_engine.disk_manager.IoMode;
+import com.simple_rdms.storage_engine.page.RowLocation;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.wal.LogManager;
+import com.simple_rdms.storage_engine.wal.Transaction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BPlusTreeTest {
+    private static final int FRAMES = 16;
+    // Holds the large trees whole, so comparing them does not read every node from disk
+    private static final int LARGE_FRAMES = 2048;
+
+    @TempDir
+    Path directory;
+    private LogManager log;
+    private final List<BPlusTree> trees = new ArrayList<>();
+
+    @BeforeEach
+    void open() throws IOException {
+        log = LogManager.open(directory);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        for (BPlusTree tree : trees) {
+            tree.close();
+        }
+        log.release();
+    }
+
+    @Test
+    void splitsKeepEveryKeyFindableAndInOrder() throws IOException {
+        BPlusTree tree = tree("ints", new KeyCodec(ColumnType.INT));
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(42));
+        insert(tree, keys);
+
+        assertTrue(tree.getBufferPool().pageCount() > 50, "leaves and internal nodes were split");
+        for (int key = 0; key < 20000; key++) {
+            assertEquals(location(key), tree.search(key), "key " + key);
+        }
+        assertNull(tree.search(-1));
+        assertNull(tree.search(20000));
+        assertEquals(range(0, 19999, 1), keys(tree.iterator(null, true, null, true)));
+
+        Transaction txn = log.begin();
+        assertThrows(RuntimeException.class, () -> tree.insert(txn, 500, location(0)));
+        txn.abort();
+    }
+
+    @Test
+    void splitsOfVariableSizeKeys() throws IOException {
+        BPlusTree tree = tree("strings", new KeyCodec(ColumnType.STRING));
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Lengths vary, so nodes split by bytes rather than by key count
+            keys.add(String.format("%05d", i) + "x".repeat(i % 60));
+        }
+        List<String> shuffled = new ArrayList<>(keys);
+        Collections.shuffle(shuffled, new Random(7));
+        insert(tree, shuffled);
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(location(keys.get(i)), tree.search(keys.get(i)), keys.get(i));
+        }
+        assertNull(tree.search("00001"));
+        assertEquals(new ArrayList<Object>(keys), keys(tree.iterator(null, true, null, true)));
+    }
+
+    @Test
+    void deletedKeysAreGoneAndTheRestStay() throws IOException {
+        BPlusTree tree = tree("ints", new KeyCodec(ColumnType.INT));
+        insert(tree, range(0, 9999, 1));
+
+        Transaction txn = log.begin();
+        for (int key = 0; key < 10000; key += 2) {
+            assertTrue(tree.delete(txn, key));
+        }
+        assertFalse(tree.delete(txn, 0), "already deleted");
+        assertFalse(tree.delete(txn, 10000), "never inserted");
+        txn.commit();
+
+        for (int key = 0; key < 10000; key++) {
+            if (key % 2 == 0) {
+                assertNull(tree.search(key), "key " + key);
+            } else {
+                assertEquals(location(key), tree.search(key), "key " + key);
+            }
+        }
+        assertEquals(range(1, 9999, 2), keys(tree.iterator(null, true, null, true)));
+
+        // A deleted key can be inserted again, and an aborted delete leaves its key
+        insert(tree, List.of(4));
+        assertEquals(location(4), tree.search(4));
+        Transaction aborted = log.begin();
+        assertTrue(tree.delete(aborted, 5));
+        aborted.abort();
+        assertEquals(location(5), tree.search(5));
+    }
+
+    @Test
+    void rangeBoundsAreInclusiveOrExclusive() throws IOException {
+        BPlusTree tree = tree("ints", new KeyCodec(ColumnType.INT));
+        // Even keys only, so odd bounds fall between two keys
+        insert(tree, range(0, 19998, 2));
+
+        assertEquals(range(10, 20, 2), keys(tree.iterator(10, true, 20, true)));
+        assertEquals(range(12, 18, 2), keys(tree.iterator(10, false, 20, false)));
+        assertEquals(range(12, 18, 2), keys(tree.iterator(11, true, 19, true)));
+        assertEquals(range(12, 18, 2), keys(tree.iterator(11, false, 19, false)));
+        assertEquals(range(0, 4, 2), keys(tree.iterator(null, true, 4, true)));
+        assertEquals(range(19994, 19998, 2), keys(tree.iterator(19993, true, null, true)));
+        assertEquals(range(3000, 8998, 2), keys(tree.iterator(3000, true, 9000, false)));
+        assertEquals(List.of(), keys(tree.iterator(20, true, 10, true)));
+        assertEquals(List.of(), keys(tree.iterator(20, false, 20, true)));
+        assertEquals(List.of(), keys(tree.iterator(20000, true, null, true)));
+        assertEquals(List.of(20), keys(tree.iterator(20, true, 20, true)));
+    }
+
+    @Test
+    void inPlaceSearchAgreesWithDecodedNodes() throws IOException {
+        for (ColumnType type : List.of(ColumnType.INT, ColumnType.FLOAT, ColumnType.DOUBLE)) {
+            BPlusTree inPlace = tree(type + "_in_place", new KeyCodec(type), LARGE_FRAMES);
+            // Claims its keys vary in size, so every node is decoded to be searched
+            BPlusTree decoded = tree(type + "_decoded", new KeyCodec(type) {
+                @Override
+                public int fixedSize() {
+                    return -1;
+                }
+            }, LARGE_FRAMES);
+
+            // Enough keys for a root above a level of internal nodes; every key is a separator
+            // or sits next to one, and the key halfway to the next one is missing
+            int count = 120_000;
+            List<IndexEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Object key = key(type, i - count / 2, false);
+                entries.add(new IndexEntry(key, location(key)));
+            }
+            for (BPlusTree tree : List.of(inPlace, decoded)) {
+                Transaction txn = log.begin();
+                tree.insertAll(txn, entries);
+                txn.commit();
+            }
+
+            // Every key and every gap is searched in place; decoding nodes is slow, so the decoded
+            // tree, which holds the same entries, answers for every tenth
+            for (int i = -count / 2 - 2; i < count / 2 + 2; i++) {
+                for (boolean missing : new boolean[]{false, true}) {
+                    Object key = key(type, i, missing);
+                    boolean present = !missing && i >= -count / 2 && i < count / 2;
+                    RowLocation found = inPlace.search(key);
+                    assertEquals(present ? location(key) : null, found, type + " key " + key);
+                    if (i % 10 == 0) {
+                        assertEquals(decoded.search(key), found, type + " key " + key);
+                    }
+                }
+            }
+
+            for (int i = -count / 2 - 1; i <= count / 2; i += 997) {
+                for (boolean missing : new boolean[]{false, true}) {
+                    Object low = key(type, i, missing);
+                    Object high = key(type, i + 400, missing);
+                    for (boolean inclusive : new boolean[]{false, true}) {
+                        assertEquals(keys(decoded.iterator(low, inclusive, high, inclusive)),
+                                keys(inPlace.iterator(low, inclusive, high, inclusive)), type + " range from " + low);
+                    }
+                }
+            }
+            assertEquals(keys(decoded.iterator(null, true, null, true)), keys(inPlace.iterator(null, true, null, true)));
+        }
+    }
+
+    private BPlusTree tree(String name, KeyCodec codec) throws IOException {
+        return tree(name, codec, FRAMES);
+    }
+
+    private BPlusTree tree(String name, KeyCodec codec, int frames) throws IOException {
+        BPlusTree tree = new BPlusTree(DiskManager.open(directory.resolve(name + ".idx"), IoMode.FILE),
+                codec, frames, log);
+        trees.add(tree);
+        return tree;
+    }
+
+    // Keys are inserted 1000 to a transaction, each pointing at a location made from the key
+    private void insert(BPlusTree tree, List<?> keys) throws IOException {
+        for (int from = 0; from < keys.size(); from += 1000) {
+            Transaction txn = log.begin();
+            for (Object key : keys.subList(from, Math.min(from + 1000, keys.size()))) {
+                tree.insert(txn, key, location(key));
+            }
+            txn.commit();
+        }
+    }
+
+    // The i-th key of a type, i * 2 for INT and i / 2 for FLOAT and DOUBLE; missing is halfway to the next one
+    private static Object key(ColumnType type, int i, boolean missing) {
+        return switch (type) {
+            case INT -> i * 2 + (missing ? 1 : 0);
+            case FLOAT -> i / 2f + (missing ? 0.25f : 0);
+            case DOUBLE -> i / 2d + (missing ? 0.25 : 0);
+            default -> throw new IllegalArgumentException("No fixed-size keys of type " + type);
+        };
+    }
+
+    private static RowLocation location(Object key) {
+        int hash = key.hashCode();
+        return new RowLocation(hash >>> 8, hash & 0xFF);
+    }
+
+    private static List<Object> range(int from, int to, int step) {
+        List<Object> keys = new ArrayList<>();
+        for (int key = from; key <= to; key += step) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private static List<Object> keys(Iterator<IndexEntry> entries) {
+        List<Object> keys = new ArrayList<>();
+        while (entries.hasNext()) {
+            IndexEntry entry = entries.next();
+            assertEquals(location(entry.getKey()), entry.getLocation(), "location of " + entry.getKey());
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
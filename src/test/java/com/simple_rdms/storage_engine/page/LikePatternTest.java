@@ -0,0 +1,108 @@
+package com.simple_rdms.storage_engine.page;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LikePatternTest {
+    // One character each of 1, 2, 3 and 4 UTF-8 bytes
+    private static final String[] CHARACTERS = {"a", "é", "中", "😀"};
+
+    @Test
+    void underscoreMatchesOneWholeCharacter() {
+        for (String character : CHARACTERS) {
+            assertTrue(new LikePattern("_").matches(character), character);
+            assertFalse(new LikePattern("__").matches(character), character);
+            assertTrue(new LikePattern("x_y").matches("x" + character + "y"), character);
+        }
+        assertFalse(new LikePattern("_").matches(""));
+        assertTrue(new LikePattern("caf_").matches("café"));
+        assertFalse(new LikePattern("caf__").matches("café"));
+        assertTrue(new LikePattern("_中_").matches("é中😀"));
+    }
+
+    @Test
+    void percentAroundMultiByteCharacters() {
+        assertTrue(new LikePattern("%é").matches("café"));
+        assertTrue(new LikePattern("%中%").matches("在中国"));
+        assertTrue(new LikePattern("%中%").matches("中"));
+        assertFalse(new LikePattern("%中%").matches("在国"));
+        // Backtracking past a character must not land inside it
+        assertTrue(new LikePattern("%é_").matches("éé中"));
+        assertTrue(new LikePattern("%_😀").matches("😀😀😀"));
+        assertFalse(new LikePattern("%_😀").matches("😀"));
+        // Same first byte, different character
+        assertFalse(new LikePattern("%é").matches("cafè"));
+    }
+
+    @Test
+    void trailingPercent() {
+        LikePattern pattern = new LikePattern("ab%");
+        assertTrue(pattern.matches("ab"));
+        assertTrue(pattern.matches("abc"));
+        assertTrue(pattern.matches("ab中😀"));
+        assertFalse(pattern.matches("a"));
+        assertFalse(pattern.matches("xab"));
+        assertTrue(new LikePattern("é%%").matches("é"));
+        assertFalse(new LikePattern("_%").matches(""));
+    }
+
+    @Test
+    void emptyStringAndEmptyPattern() {
+        assertTrue(new LikePattern("").matches(""));
+        assertFalse(new LikePattern("").matches("a"));
+        assertTrue(new LikePattern("%").matches(""));
+        assertTrue(new LikePattern("%%").matches(""));
+        assertTrue(new LikePattern("%").matches("😀中é"));
+        assertFalse(new LikePattern("a").matches(""));
+    }
+
+    @Test
+    void matchesOnlyTheGivenBytesOfABuffer() {
+        byte[] value = "é中".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(value.length + 4);
+        buffer.put(0, "xx".getBytes(StandardCharsets.UTF_8));
+        buffer.put(2, value);
+        buffer.put(2 + value.length, "yy".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(new LikePattern("__").matches(buffer, 2, 2 + value.length));
+        assertTrue(new LikePattern("é%").matches(buffer, 2, 2 + value.length));
+        assertFalse(new LikePattern("%y").matches(buffer, 2, 2 + value.length));
+        assertTrue(new LikePattern("").matches(buffer, 2, 2));
+    }
+
+    @Test
+    void agreesWithARegularExpressionOnMixedWidths() {
+        Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            String value = randomText(random, 6, false);
+            String like = randomText(random, 5, true);
+            assertEquals(regex(like).matcher(value).matches(), new LikePattern(like).matches(value),
+                    "'" + value + "' LIKE '" + like + "'");
+        }
+    }
+
+    private static String randomText(Random random, int maxLength, boolean wildcards) {
+        StringBuilder text = new StringBuilder();
+        for (int length = random.nextInt(maxLength + 1); length > 0; length--) {
+            int pick = random.nextInt(wildcards ? CHARACTERS.length + 2 : CHARACTERS.length);
+            text.append(pick < CHARACTERS.length ? CHARACTERS[pick] : pick == CHARACTERS.length ? "_" : "%");
+        }
+        return text.toString();
+    }
+
+    // A regular expression works on code points, as LIKE should
+    private static Pattern regex(String like) {
+        StringBuilder regex = new StringBuilder();
+        like.codePoints().forEach(c -> regex.append(c == '%' ? ".*" : c == '_' ? "."
+                : Pattern.quote(new String(Character.toChars(c)))));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
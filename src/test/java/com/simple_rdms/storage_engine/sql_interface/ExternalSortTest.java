@@ -0,0 +1,120 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.TableFile;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ORDER BY with a memory budget far below the table's size, so rows are sorted in runs on disk
+ */
+class ExternalSortTest {
+    private static final TableSchema SCHEMA = new TableSchema("items",
+            List.of(new ColumnDef("id", ColumnType.INT), new ColumnDef("price", ColumnType.DOUBLE),
+                    new ColumnDef("name", ColumnType.STRING)), 0);
+    private static final int ROWS = 20000;
+
+    @TempDir
+    Path directory;
+    private TableFile table;
+    private final List<Object[]> rows = new ArrayList<>();
+    private final long sortBudget = ExternalSort.getMemoryBudget();
+
+    @BeforeEach
+    void open() throws IOException {
+        table = new TableFile(SCHEMA, directory.resolve("items.tbl"), 64);
+        Random random = new Random(22);
+        List<RowLayout> batch = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Object[] values = {i, (double) random.nextInt(1000), "name" + random.nextInt(5000)};
+            rows.add(values);
+            batch.add(new RowLayout(SCHEMA, values));
+        }
+        table.insertBatch(batch);
+        ExternalSort.setMemoryBudget(16 * 1024);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        ExternalSort.setMemoryBudget(sortBudget);
+        table.close();
+    }
+
+    @Test
+    void spilledSortMatchesAnInMemorySort() throws IOException {
+        List<String> result = new ArrayList<>();
+        try (ResultCursor cursor = cursor("SELECT id, price, name FROM items ORDER BY price DESC, name, id")) {
+            Object[] values = cursor.next();
+            assertTrue(spillFiles() > 0, "rows over the budget are written out in runs");
+            while (values != null) {
+                result.add(values[0] + ", " + values[1] + ", " + values[2]);
+                values = cursor.next();
+            }
+        }
+        assertEquals(0, spillFiles());
+
+        List<String> expected = rows.stream()
+                .sorted(Comparator.comparing((Object[] row) -> (Double) row[1]).reversed()
+                        .thenComparing(row -> (String) row[2])
+                        .thenComparing(row -> (Integer) row[0]))
+                .map(row -> row[0] + ", " + row[1] + ", " + row[2])
+                .toList();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    void limitAndFilterOverASpilledSort() throws IOException {
+        List<Object> names = new ArrayList<>();
+        try (ResultCursor cursor = cursor("SELECT name FROM items WHERE price < 500 ORDER BY name LIMIT 10")) {
+            Object[] values;
+            while ((values = cursor.next()) != null) {
+                names.add(values[0]);
+            }
+        }
+        List<Object> expected = rows.stream()
+                .filter(row -> (Double) row[1] < 500)
+                .map(row -> row[2])
+                .sorted(Comparator.comparing(name -> (String) name))
+                .limit(10)
+                .toList();
+        assertEquals(expected, names);
+        assertEquals(0, spillFiles());
+    }
+
+    @Test
+    void closingEarlyDeletesTheRuns() throws IOException {
+        try (ResultCursor cursor = cursor("SELECT id FROM items ORDER BY name")) {
+            cursor.next();
+            assertTrue(spillFiles() > 0);
+        }
+        assertEquals(0, spillFiles());
+    }
+
+    private ResultCursor cursor(String sql) throws IOException {
+        SQLTableInterface items = new SQLTableInterface(table, SCHEMA);
+        return items.query(items.prepare(sql));
+    }
+
+    private long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".run")).count();
+        }
+    }
+}
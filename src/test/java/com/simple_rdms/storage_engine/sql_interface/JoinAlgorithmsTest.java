@@ -0,0 +1,165 @@
+package com.simple_rdms.storage_engine.sql_interface;
+
+import com.simple_rdms.storage_engine.disk_manager.TableFile;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The same join answered by each join algorithm. openJoin picks one by the shape of the query:
+ * an index nested loop join when only one side has a range on an index, a merge join when the
+ * result is ordered by the join key, and a hash join otherwise.
+ */
+class JoinAlgorithmsTest {
+    private static final TableSchema USERS = new TableSchema("users",
+            List.of(new ColumnDef("id", ColumnType.INT), new ColumnDef("city", ColumnType.STRING)), 0);
+    private static final TableSchema ORDERS = new TableSchema("orders",
+            List.of(new ColumnDef("id", ColumnType.INT), new ColumnDef("user_id", ColumnType.INT),
+                    new ColumnDef("item", ColumnType.STRING)), 0);
+    private static final int USER_COUNT = 2000;
+    private static final int ORDER_COUNT = 10000;
+    private static final String JOIN = "SELECT u.id, o.id FROM users u JOIN orders o ON u.id = o.user_id";
+
+    @TempDir
+    Path directory;
+    private TableFile users;
+    private TableFile orders;
+    // u.id, o.id of every joined pair, worked out with a nested loop
+    private final List<String> expected = new ArrayList<>();
+    private final long hashBudget = HashJoin.getMemoryBudget();
+    private final long sortBudget = ExternalSort.getMemoryBudget();
+
+    @BeforeEach
+    void open() throws IOException {
+        users = new TableFile(USERS, directory.resolve("users.tbl"), 64);
+        orders = new TableFile(ORDERS, directory.resolve("orders.tbl"), 64);
+        Random random = new Random(23);
+        List<RowLayout> rows = new ArrayList<>();
+        for (int i = 0; i < USER_COUNT; i++) {
+            rows.add(new RowLayout(USERS, i, "city" + random.nextInt(20)));
+        }
+        users.insertBatch(rows);
+
+        rows = new ArrayList<>();
+        int[] userIds = new int[ORDER_COUNT];
+        for (int i = 0; i < ORDER_COUNT; i++) {
+            // Some orders have no user, and user 7 has many orders
+            userIds[i] = i % 10 == 0 ? 7 : random.nextInt(USER_COUNT + 200);
+            rows.add(new RowLayout(ORDERS, i, userIds[i], "item" + random.nextInt(500)));
+        }
+        orders.insertBatch(rows);
+        orders.createIndex("user_idx", "user_id");
+
+        for (int u = 0; u < USER_COUNT; u++) {
+            for (int o = 0; o < ORDER_COUNT; o++) {
+                if (userIds[o] == u) expected.add(u + ", " + o);
+            }
+        }
+        Collections.sort(expected);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        HashJoin.setMemoryBudget(hashBudget);
+        ExternalSort.setMemoryBudget(sortBudget);
+        orders.close();
+        users.close();
+    }
+
+    @Test
+    void hashJoin() throws IOException {
+        assertEquals(expected, sorted(query(JOIN)));
+    }
+
+    @Test
+    void graceHashJoinSpillsPartitionsAndCleansUp() throws IOException {
+        HashJoin.setMemoryBudget(16 * 1024);
+        List<String> rows = new ArrayList<>();
+        try (ResultCursor cursor = cursor(JOIN)) {
+            Object[] values = cursor.next();
+            assertTrue(spillFiles() > 0, "a build side over the budget is partitioned to disk");
+            while (values != null) {
+                rows.add(values[0] + ", " + values[1]);
+                values = cursor.next();
+            }
+        }
+        assertEquals(0, spillFiles());
+        assertEquals(expected, sorted(rows));
+    }
+
+    @Test
+    void mergeJoinReturnsRowsInKeyOrder() throws IOException {
+        List<String> rows = query(JOIN + " ORDER BY u.id");
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue(userId(rows.get(i - 1)) <= userId(rows.get(i)), "out of order at " + i);
+        }
+        assertEquals(expected, sorted(rows));
+    }
+
+    @Test
+    void mergeJoinWithSpilledSort() throws IOException {
+        ExternalSort.setMemoryBudget(16 * 1024);
+        assertEquals(expected, sorted(query(JOIN + " ORDER BY u.id")));
+        assertEquals(0, spillFiles());
+    }
+
+    @Test
+    void indexNestedLoopJoin() throws IOException {
+        assertEquals(expected, sorted(query(JOIN + " WHERE u.id >= 0")));
+
+        List<String> narrowed = new ArrayList<>();
+        for (String row : expected) {
+            if (userId(row) >= 100 && userId(row) <= 200) narrowed.add(row);
+        }
+        assertEquals(narrowed, sorted(query(JOIN + " WHERE u.id BETWEEN 100 AND 200")));
+    }
+
+    private ResultCursor cursor(String sql) throws IOException {
+        SQLTableInterface table = new SQLTableInterface(users, USERS, orders, ORDERS, null);
+        return table.query(table.prepare(sql));
+    }
+
+    private List<String> query(String sql) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (ResultCursor cursor = cursor(sql)) {
+            Object[] values;
+            while ((values = cursor.next()) != null) {
+                rows.add(values[0] + ", " + values[1]);
+            }
+        }
+        return rows;
+    }
+
+    private long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".run")).count();
+        }
+    }
+
+    private static List<String> sorted(List<String> rows) {
+        List<String> copy = new ArrayList<>(rows);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    private static int userId(String row) {
+        return Integer.parseInt(row.substring(0, row.indexOf(',')));
+    }
+}
@@ -0,0 +1,184 @@
+package com.simple_rdms.storage_engine.sql_parser;
+
+import com.simple_rdms.storage_engine.sql_parser.Expression.And;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Between;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Comparison;
+import com.simple_rdms.storage_engine.sql_parser.Expression.In;
+import com.simple_rdms.storage_engine.sql_parser.Expression.IsNull;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Like;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Literal;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Not;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Operator;
+import com.simple_rdms.storage_engine.sql_parser.Expression.Or;
+import com.simple_rdms.storage_engine.sql_parser.Statement.Aggregate;
+import com.simple_rdms.storage_engine.sql_parser.Statement.Assignment;
+import com.simple_rdms.storage_engine.sql_parser.Statement.OrderBy;
+import com.simple_rdms.storage_engine.sql_parser.Statement.SelectItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Each rule of the grammar in the Parser Javadoc, then the statements it must refuse
+ */
+class ParserTest {
+
+    @Test
+    void selectWithEveryClause() {
+        Statement statement = Parser.parse("SELECT u.id, COUNT(*), sum(age) FROM users AS u INNER JOIN orders o "
+                + "ON u.id = o.user_id WHERE age >= 18 GROUP BY u.id ORDER BY COUNT(*) DESC, u.id ASC LIMIT 10;");
+        assertEquals(new Statement.Select("users", "u",
+                new Statement.Join("orders", "o", "u.id", "o.user_id"),
+                List.of(new SelectItem("u.id", null), new SelectItem(null, Aggregate.COUNT),
+                        new SelectItem("age", Aggregate.SUM)),
+                new Comparison("age", Operator.GREATER_EQUALS, number(18)),
+                List.of("u.id"),
+                List.of(new OrderBy(new SelectItem(null, Aggregate.COUNT), true),
+                        new OrderBy(new SelectItem("u.id", null), false)),
+                10), statement);
+    }
+
+    @Test
+    void selectStarAndOptionalClauses() {
+        assertEquals(new Statement.Select("users", null, null, List.of(), null, List.of(), List.of(), null),
+                Parser.parse("select * from users"));
+        Statement.Select join = (Statement.Select) Parser.parse("SELECT * FROM a JOIN b ON a.id = b.a_id");
+        assertEquals(new Statement.Join("b", null, "a.id", "b.a_id"), join.join());
+        assertEquals("x", ((Statement.Select) Parser.parse("SELECT * FROM t x")).alias());
+    }
+
+    @Test
+    void whereBindsNotThenAndThenOr() {
+        assertEquals(new Or(comparison("a", 1), new And(comparison("b", 2), comparison("c", 3))),
+                where("a = 1 OR b = 2 AND c = 3"));
+        assertEquals(new And(new Or(comparison("a", 1), comparison("b", 2)), comparison("c", 3)),
+                where("(a = 1 OR b = 2) AND c = 3"));
+        assertEquals(new And(new Not(comparison("a", 1)), comparison("b", 2)), where("NOT a = 1 AND b = 2"));
+        assertEquals(new Not(new Not(comparison("a", 1))), where("NOT NOT a = 1"));
+    }
+
+    @Test
+    void comparisons() {
+        // A constant on the left is turned around
+        assertEquals(new Comparison("id", Operator.GREATER, number(5)), where("5 < id"));
+        assertEquals(new Comparison("id", Operator.NOT_EQUALS, number(5)), where("id <> 5"));
+        assertEquals(new Comparison("id", Operator.NOT_EQUALS, number(5)), where("id != 5"));
+        assertEquals(new Comparison("id", Operator.LESS_EQUALS, new Literal(-2.5, "-2.5")), where("id <= -2.5"));
+        assertEquals(new IsNull("name"), where("name IS NULL"));
+        assertEquals(new Not(new IsNull("name")), where("name IS NOT NULL"));
+        assertEquals(new Between("age", number(1), number(9)), where("age BETWEEN 1 AND 9"));
+        assertEquals(new Not(new Between("age", number(1), number(9))), where("age NOT BETWEEN 1 AND 9"));
+        assertEquals(new Like("name", string("A_%")), where("name LIKE 'A_%'"));
+        assertEquals(new Not(new Like("name", string("A%"))), where("name NOT LIKE 'A%'"));
+        assertEquals(new In("id", List.of(number(1), number(2))), where("id IN (1, 2)"));
+        assertEquals(new Not(new In("name", List.of(string("O'Brien")))), where("name NOT IN ('O''Brien')"));
+        assertEquals(new Comparison("active", Operator.EQUALS, new Literal(true, "true")), where("active = TRUE"));
+    }
+
+    @Test
+    void changeStatements() {
+        assertEquals(new Statement.Insert("t", List.of(List.of(number(1), string("a")), List.of(number(2), string("b")))),
+                Parser.parse("INSERT INTO t VALUES (1, 'a'), (2, \"b\")"));
+        assertEquals(new Statement.Update("t",
+                        List.of(new Assignment("v", string("z")), new Assignment("n", number(0))), comparison("id", 3)),
+                Parser.parse("UPDATE t SET v = 'z', n = 0 WHERE id = 3"));
+        assertEquals(new Statement.Delete("t", null), Parser.parse("DELETE FROM t"));
+        assertEquals(new Statement.Copy("t", "rows.csv", true), Parser.parse("COPY t FROM 'rows.csv' HEADER"));
+        assertEquals(new Statement.Copy("t", "rows.csv", false), Parser.parse("COPY t FROM 'rows.csv'"));
+        assertEquals(new Statement.CreateIndex("t_v", "t", "v"), Parser.parse("CREATE INDEX t_v ON t (v)"));
+        assertEquals(new Statement.DropIndex("t_v", "t"), Parser.parse("DROP INDEX t_v ON t"));
+    }
+
+    @Test
+    void preparedStatementsAndParameters() {
+        Statement.Prepare prepare = (Statement.Prepare) Parser.parse("PREPARE q AS SELECT  *  FROM Users WHERE id = ?;");
+        assertEquals("q", prepare.name());
+        assertEquals("SELECT * FROM users WHERE id = ?", prepare.sql());
+        assertEquals("Users", prepare.tableName());
+
+        // Parameters are numbered in the order they appear
+        assertEquals(new Between("id", Literal.parameter(0), Literal.parameter(1)), where("id BETWEEN ? AND ?"));
+        assertEquals(new Statement.Execute("q", List.of(number(7), string("x"))), Parser.parse("EXECUTE q (7, 'x')"));
+        assertEquals(new Statement.Execute("q", List.of()), Parser.parse("EXECUTE q"));
+        assertEquals(new Statement.Execute("q", List.of()), Parser.parse("EXECUTE q ()"));
+    }
+
+    @Test
+    void transactionStatements() {
+        assertEquals(new Statement.Begin(), Parser.parse("BEGIN"));
+        assertEquals(new Statement.Begin(), Parser.parse("begin transaction;"));
+        assertEquals(new Statement.Commit(), Parser.parse("COMMIT"));
+        assertEquals(new Statement.Rollback(), Parser.parse("ROLLBACK"));
+    }
+
+    @Test
+    void reservedWordsAreNotNames() {
+        assertSyntaxError("SELECT from FROM t", 7, "a name");
+        assertSyntaxError("SELECT * FROM order", 14, "a name");
+        assertSyntaxError("CREATE INDEX index ON t (v)", 13, "a name");
+        assertSyntaxError("UPDATE t SET values = 1", 13, "a name");
+
+        // A word that only starts with a keyword is a name, a keyword in quotes is a string
+        assertEquals(new Statement.Select("orders", null, null, List.of(new SelectItem("selection", null)),
+                        new Comparison("index_name", Operator.EQUALS, string("SELECT")), List.of(), List.of(), null),
+                Parser.parse("SELECT selection FROM orders WHERE index_name = 'SELECT'"));
+    }
+
+    @Test
+    void malformedStatementsAreRefused() {
+        assertSyntaxError("", 0, "a statement");
+        assertSyntaxError("SHOW TABLES", 0, "a statement");
+        assertSyntaxError("SELECT FROM t", 7, "a name");
+        assertSyntaxError("SELECT id t", 10, "FROM");
+        assertSyntaxError("SELECT * FROM t a b", 18, "end of statement");
+        assertSyntaxError("SELECT * FROM t;;", 16, "end of statement");
+        assertSyntaxError("SELECT * FROM t LIMIT x", 22, "a row count");
+        assertSyntaxError("SELECT * FROM t WHERE", 21, "a value");
+        assertSyntaxError("SELECT * FROM t WHERE id NOT = 3", 29, "BETWEEN, LIKE or IN");
+        assertSyntaxError("SELECT * FROM t WHERE (id = 3", 29, "')'");
+        assertSyntaxError("SELECT * FROM t WHERE id IS 3", 28, "NULL");
+        assertSyntaxError("SELECT * FROM t ORDER id", 22, "BY");
+        assertSyntaxError("SELECT * FROM a JOIN b ON a.id < b.id", 31, "'='");
+        assertSyntaxError("INSERT INTO t VALUES (1, 2", 26, "')'");
+        assertSyntaxError("INSERT INTO t (1)", 14, "VALUES");
+        assertSyntaxError("COPY t FROM rows", 12, "a file name");
+        assertSyntaxError("PREPARE p AS BEGIN", 13, "a statement");
+        assertSyntaxError("PREPARE p AS EXECUTE q", 13, "a statement");
+
+        assertError("SELECT FOO(id) FROM t", "Unknown function FOO");
+        assertError("SELECT * FROM t LIMIT 99999999999", "Invalid LIMIT 99999999999");
+        assertError("SELECT * FROM t WHERE id = 1.2.3", "Invalid number 1.2.3");
+        assertError("EXECUTE p (?)", "EXECUTE arguments cannot be parameters");
+        assertError("SELECT * FROM t WHERE name = 'open", "Unterminated string");
+        assertError("SELECT # FROM t", "Unexpected character '#' at position 7");
+    }
+
+    private static Expression where(String condition) {
+        return ((Statement.Select) Parser.parse("SELECT * FROM t WHERE " + condition)).where();
+    }
+
+    private static Comparison comparison(String column, int value) {
+        return new Comparison(column, Operator.EQUALS, number(value));
+    }
+
+    private static Literal number(int value) {
+        return new Literal(value, String.valueOf(value));
+    }
+
+    private static Literal string(String value) {
+        return new Literal(value, value);
+    }
+
+    private static void assertSyntaxError(String sql, int position, String expected) {
+        assertError(sql, "Syntax error at position " + position + ": expected " + expected + " but found");
+    }
+
+    private static void assertError(String sql, String message) {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> Parser.parse(sql));
+        assertTrue(e.getMessage().startsWith(message), sql + ": " + e.getMessage());
+    }
+}
@@ -0,0 +1,147 @@
+package com.simple_rdms.storage_engine.wal;
+
+import com.simple_rdms.storage_engine.disk_manager.BufferPool;
+import com.simple_rdms.storage_engine.disk_manager.TableFile;
+import com.simple_rdms.storage_engine.page.Page;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * A crash is simulated by copying the database directory while a table is open: the copy
+ * holds what reached the disk and nothing the JVM still had in memory.
+ */
+class RecoveryTest {
+    private static final TableSchema SCHEMA = new TableSchema("users",
+            List.of(new ColumnDef("id", ColumnType.INT), new ColumnDef("name", ColumnType.STRING)), 0);
+
+    @TempDir
+    Path directory;
+
+    private final DurabilityMode defaultMode = LogManager.getDefaultDurabilityMode();
+
+    @AfterEach
+    void restoreDurability() {
+        LogManager.setDefaultDurabilityMode(defaultMode);
+    }
+
+    @Test
+    void committedChangesSurviveAndLosersAreUndone() throws IOException {
+        LogManager.setDefaultDurabilityMode(DurabilityMode.SYNC);
+        Path live = Files.createDirectory(directory.resolve("live"));
+        TableFile table = new TableFile(SCHEMA, live.resolve("users.tbl"), 4);
+        for (int i = 0; i < 2000; i++) {
+            table.insert(new RowLayout(SCHEMA, i, "n" + i));
+        }
+        for (int i = 0; i < 2000; i += 5) {
+            table.delete(i);
+        }
+        table.update(7, new RowLayout(SCHEMA, 7, "updated"));
+
+        // A transaction still running at the crash, its page forced to disk ahead of its commit
+        Transaction loser = table.getLogManager().begin();
+        scribble(loser, table.getBufferPool(), 0);
+        table.getBufferPool().flushAll();
+
+        Path crashed = copy(live, directory.resolve("crashed"));
+        loser.abort();
+        table.close();
+
+        TableFile recovered = new TableFile(SCHEMA, crashed.resolve("users.tbl"), 4);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                RowLayout row = recovered.findByPrimaryKey(i);
+                if (i % 5 == 0) {
+                    assertNull(row, "deleted row " + i);
+                } else {
+                    assertNotNull(row, "committed row " + i);
+                    assertEquals(i == 7 ? "updated" : "n" + i, row.getValues(1));
+                }
+            }
+            assertEquals(1600, recovered.readAll().size());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void recoveryAfterFuzzyCheckpointUndoesTheRunningTransaction() throws IOException {
+        LogManager.setDefaultDurabilityMode(DurabilityMode.SYNC);
+        Path live = Files.createDirectory(directory.resolve("live"));
+        // Two tables sharing the directory's log, the loser writes to the second one
+        TableFile table = new TableFile(SCHEMA, live.resolve("users.tbl"), 4);
+        TableFile pending = new TableFile(SCHEMA, live.resolve("pending.tbl"), 4);
+        LogManager log = table.getLogManager();
+        for (int i = 0; i < 100; i++) {
+            pending.insert(new RowLayout(SCHEMA, i, "p" + i));
+        }
+        Transaction loser = log.begin();
+        scribble(loser, pending.getBufferPool(), 0);
+        for (int i = 0; i < 1000; i++) {
+            table.insert(new RowLayout(SCHEMA, i, "n" + i));
+        }
+        // The log cannot be emptied while the loser runs, but the committed work is written out
+        assertFalse(log.checkpoint());
+        for (int i = 1000; i < 1500; i++) {
+            table.insert(new RowLayout(SCHEMA, i, "n" + i));
+        }
+        table.getBufferPool().flushAll();
+        pending.getBufferPool().flushAll();
+
+        Path crashed = copy(live, directory.resolve("crashed"));
+        loser.abort();
+        pending.close();
+        table.close();
+
+        TableFile recovered = new TableFile(SCHEMA, crashed.resolve("users.tbl"), 4);
+        TableFile recoveredPending = new TableFile(SCHEMA, crashed.resolve("pending.tbl"), 4);
+        try {
+            assertEquals("n0", recovered.findByPrimaryKey(0).getValues(1));
+            assertEquals("n1499", recovered.findByPrimaryKey(1499).getValues(1));
+            assertEquals(1500, recovered.readAll().size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("p" + i, recoveredPending.findByPrimaryKey(i).getValues(1));
+            }
+            assertEquals(100, recoveredPending.readAll().size());
+        } finally {
+            recoveredPending.close();
+            recovered.close();
+        }
+    }
+
+    // Overwrites two separate byte runs of a data page: the first record and the slot directory at its end
+    private static void scribble(Transaction txn, BufferPool pool, int pageId) throws IOException {
+        Page page = txn.fetchForWrite(pool, pageId);
+        int size = page.data().length;
+        for (int i = 0; i < 64; i++) {
+            page.buffer().put(Page.HEADER_SIZE + i, (byte) 0x7F);
+            page.buffer().put(size - 1 - i, (byte) 0x7F);
+        }
+        txn.releaseWrite(pool, pageId);
+    }
+
+    private static Path copy(Path from, Path to) throws IOException {
+        Files.createDirectory(to);
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+        return to;
+    }
+}
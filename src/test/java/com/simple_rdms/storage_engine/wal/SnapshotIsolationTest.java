@@ -0,0 +1,127 @@
+package com.simple_rdms.storage_engine.wal;
+
+import com.simple_rdms.storage_engine.disk_manager.RowCursor;
+import com.simple_rdms.storage_engine.disk_manager.TableFile;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SnapshotIsolationTest {
+    private static final TableSchema SCHEMA = new TableSchema("accounts",
+            List.of(new ColumnDef("id", ColumnType.INT), new ColumnDef("owner", ColumnType.STRING)), 0);
+    private static final int ROWS = 3000;
+
+    @TempDir
+    Path directory;
+    private TableFile table;
+
+    @BeforeEach
+    void open() throws IOException {
+        table = new TableFile(SCHEMA, directory.resolve("accounts.tbl"), 16);
+        for (int i = 0; i < ROWS; i++) {
+            table.insert(new RowLayout(SCHEMA, i, "a" + i));
+        }
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        table.close();
+    }
+
+    @Test
+    void uncommittedChangesAreSeenOnlyByTheirTransaction() throws IOException {
+        Transaction writer = table.getLogManager().begin();
+        table.update(writer, 1, new RowLayout(SCHEMA, 1, "changed"));
+        table.delete(writer, 2);
+        table.insert(writer, new RowLayout(SCHEMA, ROWS, "new"));
+
+        Transaction reader = table.getLogManager().begin();
+        Map<Integer, String> seen = read(reader);
+        assertEquals(ROWS, seen.size());
+        assertEquals("a1", seen.get(1));
+        assertEquals("a2", seen.get(2));
+        assertNull(seen.get(ROWS));
+
+        Map<Integer, String> own = read(writer);
+        assertEquals(ROWS, own.size());
+        assertEquals("changed", own.get(1));
+        assertNull(own.get(2));
+        assertEquals("new", own.get(ROWS));
+
+        writer.commit();
+        Map<Integer, String> after = read(reader);
+        assertEquals("changed", after.get(1));
+        assertNull(after.get(2));
+        reader.commit();
+    }
+
+    @Test
+    void openScanKeepsItsSnapshotWhileAnotherTransactionCommits() throws IOException {
+        Map<Integer, String> seen = new HashMap<>();
+        try (RowCursor cursor = table.scan(null, null, null)) {
+            RowLayout row = cursor.next();
+            seen.put((Integer) row.getValues(0), (String) row.getValues(1));
+
+            // The writer is not held up by the open reader
+            Transaction writer = table.getLogManager().begin();
+            for (int i = 0; i < ROWS; i++) {
+                if (i % 2 == 0) {
+                    table.delete(writer, i);
+                } else {
+                    table.update(writer, i, new RowLayout(SCHEMA, i, "b" + i));
+                }
+            }
+            table.insert(writer, new RowLayout(SCHEMA, ROWS, "new"));
+            writer.commit();
+
+            while ((row = cursor.next()) != null) {
+                seen.put((Integer) row.getValues(0), (String) row.getValues(1));
+            }
+        }
+        assertEquals(ROWS, seen.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals("a" + i, seen.get(i));
+        }
+
+        assertEquals(ROWS / 2 + 1, table.count(null, null));
+        assertEquals("b1", table.findByPrimaryKey(1).getValues(1));
+        assertNull(table.findByPrimaryKey(0));
+    }
+
+    @Test
+    void abortedChangesAreNeverSeen() throws IOException {
+        Transaction writer = table.getLogManager().begin();
+        table.update(writer, 5, new RowLayout(SCHEMA, 5, "aborted"));
+        table.delete(writer, 6);
+        writer.abort();
+
+        assertEquals("a5", table.findByPrimaryKey(5).getValues(1));
+        assertEquals("a6", table.findByPrimaryKey(6).getValues(1));
+        assertEquals(ROWS, table.count(null, null));
+    }
+
+    private Map<Integer, String> read(Transaction txn) throws IOException {
+        Map<Integer, String> rows = new HashMap<>();
+        try (RowCursor cursor = table.scan(txn, null, null)) {
+            RowLayout row;
+            while ((row = cursor.next()) != null) {
+                rows.put((Integer) row.getValues(0), (String) row.getValues(1));
+            }
+        }
+        return rows;
+    }
+}
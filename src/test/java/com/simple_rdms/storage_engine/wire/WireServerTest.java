@@ -0,0 +1,315 @@
+package com.simple_rdms.storage_engine.wire;
+
+import com.simple_rdms.storage_engine.command.SQLCommands;
+import com.simple_rdms.storage_engine.command.SQLExecutor;
+import com.simple_rdms.storage_engine.command.TableFileFactory;
+import com.simple_rdms.storage_engine.database_manager.DatabaseManager;
+import com.simple_rdms.storage_engine.page.RowLayout;
+import com.simple_rdms.storage_engine.schema.ColumnDef;
+import com.simple_rdms.storage_engine.schema.ColumnType;
+import com.simple_rdms.storage_engine.schema.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Clients talking to a WireServer on a free port, against a database in a temporary data folder
+ */
+class WireServerTest {
+    private static final int ROWS = 1000;
+
+    private final String database = "wire_test";
+    private final TableFileFactory tableFileFactory = new TableFileFactory();
+    private WireServer server;
+
+    @TempDir
+    Path dataDir;
+
+    @BeforeEach
+    void open() throws IOException {
+        DatabaseManager databaseManager = new DatabaseManager(dataDir);
+        SQLExecutor sqlExecutor = new SQLExecutor(tableFileFactory);
+        SQLCommands commands = new SQLCommands(databaseManager, tableFileFactory, sqlExecutor);
+        databaseManager.createDatabase(database);
+        databaseManager.useDatabase(database);
+        commands.createTable("t", "id:INT", "v:STRING");
+        for (int i = 0; i < ROWS; i++) {
+            commands.executeSQL("INSERT INTO t VALUES (" + i + ", 'v" + i + "')");
+        }
+        server = new WireServer(databaseManager, sqlExecutor);
+        server.listen(0);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        server.stop();
+        tableFileFactory.closeAll();
+    }
+
+    @Test
+    void preparedSelectIsFetchedInBatches() throws IOException {
+        try (Client client = new Client(server.getPort())) {
+            client.expect(WireProtocol.OK, WireProtocol.USE, Client.string(database));
+            assertEquals(List.of(ColumnType.INT), client.prepare(1, "SELECT id, v FROM t WHERE id >= ?"));
+            client.bind(1, 990);
+            assertEquals(List.of("id", "v"), client.execute(1));
+
+            List<Object[]> rows = new ArrayList<>();
+            assertEquals(WireProtocol.SUSPENDED, client.fetch(1, 4, rows));
+            assertEquals(4, rows.size());
+            assertEquals(WireProtocol.COMPLETE, client.fetch(1, 100, rows));
+            assertEquals(10, rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(List.of(990 + i, "v" + (990 + i)), Arrays.asList(rows.get(i)));
+            }
+
+            // Executed again with other arguments, the statement stays prepared
+            client.bind(1, 0);
+            client.execute(1);
+            rows.clear();
+            assertEquals(WireProtocol.COMPLETE, client.fetch(1, ROWS + 1, rows));
+            assertEquals(ROWS, rows.size());
+        }
+    }
+
+    @Test
+    void nullsAreMarkedInTheBitmap() throws IOException {
+        try (Client client = new Client(server.getPort())) {
+            client.expect(WireProtocol.OK, WireProtocol.USE, Client.string(database));
+            client.prepare(1, "SELECT COUNT(*), MAX(v), SUM(id) FROM t WHERE id < 0");
+            client.execute(1);
+            List<Object[]> rows = new ArrayList<>();
+            client.fetch(1, 10, rows);
+            assertEquals(Arrays.asList(0.0, null, null), Arrays.asList(rows.get(0)));
+
+            // The next row on the same connection has no stale null bits
+            client.prepare(2, "SELECT id, v FROM t WHERE id = 5");
+            client.execute(2);
+            rows.clear();
+            client.fetch(2, 10, rows);
+            assertEquals(List.of(5, "v5"), Arrays.asList(rows.get(0)));
+        }
+    }
+
+    @Test
+    void countsAndIntegerSumsGoOutAsDoubles() throws IOException {
+        try (Client client = new Client(server.getPort())) {
+            client.expect(WireProtocol.OK, WireProtocol.USE, Client.string(database));
+            client.prepare(1, "INSERT INTO t VALUES (?, 'big')");
+            for (int i = 0; i < 3; i++) {
+                client.bind(1, Integer.MAX_VALUE - i);
+                client.expect(WireProtocol.COMPLETE, WireProtocol.EXECUTE, ByteBuffer.allocate(4).putInt(1).array());
+            }
+
+            // The sum no longer fits an INT
+            client.prepare(2, "SELECT SUM(id), COUNT(*) FROM t WHERE id >= ?");
+            client.bind(2, Integer.MAX_VALUE - 2);
+            client.execute(2);
+            List<Object[]> rows = new ArrayList<>();
+            assertEquals(WireProtocol.COMPLETE, client.fetch(2, 10, rows));
+            assertEquals(List.of(3.0 * Integer.MAX_VALUE - 3, 3.0), Arrays.asList(rows.get(0)));
+        }
+    }
+
+    @Test
+    void errorsLeaveTheConnectionOpen() throws IOException {
+        try (Client client = new Client(server.getPort())) {
+            client.expect(WireProtocol.ERROR, WireProtocol.PREPARE, client.prepareFrame(1, "SELECT * FROM t"));
+            client.expect(WireProtocol.ERROR, WireProtocol.USE, Client.string("../" + database));
+            client.expect(WireProtocol.OK, WireProtocol.USE, Client.string(database));
+            client.expect(WireProtocol.ERROR, WireProtocol.PREPARE, client.prepareFrame(1, "COPY t FROM 'rows.csv'"));
+            client.expect(WireProtocol.ERROR, WireProtocol.PREPARE, client.prepareFrame(1, "BEGIN"));
+            client.expect(WireProtocol.ERROR, WireProtocol.EXECUTE, ByteBuffer.allocate(4).putInt(9).array());
+            client.expect(WireProtocol.ERROR, (byte) 'Z', new byte[0]);
+
+            client.prepare(1, "UPDATE t SET v = 'z' WHERE id = ?");
+            client.bind(1, 3);
+            client.expect(WireProtocol.COMPLETE, WireProtocol.EXECUTE, ByteBuffer.allocate(4).putInt(1).array());
+            client.expect(WireProtocol.OK, WireProtocol.CLOSE, ByteBuffer.allocate(4).putInt(1).array());
+            client.expect(WireProtocol.ERROR, WireProtocol.EXECUTE, ByteBuffer.allocate(4).putInt(1).array());
+        }
+    }
+
+    @Test
+    void badFrameLengthClosesTheConnection() throws IOException {
+        try (Client client = new Client(server.getPort())) {
+            client.out.writeInt(-5);
+            client.out.flush();
+            assertEquals(WireProtocol.ERROR, client.read().get());
+            assertEquals(-1, client.in.read());
+        }
+    }
+
+    @Test
+    void concurrentClientsEachReadEveryRow() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < 32; c++) {
+                boolean abandon = c % 4 == 0;
+                results.add(pool.submit(() -> {
+                    try (Client client = new Client(server.getPort())) {
+                        client.expect(WireProtocol.OK, WireProtocol.USE, Client.string(database));
+                        client.prepare(1, "SELECT * FROM t");
+                        client.execute(1);
+                        List<Object[]> rows = new ArrayList<>();
+                        while (client.fetch(1, 100, rows) == WireProtocol.SUSPENDED) {
+                            // A client going away with its cursor open must not hold up the others
+                            if (abandon && rows.size() >= 300) return ROWS;
+                        }
+                        return rows.size();
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(ROWS, (int) result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class Client implements Closeable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        // Columns of the last ROW_DESCRIPTION, to decode DATA_ROWs with
+        private List<ColumnDef> columns;
+
+        Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void send(byte type, byte[] payload) throws IOException {
+            out.writeInt(payload.length + 1);
+            out.write(type);
+            out.write(payload);
+            out.flush();
+        }
+
+        ByteBuffer read() throws IOException {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            return ByteBuffer.wrap(frame);
+        }
+
+        /**
+         * Send a message and check the type of its answer, returning the rest of it
+         */
+        ByteBuffer expect(byte answer, byte type, byte[] payload) throws IOException {
+            send(type, payload);
+            ByteBuffer frame = read();
+            byte got = frame.get();
+            if (got != answer) {
+                throw new AssertionError("Expected " + (char) answer + " but got " + (char) got
+                        + (got == WireProtocol.ERROR ? ": " + string(frame) : ""));
+            }
+            return frame;
+        }
+
+        byte[] prepareFrame(int id, String sql) {
+            byte[] text = string(sql);
+            return ByteBuffer.allocate(4 + text.length).putInt(id).put(text).array();
+        }
+
+        List<ColumnType> prepare(int id, String sql) throws IOException {
+            ByteBuffer frame = expect(WireProtocol.PREPARED, WireProtocol.PREPARE, prepareFrame(id, sql));
+            assertEquals(id, frame.getInt());
+            List<ColumnType> types = new ArrayList<>();
+            for (int i = frame.getShort(); i > 0; i--) {
+                types.add(ColumnType.values()[frame.get()]);
+            }
+            return types;
+        }
+
+        void bind(int id, int argument) throws IOException {
+            byte[] row = new RowLayout(new TableSchema("arguments",
+                    List.of(new ColumnDef("a", ColumnType.INT)), 0), argument).serialize();
+            expect(WireProtocol.OK, WireProtocol.BIND, ByteBuffer.allocate(7 + row.length)
+                    .putInt(id).putShort((short) 1).put((byte) ColumnType.INT.ordinal()).put(row).array());
+        }
+
+        List<String> execute(int id) throws IOException {
+            ByteBuffer frame = expect(WireProtocol.ROW_DESCRIPTION, WireProtocol.EXECUTE,
+                    ByteBuffer.allocate(4).putInt(id).array());
+            columns = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (int i = frame.getShort(); i > 0; i--) {
+                String name = string(frame);
+                names.add(name);
+                columns.add(new ColumnDef(name, ColumnType.values()[frame.get()]));
+            }
+            return names;
+        }
+
+        /**
+         * Add the fetched rows and return SUSPENDED or COMPLETE
+         */
+        byte fetch(int id, int count, List<Object[]> rows) throws IOException {
+            send(WireProtocol.FETCH, ByteBuffer.allocate(8).putInt(id).putInt(count).array());
+            while (true) {
+                ByteBuffer frame = read();
+                byte type = frame.get();
+                if (type != WireProtocol.DATA_ROW) {
+                    assertTrue(type == WireProtocol.SUSPENDED || type == WireProtocol.COMPLETE, "answer " + (char) type);
+                    return type;
+                }
+                int bitmapBytes = (columns.size() + 7) / 8;
+                byte[] bitmap = new byte[bitmapBytes];
+                frame.get(bitmap);
+                List<ColumnDef> present = new ArrayList<>();
+                for (int i = 0; i < columns.size(); i++) {
+                    if ((bitmap[i / 8] & 1 << (i % 8)) == 0) present.add(columns.get(i));
+                }
+                Object[] values = new Object[columns.size()];
+                if (!present.isEmpty()) {
+                    RowLayout row = RowLayout.deserialize(frame, new TableSchema("row", present, 0));
+                    for (int i = 0, p = 0; i < values.length; i++) {
+                        if ((bitmap[i / 8] & 1 << (i % 8)) == 0) values[i] = row.getValues(p++);
+                    }
+                }
+                rows.add(values);
+            }
+        }
+
+        static byte[] string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array();
+        }
+
+        static String string(ByteBuffer frame) {
+            byte[] bytes = new byte[frame.getInt()];
+            frame.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}